@@ -0,0 +1,159 @@
+package org.jenkinsci.constant_pool_scanner.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Class files to benchmark against.
+ *
+ * <dl>
+ * <dt>{@code jdk}</dt><dd>the largest classes of {@code java.base} and {@code java.desktop}, read from {@code jrt:/}; needs Java 9 or newer</dd>
+ * <dt>{@code kotlin}</dt><dd>the Kotlin standard library, whose compiler-generated facades have huge pools</dd>
+ * <dt>{@code groovy}</dt><dd>the Groovy runtime</dd>
+ * </dl>
+ */
+final class Corpus {
+    private static final int JDK_CLASSES = 500;
+
+    final List<String> names;
+    final List<byte[]> classes;
+
+    private Corpus(List<String> names, List<byte[]> classes) {
+        this.names = names;
+        this.classes = classes;
+    }
+
+    static Corpus load(String name) throws IOException {
+        List<String> names = new ArrayList<String>();
+        List<byte[]> classes = new ArrayList<byte[]>();
+        if (name.equals("jdk"))
+            jdk(names, classes);
+        else if (name.equals("kotlin"))
+            classesIn(archive(kotlin.Unit.class), names, classes, "kotlin/");
+        else if (name.equals("groovy"))
+            classesIn(archive(groovy.lang.GroovyObject.class), names, classes, "groovy/", "org/codehaus/groovy/");
+        else
+            throw new IllegalArgumentException("Unknown corpus " + name);
+        return new Corpus(names, classes);
+    }
+
+    /**
+     * Writes the classes of the corpus into a temporary jar, deleted on exit.
+     */
+    File toJar() throws IOException {
+        File f = File.createTempFile("corpus", ".jar");
+        f.deleteOnExit();
+        JarOutputStream out = new JarOutputStream(new FileOutputStream(f));
+        try {
+            for (int i = 0; i < classes.size(); i++) {
+                out.putNextEntry(new JarEntry(names.get(i)));
+                out.write(classes.get(i));
+            }
+        } finally {
+            out.close();
+        }
+        return f;
+    }
+
+    /**
+     * Locates the jar a corpus comes from.
+     *
+     * When running from the shaded benchmark jar that is the benchmark jar itself for every corpus,
+     * which is why {@link #classesIn} only takes the entries under the corpus' own packages.
+     */
+    private static File archive(Class<?> marker) throws IOException {
+        try {
+            return new File(marker.getProtectionDomain().getCodeSource().getLocation().toURI());
+        } catch (URISyntaxException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static void classesIn(File archive, List<String> names, List<byte[]> classes, String... prefixes) throws IOException {
+        ZipFile zip = new ZipFile(archive);
+        try {
+            Enumeration<? extends ZipEntry> e = zip.entries();
+            while (e.hasMoreElements()) {
+                ZipEntry entry = e.nextElement();
+                String n = entry.getName();
+                if (!n.endsWith(".class") || n.startsWith("META-INF/"))
+                    continue;
+                for (String p : prefixes) {
+                    if (n.startsWith(p)) {
+                        InputStream in = zip.getInputStream(entry);
+                        try {
+                            names.add(n);
+                            classes.add(readFully(in));
+                        } finally {
+                            in.close();
+                        }
+                        break;
+                    }
+                }
+            }
+        } finally {
+            zip.close();
+        }
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int n;
+        while ((n = in.read(buf)) >= 0) {
+            out.write(buf, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    private static void jdk(List<String> names, List<byte[]> classes) throws IOException {
+        FileSystem jrt = FileSystems.getFileSystem(URI.create("jrt:/"));
+        final List<Path> all = new ArrayList<Path>();
+        for (final String module : new String[] {"java.base", "java.desktop"}) {
+            Files.walkFileTree(jrt.getPath("/modules", module), new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    String n = file.getFileName().toString();
+                    if (n.endsWith(".class") && !n.equals("module-info.class"))
+                        all.add(file);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+        Collections.sort(all, new Comparator<Path>() {
+            public int compare(Path a, Path b) {
+                try {
+                    return Long.compare(Files.size(b), Files.size(a));
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+        for (Path p : all.subList(0, Math.min(JDK_CLASSES, all.size()))) {
+            // /modules/<module>/<entry name>
+            names.add(p.subpath(2, p.getNameCount()).toString());
+            classes.add(Files.readAllBytes(p));
+        }
+    }
+}
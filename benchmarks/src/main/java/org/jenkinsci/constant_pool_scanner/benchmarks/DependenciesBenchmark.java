@@ -0,0 +1,90 @@
+package org.jenkinsci.constant_pool_scanner.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.jenkinsci.constant_pool_scanner.ClassNameMatcher;
+import org.jenkinsci.constant_pool_scanner.ConstantPoolScanner;
+import org.jenkinsci.constant_pool_scanner.ScannerContext;
+import org.jenkinsci.constant_pool_scanner.SymbolTable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The various ways to compute {@link ConstantPoolScanner#dependencies(byte[])}.
+ * One operation is one class file.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DependenciesBenchmark {
+
+    @Param({"jdk", "kotlin", "groovy"})
+    public String corpus;
+
+    private List<byte[]> classes;
+    private int next;
+    private final ScannerContext context = new ScannerContext();
+    private final ScannerContext symbolContext = new ScannerContext(new SymbolTable());
+    /**
+     * Rarely matches, so that most scans run to the end without decoding anything.
+     */
+    private final ClassNameMatcher blocklist = new ClassNameMatcher().addPackage("sun.misc").addClass("java.lang.Thread$State");
+
+    @Setup
+    public void setUp() throws IOException {
+        classes = Corpus.load(corpus).classes;
+    }
+
+    private byte[] next(Throughput t) {
+        byte[] c = classes.get(next);
+        next = (next + 1) % classes.size();
+        t.bytes += c.length;
+        return c;
+    }
+
+    @Benchmark
+    public Set<String> bytes(Throughput t) throws IOException {
+        return ConstantPoolScanner.dependencies(next(t));
+    }
+
+    @Benchmark
+    public Set<String> stream(Throughput t) throws IOException {
+        return ConstantPoolScanner.dependencies(new ByteArrayInputStream(next(t)));
+    }
+
+    @Benchmark
+    public Set<String> reusedContext(Throughput t) throws IOException {
+        return context.dependencies(next(t));
+    }
+
+    @Benchmark
+    public Set<String> unsorted(Throughput t) throws IOException {
+        return context.dependencies(next(t), new HashSet<String>());
+    }
+
+    @Benchmark
+    public boolean referencesAny(Throughput t) throws IOException {
+        return context.referencesAny(next(t), blocklist);
+    }
+
+    @Benchmark
+    public int[] symbolIds(Throughput t) throws IOException {
+        return symbolContext.dependencyIds(next(t));
+    }
+}
@@ -0,0 +1,76 @@
+package org.jenkinsci.constant_pool_scanner.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import org.jenkinsci.constant_pool_scanner.ConstantPoolScanner;
+import org.jenkinsci.constant_pool_scanner.JarScanner;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Scanning every class of a whole jar of the corpus, the hand-written single-threaded way and with {@link JarScanner}.
+ * One operation is one jar.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JarBenchmark {
+
+    @Param({"jdk", "kotlin", "groovy"})
+    public String corpus;
+
+    private File jar;
+
+    @Setup
+    public void setUp() throws IOException {
+        jar = Corpus.load(corpus).toJar();
+    }
+
+    @Benchmark
+    public Map<String,Set<String>> loop() throws IOException {
+        Map<String,Set<String>> r = new LinkedHashMap<String,Set<String>>();
+        ZipFile zip = new ZipFile(jar);
+        try {
+            Enumeration<? extends ZipEntry> e = zip.entries();
+            while (e.hasMoreElements()) {
+                ZipEntry entry = e.nextElement();
+                if (!entry.getName().endsWith(".class"))
+                    continue;
+                InputStream in = zip.getInputStream(entry);
+                try {
+                    r.put(entry.getName(), ConstantPoolScanner.dependencies(in));
+                } finally {
+                    in.close();
+                }
+            }
+        } finally {
+            zip.close();
+        }
+        return r;
+    }
+
+    @Benchmark
+    public Map<String,Set<String>> jarScanner() throws IOException {
+        return new JarScanner().scan(jar);
+    }
+}
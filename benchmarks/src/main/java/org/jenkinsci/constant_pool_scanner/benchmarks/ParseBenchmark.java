@@ -0,0 +1,92 @@
+package org.jenkinsci.constant_pool_scanner.benchmarks;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.jenkinsci.constant_pool_scanner.ConstantPool;
+import org.jenkinsci.constant_pool_scanner.ConstantPoolScanner;
+import org.jenkinsci.constant_pool_scanner.ConstantType;
+import org.jenkinsci.constant_pool_scanner.Utf8Constant;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * {@link ConstantPoolScanner#parse(byte[], ConstantType...)} with various sets of constant types.
+ * One operation is one class file.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseBenchmark {
+
+    @Param({"jdk", "kotlin", "groovy"})
+    public String corpus;
+
+    /**
+     * Comma-separated {@link ConstantType}s, or {@code ALL}.
+     */
+    @Param({"CLASS", "CLASS,NAME_AND_TYPE", "UTF8", "METHOD_REF", "STRING", "ALL"})
+    public String types;
+
+    private List<byte[]> classes;
+    private ConstantType[] collect;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        classes = Corpus.load(corpus).classes;
+        if (types.equals("ALL")) {
+            collect = EnumSet.allOf(ConstantType.class).toArray(new ConstantType[0]);
+        } else {
+            String[] names = types.split(",");
+            collect = new ConstantType[names.length];
+            for (int i = 0; i < names.length; i++) {
+                collect[i] = ConstantType.valueOf(names[i]);
+            }
+        }
+    }
+
+    private byte[] next(Throughput t) {
+        byte[] c = classes.get(next);
+        next = (next + 1) % classes.size();
+        t.bytes += c.length;
+        return c;
+    }
+
+    @Benchmark
+    public ConstantPool parse(Throughput t) throws IOException {
+        return ConstantPoolScanner.parse(next(t), collect);
+    }
+
+    /**
+     * Parses and then looks at every collected constant, decoding UTF-8 ones,
+     * for a fair comparison with the cost of parsing before constants were read lazily.
+     */
+    @Benchmark
+    public void parseAndList(Throughput t, Blackhole bh) throws IOException {
+        ConstantPool pool = ConstantPoolScanner.parse(next(t), collect);
+        for (Object o : pool.list(Object.class)) {
+            bh.consume(o instanceof Utf8Constant ? ((Utf8Constant) o).get() : o);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(collect);
+    }
+}
@@ -0,0 +1,47 @@
+package org.jenkinsci.constant_pool_scanner.maven;
+
+import java.io.File;
+import java.io.IOException;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.jenkinsci.constant_pool_scanner.EmbeddedIndex;
+
+/**
+ * Writes the dependencies of the project's classes to {@link EmbeddedIndex#ENTRY} among them,
+ * so that the jar packaged next carries them and {@link EmbeddedIndex#scan(File)} need not scan its classes.
+ *
+ * <p>
+ * Bound to {@code prepare-package}, the last phase before the classes are packaged.
+ */
+@Mojo(name = "index", defaultPhase = LifecyclePhase.PREPARE_PACKAGE, threadSafe = true)
+public class IndexMojo extends AbstractMojo {
+    /**
+     * Directory of the class files to index, which the jar is made of.
+     */
+    @Parameter(defaultValue = "${project.build.outputDirectory}", required = true)
+    private File classesDirectory;
+
+    @Parameter(property = "constant-pool-scanner.skip", defaultValue = "false")
+    private boolean skip;
+
+    public void execute() throws MojoExecutionException {
+        if (skip) {
+            getLog().info("Skipping the dependency index");
+            return;
+        }
+        if (!classesDirectory.isDirectory()) {
+            getLog().info("No classes to index in " + classesDirectory);
+            return;
+        }
+        File index = new File(classesDirectory, EmbeddedIndex.ENTRY);
+        try {
+            int n = EmbeddedIndex.write(classesDirectory, index);
+            getLog().info("Indexed the dependencies of " + n + " classes in " + index);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Failed to index " + classesDirectory, e);
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package org.jenkinsci.constant_pool_scanner;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.Attributes;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Computes {@link ConstantPoolScanner#dependencies(InputStream)} for every class in an archive
+ * and in the archives nested in it, such as {@code WEB-INF/lib/*.jar} in a {@code .war} or {@code .hpi},
+ * reading each nested archive straight out of its parent's stream, without extracting anything.
+ *
+ * <p>
+ * Classes are keyed by their path: the entry name, preceded by the names of the archives it is nested in,
+ * each followed by {@code !/}, e.g. {@code WEB-INF/lib/foo.jar!/some/pkg/Foo.class}.
+ * Entries whose name ends with {@code .jar}, {@code .war}, {@code .hpi} or {@code .jpi} are walked as archives.
+ *
+ * <p>
+ * Multi-release jars are read as a class loader of the given Java release would see them:
+ * a class under {@code META-INF/versions/N/} for the highest {@code N} not above that release
+ * takes the place of the one at the root, under the root name.
+ * Without a release, or in jars whose manifest does not say {@code Multi-Release: true},
+ * the versioned classes are left out.
+ *
+ * <p>
+ * Instances hold no state other than their configuration and can be shared.
+ */
+public final class ArchiveWalker {
+    private static final String VERSIONS = "META-INF/versions/";
+    private static final Attributes.Name MULTI_RELEASE = new Attributes.Name("Multi-Release");
+
+    private final int release;
+    private final ScanOptions options;
+
+    /**
+     * Walks archives ignoring multi-release versions.
+     */
+    public ArchiveWalker() {
+        this(0,null);
+    }
+
+    /**
+     * @param release Java release (e.g. 11) for which to pick classes out of multi-release jars, or 0 to ignore versions
+     * @param options if non-null, only the class names that pass its filter are reported
+     */
+    public ArchiveWalker(int release, ScanOptions options) {
+        if (release<0)
+            throw new IllegalArgumentException("Negative release " + release);
+        this.release = release;
+        this.options = options;
+    }
+
+    /**
+     * Scans all the classes in an archive and in the archives nested in it.
+     *
+     * @return dependencies of each class keyed by path, in the order the entries appear
+     * @throws IOException if an entry cannot be read or is not a valid class file
+     */
+    public Map<String,Set<String>> scan(File archive) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(archive),65536);
+        try {
+            return scan(in);
+        } catch (IOException e) {
+            throw new IOException("Failed to scan " + archive, e);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Scans all the classes in a stream that reads an archive, and in the archives nested in it.
+     * The stream is read to the end of the archive but not closed.
+     *
+     * @see #scan(File)
+     */
+    public Map<String,Set<String>> scan(InputStream archive) throws IOException {
+        Map<String,Set<String>> r = new LinkedHashMap<String,Set<String>>();
+        walk(archive,"",new ScannerContext(),r);
+        return r;
+    }
+
+    private void walk(InputStream archive, String prefix, ScannerContext context, Map<String,Set<String>> r) throws IOException {
+        ZipInputStream zip = new ZipInputStream(new FilterInputStream(archive) {
+            @Override public void close() {
+                // leave the parent open
+            }
+        });
+        try {
+            boolean multiRelease = false;
+            // root name -> the best versioned variant seen so far
+            Map<String,Versioned> versioned = null;
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry())!=null) {
+                if (entry.isDirectory())
+                    continue;
+                String name = entry.getName();
+                if (isArchive(name)) {
+                    walk(zip,prefix+name+"!/",context,r);
+                    continue;
+                }
+                try {
+                    if (name.endsWith(".class")) {
+                        if (!name.startsWith(VERSIONS)) {
+                            r.put(prefix+name,context.dependencies(zip,options));
+                            continue;
+                        }
+                        if (release==0)
+                            continue;
+                        int slash = name.indexOf('/',VERSIONS.length());
+                        int version = slash<0 ? -1 : parseVersion(name.substring(VERSIONS.length(),slash));
+                        if (version<9 || version>release)
+                            continue;
+                        String root = name.substring(slash+1);
+                        if (versioned==null)
+                            versioned = new HashMap<String,Versioned>();
+                        Versioned v = versioned.get(root);
+                        if (v==null || v.version<version)
+                            versioned.put(root,new Versioned(version,context.dependencies(zip,options)));
+                    } else if (release!=0 && name.equals("META-INF/MANIFEST.MF")) {
+                        multiRelease = "true".equalsIgnoreCase(new Manifest(zip).getMainAttributes().getValue(MULTI_RELEASE));
+                    }
+                } catch (IOException e) {
+                    throw new IOException("Failed to scan " + prefix + name, e);
+                }
+            }
+            if (multiRelease && versioned!=null) {
+                for (Map.Entry<String,Versioned> e : versioned.entrySet()) {
+                    r.put(prefix+e.getKey(),e.getValue().dependencies);
+                }
+            }
+        } finally {
+            zip.close();
+        }
+    }
+
+    private static boolean isArchive(String name) {
+        return name.endsWith(".jar") || name.endsWith(".war") || name.endsWith(".hpi") || name.endsWith(".jpi");
+    }
+
+    private static int parseVersion(String s) {
+        try {
+            return Integer.parseInt(s);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static final class Versioned {
+        final int version;
+        final Set<String> dependencies;
+
+        Versioned(int version, Set<String> dependencies) {
+            this.version = version;
+            this.dependencies = dependencies;
+        }
+    }
+}
@@ -0,0 +1,349 @@
+package org.jenkinsci.constant_pool_scanner;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Finds the class names that only the fields, methods and attributes of a class file mention,
+ * for {@link ScanOptions#deep()}: field and method descriptors, generic {@code Signature}s,
+ * the types of annotations and of their {@code enum} and {@code Class} values, and record components.
+ *
+ * <p>
+ * Only the attributes that hold descriptors are parsed; the others, {@code Code} among them, are skipped by length.
+ * A nested class whose outer class has type arguments, as in {@code Lpkg/Outer<TT;>.Inner;},
+ * is reported as its outer class, since the {@code InnerClasses} attribute puts the nested class itself in the pool.
+ *
+ * Not thread-safe; each {@link ScannerContext} has its own.
+ */
+final class AttributeReader {
+    private static final int OTHER = 0, SIGNATURE = 1, ANNOTATIONS = 2, PARAMETER_ANNOTATIONS = 3,
+            TYPE_ANNOTATIONS = 4, ANNOTATION_DEFAULT = 5, RECORD = 6;
+
+    private static final byte[] SIGNATURE_NAME = ModifiedUtf8.encode("Signature"),
+            ANNOTATION_DEFAULT_NAME = ModifiedUtf8.encode("AnnotationDefault"),
+            RECORD_NAME = ModifiedUtf8.encode("Record");
+    private static final byte[] RUNTIME = ModifiedUtf8.encode("Runtime");
+    private static final byte[] VISIBLE = ModifiedUtf8.encode("Visible"), INVISIBLE = ModifiedUtf8.encode("Invisible");
+    private static final byte[] ANNOTATIONS_SUFFIX = ModifiedUtf8.encode("Annotations"),
+            PARAMETER_SUFFIX = ModifiedUtf8.encode("ParameterAnnotations"),
+            TYPE_SUFFIX = ModifiedUtf8.encode("TypeAnnotations");
+
+    private final Utf8Constant utf8 = new Utf8Constant();
+    private PoolIndex idx;
+    private ByteBuffer b;
+    private ClassNameTokenizer names;
+
+    /**
+     * Reports the names found past the constant pool of the class file in the index.
+     */
+    void read(PoolIndex idx, ClassNameTokenizer names) throws IOException {
+        this.idx = idx;
+        this.b = idx.source;
+        this.names = names;
+        int p = idx.end;
+        try {
+            p += 8+2*b.getChar(p+6); // access_flags, this_class, super_class, interfaces
+            for (int kind = 0; kind < 2; kind++) {
+                int n = b.getChar(p);
+                p += 2;
+                for (int i = 0; i < n; i++) {
+                    names.descriptor(idx.utf8Ref(b.getChar(p+4),utf8));
+                    p = attributes(p+6);
+                }
+            }
+            attributes(p);
+        } catch (IndexOutOfBoundsException e) {
+            EOFException x = new EOFException("Truncated class file at offset " + (p - b.position()) + ", past its constant pool");
+            x.initCause(e);
+            throw x;
+        } finally {
+            this.idx = null;
+            this.b = null;
+            this.names = null;
+        }
+    }
+
+    /**
+     * @param p offset of an {@code attributes_count}
+     * @return offset of the first byte after the attributes
+     */
+    private int attributes(int p) throws IOException {
+        int n = b.getChar(p);
+        p += 2;
+        for (int i = 0; i < n; i++) {
+            int kind = kind(b.getChar(p));
+            int length = b.getInt(p+2);
+            if (length<0 || (long)p+6+length>b.limit())
+                throw new EOFException("Truncated class file at offset " + (p - b.position()) + ", within an attribute");
+            int start = p+6;
+            p = start+length;
+            int q = start;
+            switch (kind) {
+            case OTHER:
+                continue;
+            case SIGNATURE:
+                signature(idx.utf8Ref(b.getChar(start),utf8));
+                q += 2;
+                break;
+            case ANNOTATIONS:
+                q = annotations(q);
+                break;
+            case PARAMETER_ANNOTATIONS:
+                int parameters = b.get(q++)&0xFF;
+                for (int j = 0; j < parameters; j++) {
+                    q = annotations(q);
+                }
+                break;
+            case TYPE_ANNOTATIONS:
+                int count = b.getChar(q);
+                q += 2;
+                for (int j = 0; j < count; j++) {
+                    q = annotation(typeAnnotationTarget(q));
+                }
+                break;
+            case ANNOTATION_DEFAULT:
+                q = elementValue(q);
+                break;
+            case RECORD:
+                int components = b.getChar(q);
+                q += 2;
+                for (int j = 0; j < components; j++) {
+                    names.descriptor(idx.utf8Ref(b.getChar(q+2),utf8));
+                    q = attributes(q+4);
+                }
+                break;
+            }
+            if (q>p)
+                throw new IOException("Malformed attribute at offset " + (start - 6 - b.position()));
+        }
+        return p;
+    }
+
+    /**
+     * Tells the attributes to parse apart by name, looking at the bytes of the name only.
+     */
+    private int kind(int nameIndex) throws IOException {
+        int p = idx.offsets[idx.checkUtf8(nameIndex)];
+        int length = b.getChar(p);
+        p += 2;
+        if (matches(p,length,SIGNATURE_NAME))
+            return SIGNATURE;
+        if (matches(p,length,ANNOTATION_DEFAULT_NAME))
+            return ANNOTATION_DEFAULT;
+        if (matches(p,length,RECORD_NAME))
+            return RECORD;
+        // Runtime(In)Visible(Parameter|Type)?Annotations
+        if (!startsWith(p,length,0,RUNTIME))
+            return OTHER;
+        int q = RUNTIME.length;
+        if (startsWith(p,length,q,VISIBLE))
+            q += VISIBLE.length;
+        else if (startsWith(p,length,q,INVISIBLE))
+            q += INVISIBLE.length;
+        else
+            return OTHER;
+        if (matches(p+q,length-q,ANNOTATIONS_SUFFIX))
+            return ANNOTATIONS;
+        if (matches(p+q,length-q,PARAMETER_SUFFIX))
+            return PARAMETER_ANNOTATIONS;
+        if (matches(p+q,length-q,TYPE_SUFFIX))
+            return TYPE_ANNOTATIONS;
+        return OTHER;
+    }
+
+    private boolean matches(int p, int length, byte[] name) {
+        return length==name.length && startsWith(p,length,0,name);
+    }
+
+    private boolean startsWith(int p, int length, int from, byte[] prefix) {
+        if (length-from<prefix.length)
+            return false;
+        for (int i = 0; i < prefix.length; i++) {
+            if (b.get(p+from+i)!=prefix[i])
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return offset after {@code num_annotations} annotations
+     */
+    private int annotations(int p) throws IOException {
+        int n = b.getChar(p);
+        p += 2;
+        for (int i = 0; i < n; i++) {
+            p = annotation(p);
+        }
+        return p;
+    }
+
+    private int annotation(int p) throws IOException {
+        names.descriptor(idx.utf8Ref(b.getChar(p),utf8)); // type_index
+        int pairs = b.getChar(p+2);
+        p += 4;
+        for (int i = 0; i < pairs; i++) {
+            p = elementValue(p+2);
+        }
+        return p;
+    }
+
+    private int elementValue(int p) throws IOException {
+        int tag = b.get(p++);
+        switch (tag) {
+        case 'B': case 'C': case 'D': case 'F': case 'I': case 'J': case 'S': case 'Z': case 's':
+            return p+2;
+        case 'e':
+            names.descriptor(idx.utf8Ref(b.getChar(p),utf8)); // type_name_index
+            return p+4;
+        case 'c':
+            names.descriptor(idx.utf8Ref(b.getChar(p),utf8)); // return descriptor, e.g. V or Lpkg/Foo;
+            return p+2;
+        case '@':
+            return annotation(p);
+        case '[':
+            int n = b.getChar(p);
+            p += 2;
+            for (int i = 0; i < n; i++) {
+                p = elementValue(p);
+            }
+            return p;
+        default:
+            throw new IOException("Unknown annotation element tag " + tag + " at offset " + (p - 1 - b.position()));
+        }
+    }
+
+    /**
+     * Skips the {@code target_type}, {@code target_info} and {@code target_path} of a type annotation.
+     *
+     * @return offset of the annotation that follows
+     */
+    private int typeAnnotationTarget(int p) throws IOException {
+        int target = b.get(p++)&0xFF;
+        switch (target) {
+        case 0x00: case 0x01: // type parameter
+        case 0x16: // formal parameter
+            p += 1;
+            break;
+        case 0x10: // supertype
+        case 0x11: case 0x12: // type parameter bound
+        case 0x17: // throws
+        case 0x42: // catch
+        case 0x43: case 0x44: case 0x45: case 0x46: // instanceof, new, method references
+            p += 2;
+            break;
+        case 0x13: case 0x14: case 0x15: // field, return, receiver
+            break;
+        case 0x40: case 0x41: // local variables
+            p += 2+6*b.getChar(p);
+            break;
+        case 0x47: case 0x48: case 0x49: case 0x4A: case 0x4B: // casts and type arguments
+            p += 3;
+            break;
+        default:
+            throw new IOException("Unknown type annotation target " + target + " at offset " + (p - 1 - b.position()));
+        }
+        return p+1+2*(b.get(p)&0xFF); // type_path
+    }
+
+    /**
+     * Reports the classes in a class, method or field signature, skipping the names of type variables.
+     */
+    private void signature(Utf8Constant s) throws IOException {
+        int p = s.offset;
+        int end = p+s.byteLength;
+        try {
+            if (at(p,end)=='<')
+                p = typeParameters(p+1,end);
+            if (p<end && b.get(p)=='(') {
+                p++;
+                while (at(p,end)!=')') {
+                    p = type(p,end);
+                }
+                p = type(p+1,end);
+                while (p<end && b.get(p)=='^') {
+                    p = type(p+1,end);
+                }
+            }
+            while (p<end) {
+                p = type(p,end);
+            }
+        } catch (IOException e) {
+            throw new ScanException(ScanStatistics.Failure.INVALID_DESCRIPTOR,"Invalid signature: " + s.get(),e);
+        }
+    }
+
+    /**
+     * @param p offset after the {@code <}
+     * @return offset after the {@code >}
+     */
+    private int typeParameters(int p, int end) throws IOException {
+        while (at(p,end)!='>') {
+            while (at(p,end)!=':') {
+                p++; // identifier
+            }
+            while (p<end && b.get(p)==':') {
+                p++;
+                if (at(p,end)!=':' && b.get(p)!='>')
+                    p = type(p,end);
+            }
+        }
+        return p+1;
+    }
+
+    /**
+     * Parses one type signature, reporting the classes in it.
+     *
+     * @return offset after it
+     */
+    private int type(int p, int end) throws IOException {
+        switch (at(p,end)) {
+        case 'B': case 'C': case 'D': case 'F': case 'I': case 'J': case 'S': case 'Z': case 'V':
+            return p+1;
+        case '[':
+            return type(p+1,end);
+        case 'T':
+            while (at(p,end)!=';') {
+                p++;
+            }
+            return p+1;
+        case 'L':
+            int start = ++p;
+            byte c;
+            while ((c = at(p,end))!=';' && c!='<' && c!='.') {
+                p++;
+            }
+            names.name(b,start,p-start);
+            while (c!=';') {
+                if (c=='<') {
+                    p++;
+                    while (at(p,end)!='>') {
+                        if (b.get(p)=='*') {
+                            p++;
+                        } else {
+                            if (b.get(p)=='+' || b.get(p)=='-')
+                                p++;
+                            p = type(p,end);
+                        }
+                    }
+                    p++;
+                } else {
+                    p++; // the simple name of a nested class
+                    while ((c = at(p,end))!=';' && c!='<' && c!='.') {
+                        p++;
+                    }
+                }
+                c = at(p,end);
+            }
+            return p+1;
+        default:
+            throw new IOException("Unexpected character '" + (char)b.get(p) + "'");
+        }
+    }
+
+    private byte at(int p, int end) throws IOException {
+        if (p>=end)
+            throw new IOException("Unexpected end");
+        return b.get(p);
+    }
+}
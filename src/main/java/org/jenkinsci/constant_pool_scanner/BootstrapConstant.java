@@ -0,0 +1,41 @@
+package org.jenkinsci.constant_pool_scanner;
+
+/**
+ * Constant resolved by calling a bootstrap method, either a dynamically-computed constant
+ * or a call site of {@code invokedynamic}.
+ */
+public abstract class BootstrapConstant {
+    int bootstrapMethodAttrIndex;
+    NameAndTypeConstant nameAndType;
+
+    /**
+     * Index into the {@code BootstrapMethods} attribute of the class (not into the constant pool.)
+     */
+    public int getBootstrapMethodAttrIndex() {
+        return bootstrapMethodAttrIndex;
+    }
+
+    /**
+     * Name passed to the bootstrap method.
+     */
+    public String getName() {
+        return nameAndType.getName();
+    }
+
+    /**
+     * Field descriptor of the constant, or method descriptor of the call site.
+     */
+    public String getDescriptor() {
+        return nameAndType.getDescriptor();
+    }
+
+    public NameAndTypeConstant getNameAndTypeConstant() {
+        return nameAndType;
+    }
+
+    BootstrapConstant set(int bootstrapMethodAttrIndex, NameAndTypeConstant nameAndType) {
+        this.bootstrapMethodAttrIndex = bootstrapMethodAttrIndex;
+        this.nameAndType = nameAndType;
+        return this;
+    }
+}
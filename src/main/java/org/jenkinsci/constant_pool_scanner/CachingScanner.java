@@ -0,0 +1,438 @@
+package org.jenkinsci.constant_pool_scanner;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Computes {@link ConstantPoolScanner#dependencies(byte[])} and remembers the results by class file contents,
+ * for callers that see the same classes many times, such as libraries bundled in many plugins.
+ *
+ * <p>
+ * Class files are identified by a 64-bit hash of their bytes and their length, or, for archive entries,
+ * by their name, size and the CRC-32 recorded in the archive, so that an entry seen before is not even inflated.
+ * Two different class files that agree on all of these would be mixed up; the odds are small enough to ignore.
+ *
+ * <p>
+ * Results are kept within a budget of (estimated) bytes, and evicted along the lines of W-TinyLFU:
+ * new results enter a small LRU window, and leave it for the main LRU area only if they have been asked for
+ * more often than what they would push out, according to a decaying frequency sketch of recent lookups.
+ * This keeps a burst of classes seen once from flushing the classes that keep coming back.
+ *
+ * <p>
+ * Safe for concurrent use. The cache is split into segments with a lock each, held only for bookkeeping;
+ * scans run outside the locks, so two threads missing the same class at once both scan it.
+ * Returned sets are unmodifiable and shared between callers.
+ */
+public final class CachingScanner {
+    /**
+     * Estimated bytes held by a cached result besides its names.
+     */
+    private static final int ENTRY_OVERHEAD = 120;
+    /**
+     * Estimated bytes held for each name in a cached result besides its characters.
+     */
+    private static final int NAME_OVERHEAD = 88;
+
+    private final ScanOptions options;
+    private final Segment[] segments;
+    private final ConcurrentLinkedQueue<ScannerContext> contexts = new ConcurrentLinkedQueue<ScannerContext>();
+    private final ConcurrentLinkedQueue<JarScanner.EntryReader> readers = new ConcurrentLinkedQueue<JarScanner.EntryReader>();
+    private final AtomicLong hits = new AtomicLong(), misses = new AtomicLong(), evictions = new AtomicLong();
+
+    /**
+     * @param maxBytes budget for the cached results, as estimated from the number and length of the names
+     */
+    public CachingScanner(long maxBytes) {
+        this(maxBytes,null);
+    }
+
+    /**
+     * @param maxBytes budget for the cached results, as estimated from the number and length of the names
+     * @param options if non-null, only the class names that pass its filter are reported
+     */
+    public CachingScanner(long maxBytes, ScanOptions options) {
+        if (maxBytes<=0)
+            throw new IllegalArgumentException("maxBytes must be positive: " + maxBytes);
+        this.options = options;
+        int n = Integer.highestOneBit(Math.max(1,Runtime.getRuntime().availableProcessors()))*2;
+        // segments much smaller than a typical result would cache next to nothing
+        while (n>1 && maxBytes/n<64*1024)
+            n /= 2;
+        segments = new Segment[n];
+        for (int i = 0; i < n; i++) {
+            segments[i] = new Segment(maxBytes/n);
+        }
+    }
+
+    /**
+     * @see ConstantPoolScanner#dependencies(byte[])
+     */
+    public Set<String> dependencies(byte[] data) throws IOException {
+        return dependencies(ByteBuffer.wrap(data));
+    }
+
+    /**
+     * @param data a Java class file, from the buffer's position to its limit; the position is left untouched
+     * @see ConstantPoolScanner#dependencies(ByteBuffer)
+     */
+    public Set<String> dependencies(ByteBuffer data) throws IOException {
+        long key = hash(data);
+        Set<String> r = lookup(key);
+        if (r==null)
+            r = store(key,scan(data));
+        return r;
+    }
+
+    /**
+     * Scans an entry of a jar or zip file, unless an entry with the same name, size and CRC-32 was scanned before.
+     */
+    public Set<String> dependencies(ZipFile zip, ZipEntry entry) throws IOException {
+        long crc = entry.getCrc(), size = entry.getSize();
+        if (crc==-1 || size==-1) {
+            // not known in advance; fall back to the contents
+            JarScanner.EntryReader reader = borrowReader();
+            try {
+                return dependencies(reader.read(zip,entry));
+            } finally {
+                readers.add(reader);
+            }
+        }
+
+        long key = mix((crc<<32 | size&0xFFFFFFFFL) ^ mix(entry.getName().hashCode()+0x9E3779B97F4A7C15L));
+        Set<String> r = lookup(key);
+        if (r==null) {
+            JarScanner.EntryReader reader = borrowReader();
+            try {
+                r = store(key,scan(reader.read(zip,entry)));
+            } finally {
+                readers.add(reader);
+            }
+        }
+        return r;
+    }
+
+    /**
+     * Scans all the {@code .class} entries of a jar or zip file, one after another.
+     *
+     * @return dependencies of each class keyed by entry name, as from {@link JarScanner#scan(File)}
+     */
+    public Map<String,Set<String>> scan(File archive) throws IOException {
+        Map<String,Set<String>> r = new LinkedHashMap<String,Set<String>>();
+        ZipFile zip = new ZipFile(archive);
+        try {
+            for (ZipEntry entry : JarScanner.classEntries(zip)) {
+                try {
+                    r.put(entry.getName(),dependencies(zip,entry));
+                } catch (IOException e) {
+                    throw new IOException("Failed to scan " + entry.getName() + " in " + archive, e);
+                }
+            }
+        } finally {
+            zip.close();
+        }
+        return r;
+    }
+
+    /**
+     * Number of lookups answered from the cache.
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Number of lookups that had to scan.
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Number of results dropped to stay within the budget, including new results that were not admitted.
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * Number of results currently cached.
+     */
+    public int size() {
+        int n = 0;
+        for (Segment s : segments) {
+            synchronized (s) {
+                n += s.window.size()+s.main.size();
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Estimated bytes held by the cached results.
+     */
+    public long getWeight() {
+        long n = 0;
+        for (Segment s : segments) {
+            synchronized (s) {
+                n += s.windowWeight+s.mainWeight;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Drops all cached results; the statistics are kept.
+     */
+    public void clear() {
+        for (Segment s : segments) {
+            synchronized (s) {
+                s.window.clear();
+                s.main.clear();
+                s.windowWeight = s.mainWeight = 0;
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "CachingScanner[hits=" + getHitCount() + ", misses=" + getMissCount() + ", evictions=" + getEvictionCount()
+             + ", size=" + size() + ", weight=" + getWeight() + "]";
+    }
+
+    private Set<String> scan(ByteBuffer data) throws IOException {
+        ScannerContext c = contexts.poll();
+        if (c==null)
+            c = new ScannerContext();
+        try {
+            return c.dependencies(data,options,new TreeSet<String>());
+        } finally {
+            contexts.add(c);
+        }
+    }
+
+    private JarScanner.EntryReader borrowReader() {
+        JarScanner.EntryReader r = readers.poll();
+        return r!=null ? r : new JarScanner.EntryReader();
+    }
+
+    private Set<String> lookup(long key) {
+        Segment s = segmentFor(key);
+        Set<String> r;
+        synchronized (s) {
+            r = s.get(key);
+        }
+        (r!=null ? hits : misses).incrementAndGet();
+        return r;
+    }
+
+    private Set<String> store(long key, Set<String> deps) {
+        long weight = ENTRY_OVERHEAD;
+        for (String n : deps) {
+            weight += NAME_OVERHEAD+n.length();
+        }
+        Set<String> r = Collections.unmodifiableSet(deps);
+        Segment s = segmentFor(key);
+        int evicted;
+        synchronized (s) {
+            evicted = s.put(key,new Entry(r,weight));
+        }
+        if (evicted!=0)
+            evictions.addAndGet(evicted);
+        return r;
+    }
+
+    private Segment segmentFor(long key) {
+        return segments[(int)(key>>>32) & (segments.length-1)];
+    }
+
+    /**
+     * Hashes the bytes from the position to the limit, eight at a time, together with their number.
+     */
+    static long hash(ByteBuffer data) {
+        ByteBuffer b = data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int p = b.position(), limit = b.limit();
+        long h = limit-p;
+        for (; p+8 <= limit; p += 8) {
+            h = (h ^ mix(b.getLong(p)))*0x9E3779B97F4A7C15L;
+        }
+        long tail = 0;
+        for (int i = 0; p < limit; p++, i += 8) {
+            tail |= (b.get(p)&0xFFL)<<i;
+        }
+        return mix(h ^ mix(tail));
+    }
+
+    /**
+     * Finalizer of SplitMix64; a bijection that spreads every input bit over the whole result.
+     */
+    private static long mix(long z) {
+        z = (z ^ (z>>>30))*0xBF58476D1CE4E5B9L;
+        z = (z ^ (z>>>27))*0x94D049BB133111EBL;
+        return z ^ (z>>>31);
+    }
+
+    private static final class Entry {
+        final Set<String> value;
+        final long weight;
+
+        Entry(Set<String> value, long weight) {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * One lock's worth of the cache. All methods are called with the segment locked.
+     */
+    private static final class Segment {
+        /**
+         * Share of the budget given to the window.
+         */
+        private static final int WINDOW_PERCENT = 1;
+
+        private final long maxWeight, maxWindowWeight;
+        final LinkedHashMap<Long,Entry> window = new LinkedHashMap<Long,Entry>(16,0.75f,true);
+        final LinkedHashMap<Long,Entry> main = new LinkedHashMap<Long,Entry>(16,0.75f,true);
+        long windowWeight, mainWeight;
+        private final FrequencySketch sketch;
+
+        Segment(long maxWeight) {
+            this.maxWeight = maxWeight;
+            this.maxWindowWeight = maxWeight*WINDOW_PERCENT/100;
+            // a few kilobytes per result is typical
+            this.sketch = new FrequencySketch((int)Math.min(1<<20,Math.max(16,maxWeight/2048)));
+        }
+
+        Set<String> get(long key) {
+            sketch.increment(key);
+            Entry e = window.get(key);
+            if (e==null)
+                e = main.get(key);
+            return e!=null ? e.value : null;
+        }
+
+        /**
+         * @return number of entries dropped
+         */
+        int put(long key, Entry e) {
+            if (e.weight>maxWeight-maxWindowWeight)
+                return 1; // would never fit
+            if (window.containsKey(key) || main.containsKey(key))
+                return 0; // another thread got there first
+            window.put(key,e);
+            windowWeight += e.weight;
+
+            int dropped = 0;
+            Iterator<Map.Entry<Long,Entry>> candidates = window.entrySet().iterator();
+            while (windowWeight>maxWindowWeight) {
+                Map.Entry<Long,Entry> c = candidates.next();
+                candidates.remove();
+                windowWeight -= c.getValue().weight;
+                if (admit(c.getKey(),c.getValue().weight)) {
+                    main.put(c.getKey(),c.getValue());
+                    mainWeight += c.getValue().weight;
+                } else {
+                    dropped++;
+                }
+            }
+            Iterator<Map.Entry<Long,Entry>> victims = main.entrySet().iterator();
+            while (mainWeight+windowWeight>maxWeight) {
+                Map.Entry<Long,Entry> v = victims.next();
+                victims.remove();
+                mainWeight -= v.getValue().weight;
+                dropped++;
+            }
+            return dropped;
+        }
+
+        /**
+         * Decides whether an entry leaving the window is worth more than the least recently used ones
+         * it would push out of the main area.
+         */
+        private boolean admit(long key, long weight) {
+            long room = maxWeight-maxWindowWeight-mainWeight;
+            if (room>=weight)
+                return true;
+            int frequency = sketch.frequency(key);
+            for (Map.Entry<Long,Entry> v : main.entrySet()) {
+                if (sketch.frequency(v.getKey())>=frequency)
+                    return false;
+                room += v.getValue().weight;
+                if (room>=weight)
+                    return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Count-min sketch of 4-bit counters, halved every so often so that it follows recent lookups.
+     */
+    private static final class FrequencySketch {
+        private final long[] table;
+        private final int mask;
+        private final int sampleSize;
+        private int additions;
+
+        FrequencySketch(int expectedEntries) {
+            int words = Integer.highestOneBit(Math.max(2,expectedEntries-1))<<1;
+            table = new long[words];
+            mask = words-1;
+            sampleSize = 10*words;
+        }
+
+        int frequency(long key) {
+            int f = 15;
+            for (int i = 0; i < 4; i++) {
+                f = Math.min(f,(int)(table[index(key,i)]>>>shift(key,i)) & 0xF);
+            }
+            return f;
+        }
+
+        void increment(long key) {
+            boolean added = false;
+            for (int i = 0; i < 4; i++) {
+                int w = index(key,i), s = shift(key,i);
+                if (((table[w]>>>s) & 0xF)!=0xF) {
+                    table[w] += 1L<<s;
+                    added = true;
+                }
+            }
+            if (added && ++additions==sampleSize)
+                age();
+        }
+
+        private void age() {
+            for (int i = 0; i < table.length; i++) {
+                table[i] = (table[i]>>>1) & 0x7777777777777777L;
+            }
+            additions /= 2;
+        }
+
+        /**
+         * Each of the four rows picks its word from different bits of the key...
+         */
+        private int index(long key, int row) {
+            return (int)(mix(key+row*0x9E3779B97F4A7C15L)>>>32) & mask;
+        }
+
+        /**
+         * ...and its counter within the word; the rows use different quarters of the 16 counters.
+         */
+        private static int shift(long key, int row) {
+            return ((int)(key>>>(row*8)) & 3 | row<<2)<<2;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package org.jenkinsci.constant_pool_scanner;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The part of a class file that follows the constant pool and comes before the fields:
+ * access flags, the class itself, its superclass and its interfaces.
+ * Together with the version from the start of the file.
+ *
+ * <p>
+ * Class names are binary names, e.g. {@code some.pkg.Outer$Inner}, like the ones from
+ * {@link ConstantPoolScanner#dependencies(byte[])}.
+ *
+ * @see ConstantPoolScanner#header(byte[])
+ * @see ConstantPool#header()
+ */
+public final class ClassHeader {
+    public static final int ACC_PUBLIC = 0x0001;
+    public static final int ACC_FINAL = 0x0010;
+    public static final int ACC_INTERFACE = 0x0200;
+    public static final int ACC_ABSTRACT = 0x0400;
+    public static final int ACC_ANNOTATION = 0x2000;
+    public static final int ACC_ENUM = 0x4000;
+    public static final int ACC_MODULE = 0x8000;
+
+    private final int minorVersion, majorVersion;
+    private final int accessFlags;
+    private final String name;
+    private final String superName;
+    private final List<String> interfaces;
+    /**
+     * Offset in the class file of the first byte after the header, where {@code fields_count} is.
+     */
+    final int end;
+
+    private ClassHeader(int minorVersion, int majorVersion, int accessFlags, String name, String superName, String[] interfaces, int end) {
+        this.minorVersion = minorVersion;
+        this.majorVersion = majorVersion;
+        this.accessFlags = accessFlags;
+        this.name = name;
+        this.superName = superName;
+        this.interfaces = Collections.unmodifiableList(Arrays.asList(interfaces));
+        this.end = end;
+    }
+
+    public int getMinorVersion() {
+        return minorVersion;
+    }
+
+    /**
+     * Class file version, e.g. 52 for Java 8.
+     */
+    public int getMajorVersion() {
+        return majorVersion;
+    }
+
+    /**
+     * {@code access_flags} of the class, a combination of the {@code ACC_*} constants.
+     */
+    public int getAccessFlags() {
+        return accessFlags;
+    }
+
+    public boolean isInterface() {
+        return (accessFlags & ACC_INTERFACE) != 0;
+    }
+
+    /**
+     * Name of the class itself.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Name of the superclass, or null for {@code java.lang.Object} and {@code module-info}.
+     */
+    public String getSuperName() {
+        return superName;
+    }
+
+    /**
+     * Names of the direct superinterfaces, in declaration order.
+     */
+    public List<String> getInterfaces() {
+        return interfaces;
+    }
+
+    @Override
+    public String toString() {
+        return "ClassHeader[" + name + " extends " + superName + " implements " + interfaces
+             + ", access=0x" + Integer.toHexString(accessFlags) + ", version=" + majorVersion + "." + minorVersion + "]";
+    }
+
+    /**
+     * Reads the header of a class file whose constant pool has been indexed.
+     *
+     * @param b the class file, in big-endian order, starting at its position
+     * @param end offset of the first byte after the constant pool
+     */
+    static ClassHeader read(ByteBuffer b, int end, int count, byte[] tags, int[] offsets) throws IOException {
+        int start = b.position();
+        if (end + 8 > b.limit())
+            throw new EOFException("Truncated class file at offset " + (end - start) + ", before the end of its header");
+        int n = b.getChar(end + 6);
+        if (end + 8 + 2 * n > b.limit())
+            throw new EOFException("Truncated class file at offset " + (end - start) + ", before the end of its header");
+        String[] interfaces = new String[n];
+        for (int i = 0; i < n; i++) {
+            interfaces[i] = className(b, end + 8 + 2 * i, count, tags, offsets, false);
+        }
+        return new ClassHeader(b.getChar(start + 4), b.getChar(start + 6), b.getChar(end),
+                className(b, end + 2, count, tags, offsets, false),
+                className(b, end + 4, count, tags, offsets, true),
+                interfaces, end + 8 + 2 * n);
+    }
+
+    /**
+     * Resolves the {@code CONSTANT_Class} whose index is at offset {@code p}.
+     */
+    private static String className(ByteBuffer b, int p, int count, byte[] tags, int[] offsets, boolean optional) throws IOException {
+        int i = b.getChar(p);
+        if (i == 0 && optional)
+            return null;
+        if (i <= 0 || i >= count || tags[i] != 7)
+            throw new ScanException(ScanStatistics.Failure.BAD_REFERENCE, "Class file header refers to constant pool entry " + i + " which is not a class");
+        int name = b.getChar(offsets[i]);
+        if (name <= 0 || name >= count || tags[name] != 1)
+            throw new ScanException(ScanStatistics.Failure.BAD_REFERENCE, "Constant pool entry " + i + " refers to entry " + name + " which does not have tag 1");
+        int o = offsets[name];
+        return ModifiedUtf8.decodeBinaryName(b, o + 2, b.getChar(o));
+    }
+}
@@ -0,0 +1,142 @@
+package org.jenkinsci.constant_pool_scanner;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Set of class names and packages, compiled into a trie over the modified UTF-8 bytes
+ * of their internal names so that names in a class file can be tested without decoding them.
+ *
+ * <pre>
+ * ClassNameMatcher deprecated = new ClassNameMatcher()
+ *     .addClass("java.lang.Thread$State")
+ *     .addPackage("sun.misc");
+ * if (ConstantPoolScanner.referencesAny(bytecode, deprecated)) ...
+ * </pre>
+ *
+ * <p>
+ * A matcher may be shared between threads once it has been filled in,
+ * but must not be added to while it is in use.
+ *
+ * @see ConstantPoolScanner#referencesAny(byte[], ClassNameMatcher)
+ */
+public final class ClassNameMatcher {
+    /**
+     * A name added by {@link #addClass(String)} ends at this node.
+     */
+    private static final byte CLASS = 1;
+    /**
+     * A package added by {@link #addPackage(String)} ends at this node, so everything below matches.
+     */
+    private static final byte PACKAGE = 2;
+
+    /**
+     * Flags of each trie node; node 0 is the root.
+     */
+    private byte[] flags = new byte[16];
+    private int nodes = 1;
+    /**
+     * Edges of the trie in an open-addressing table:
+     * the key is {@code (parent << 8 | byte) + 1}, or 0 for an empty slot, and the value the child node.
+     */
+    private int[] keys = new int[32];
+    private int[] children = new int[32];
+
+    /**
+     * Matches the class with the given binary name, e.g. {@code some.pkg.Outer$Inner}.
+     */
+    public ClassNameMatcher addClass(String binaryName) {
+        int node = insert(binaryName.replace('.', '/'));
+        flags[node] |= CLASS;
+        return this;
+    }
+
+    /**
+     * Matches every class in the given package, e.g. {@code hudson.util}, and in its subpackages.
+     */
+    public ClassNameMatcher addPackage(String packageName) {
+        if (packageName.length() == 0)
+            throw new IllegalArgumentException("Empty package name");
+        int node = insert(packageName.replace('.', '/') + '/');
+        flags[node] |= PACKAGE;
+        return this;
+    }
+
+    /**
+     * Tests a binary class name, e.g. {@code some.pkg.Outer$Inner}.
+     */
+    public boolean matches(String binaryName) {
+        byte[] b = ModifiedUtf8.encode(binaryName.replace('.', '/'));
+        return matches(ByteBuffer.wrap(b), 0, b.length);
+    }
+
+    /**
+     * Tests an internal class name held as modified UTF-8 at an absolute offset of a buffer.
+     */
+    boolean matches(ByteBuffer b, int offset, int length) {
+        int node = 0;
+        for (int i = 0; i < length; i++) {
+            if ((flags[node] & PACKAGE) != 0)
+                return true;
+            node = child(node, b.get(offset + i));
+            if (node < 0)
+                return false;
+        }
+        return (flags[node] & CLASS) != 0;
+    }
+
+    private int insert(String internalName) {
+        int node = 0;
+        for (byte b : ModifiedUtf8.encode(internalName)) {
+            int next = child(node, b);
+            if (next < 0) {
+                next = nodes++;
+                if (next == flags.length)
+                    flags = Arrays.copyOf(flags, next * 2);
+                put((node << 8 | (b & 0xFF)) + 1, next);
+            }
+            node = next;
+        }
+        return node;
+    }
+
+    private int child(int node, byte b) {
+        int key = (node << 8 | (b & 0xFF)) + 1;
+        int mask = keys.length - 1;
+        for (int slot = slot(key, mask); keys[slot] != 0; slot = (slot + 1) & mask) {
+            if (keys[slot] == key)
+                return children[slot];
+        }
+        return -1;
+    }
+
+    private void put(int key, int child) {
+        // every node but the root has exactly one incoming edge
+        if (nodes * 2 > keys.length) {
+            int[] oldKeys = keys;
+            int[] oldChildren = children;
+            keys = new int[oldKeys.length * 2];
+            children = new int[oldKeys.length * 2];
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != 0)
+                    putNew(oldKeys[i], oldChildren[i]);
+            }
+        }
+        putNew(key, child);
+    }
+
+    private void putNew(int key, int child) {
+        int mask = keys.length - 1;
+        int slot = slot(key, mask);
+        while (keys[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        children[slot] = child;
+    }
+
+    private static int slot(int key, int mask) {
+        int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+}
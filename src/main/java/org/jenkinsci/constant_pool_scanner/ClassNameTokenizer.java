@@ -0,0 +1,82 @@
+package org.jenkinsci.constant_pool_scanner;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Finds the internal class names mentioned by {@code CONSTANT_Class} entries
+ * and by the descriptors of {@code CONSTANT_NameAndType} and {@code CONSTANT_MethodType} entries,
+ * working on the raw bytes.
+ * The name and type of {@code invokedynamic} call sites and dynamic constants are
+ * {@code CONSTANT_NameAndType} entries, so their descriptors are covered too.
+ *
+ * Names are reported as byte ranges, so nothing gets decoded unless the subclass wants it.
+ * No byte of a multi-byte character can be mistaken for {@code L}, {@code [} or {@code ;},
+ * so scanning bytes finds the same names as scanning characters would.
+ */
+abstract class ClassNameTokenizer extends ConstantVisitor {
+    /**
+     * First failure, since visitor methods cannot throw it.
+     */
+    IOException problem;
+
+    /**
+     * Called for each internal class name found, e.g. {@code some/pkg/Outer$Inner}.
+     */
+    abstract void name(ByteBuffer source, int offset, int length);
+
+    @Override
+    public void visitClass(int index, int nameIndex, Utf8Constant name) {
+        ByteBuffer b = name.source;
+        int p = name.offset;
+        int end = p + name.byteLength;
+        while (p < end && b.get(p) == '[') {
+            // array type
+            p++;
+        }
+        if (end - p <= 1) {
+            // primitive
+            return;
+        }
+        if (b.get(end - 1) == ';' && b.get(p) == 'L') {
+            // Uncommon but seems sometimes this happens.
+            p++;
+            end--;
+        }
+        name(b, p, end - p);
+    }
+
+    @Override
+    public void visitNameAndType(int index, int nameIndex, Utf8Constant name, int descriptorIndex, Utf8Constant descriptor) {
+        descriptor(descriptor);
+    }
+
+    @Override
+    public void visitMethodType(int index, int descriptorIndex, Utf8Constant descriptor) {
+        descriptor(descriptor);
+    }
+
+    /**
+     * Reports every {@code L...;} component of a field or method descriptor.
+     */
+    void descriptor(Utf8Constant descriptor) {
+        ByteBuffer b = descriptor.source;
+        int p = descriptor.offset;
+        int end = p + descriptor.byteLength;
+        for (; p < end && !stopped; p++) {
+            if (b.get(p) == 'L') {
+                int semi = p + 1;
+                while (semi < end && b.get(semi) != ';') {
+                    semi++;
+                }
+                if (semi == end) {
+                    if (problem == null)
+                        problem = new ScanException(ScanStatistics.Failure.INVALID_DESCRIPTOR, "Invalid type or descriptor: " + descriptor.get());
+                    return;
+                }
+                name(b, p + 1, semi - p - 1);
+                p = semi;
+            }
+        }
+    }
+}
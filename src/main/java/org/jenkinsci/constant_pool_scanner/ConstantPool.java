@@ -1,47 +1,182 @@
 package org.jenkinsci.constant_pool_scanner;
 
-import java.util.Arrays;
+import java.io.IOException;
+import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * Parsed constants.
  *
+ * <p>
+ * The pool is kept compact: it holds the class file bytes up to the end of the class header, the tag and offset of every entry,
+ * and for each collected {@link ConstantType} the list of indices of such entries.
+ * Typed accessors like {@link #classNameIndexAt(int)} and {@link #intAt(int)} read operands
+ * straight from the bytes, while {@link #list(Class)} creates constant objects on demand
+ * and only visits entries of the matching types.
+ *
+ * <p>
+ * Indices are the ones used in the class file, starting at 1.
+ *
  * @author Kohsuke Kawaguchi
  */
 public final class ConstantPool {
-    final Object[] constants;
+    private final ByteBuffer source;
+    /**
+     * {@code constant_pool_count}, one more than the number of the last entry.
+     */
+    private final int count;
+    private final byte[] tags;
+    private final int[] offsets;
+    /**
+     * Offset in {@link #source} of the first byte after the pool.
+     */
+    private final int end;
+    /**
+     * Indices of the collected constants, by {@link ConstantType#ordinal()}, or null if not collected.
+     */
+    private final int[][] indices;
+    /**
+     * Constant objects created so far, indexed like {@link #tags}; allocated on first use.
+     */
+    private volatile AtomicReferenceArray<Object> constants;
+
+    /**
+     * Takes over the arrays of the index, checking that collected constants refer to entries of the right kinds.
+     * Only the bytes up to the end of the class header are kept, in a copy of their own
+     * unless the index was made over exactly those bytes, so that the pool does not pin
+     * the rest of the class file, or of whatever larger buffer it came in.
+     */
+    ConstantPool(PoolIndex idx, EnumSet<ConstantType> collect) throws IOException {
+        ByteBuffer b = idx.source;
+        int start = b.position();
+        int limit = headerEnd(b,idx.end);
+        if (start!=0 || limit!=b.capacity() || !b.hasArray() || b.arrayOffset()!=0) {
+            byte[] copy = new byte[limit-start];
+            ByteBuffer d = b.duplicate();
+            d.limit(limit).position(start);
+            d.get(copy);
+            b = ByteBuffer.wrap(copy);
+            for (int i = 1; i < idx.count; i++) {
+                idx.offsets[i] -= start;
+            }
+            idx.source = b;
+            idx.end -= start;
+        }
+        this.source = b;
+        this.count = idx.count;
+        this.tags = idx.tags;
+        this.offsets = idx.offsets;
+        this.end = idx.end;
+
+        ConstantType[] types = ConstantType.values();
+        int[] sizes = new int[types.length];
+        for (int i = 1; i < count; i++) {
+            ConstantType t = ConstantType.fromTag(tags[i]);
+            if (t!=null)
+                sizes[t.ordinal()]++;
+        }
+        this.indices = new int[types.length][];
+        for (ConstantType t : collect) {
+            indices[t.ordinal()] = new int[sizes[t.ordinal()]];
+        }
+        int[] fill = new int[types.length];
+        for (int i = 1; i < count; i++) {
+            ConstantType t = ConstantType.fromTag(tags[i]);
+            if (t!=null && indices[t.ordinal()]!=null) {
+                if (t==ConstantType.UTF8)
+                    checkUtf8(idx,i);
+                else
+                    verify(idx,i);
+                indices[t.ordinal()][fill[t.ordinal()]++] = i;
+            }
+        }
+    }
+
+    /**
+     * Checks the references of a collected entry, and that the strings they lead to are well-formed,
+     * so that no constant fails to decode later on.
+     */
+    private static void verify(PoolIndex idx, int i) throws IOException {
+        switch (idx.tags[i]) {
+            case 7: // CONSTANT_Class
+            case 8: // CONSTANT_String
+                checkUtf8(idx,idx.ref(i,0,1));
+                break;
+            case 9: // CONSTANT_Fieldref
+            case 10: // CONSTANT_Methodref
+            case 11: // CONSTANT_InterfaceMethodref
+                checkUtf8(idx,idx.ref(idx.ref(i,0,7),0,1));
+                verify(idx,idx.ref(i,1,12));
+                break;
+            case 12: // CONSTANT_NameAndType
+                checkUtf8(idx,idx.ref(i,0,1));
+                checkUtf8(idx,idx.ref(i,1,1));
+                break;
+            case 15: // CONSTANT_MethodHandle
+                verify(idx,idx.methodHandleRef(i));
+                break;
+            case 16: // CONSTANT_MethodType
+            case 19: // CONSTANT_Module
+            case 20: // CONSTANT_Package
+                checkUtf8(idx,idx.ref(i,0,1));
+                break;
+            case 17: // CONSTANT_Dynamic
+            case 18: // CONSTANT_InvokeDynamic
+                verify(idx,idx.ref(i,1,12));
+                break;
+        }
+    }
 
-    ConstantPool(int size) {
-        this.constants = new Object[size];
+    private static void checkUtf8(PoolIndex idx, int i) throws IOException {
+        int p = idx.offsets[i];
+        try {
+            ModifiedUtf8.check(idx.source,p+2,idx.source.getChar(p));
+        } catch (UTFDataFormatException e) {
+            throw new ScanException(ScanStatistics.Failure.MALFORMED_UTF8,"Malformed CONSTANT_Utf8 at entry " + i,e);
+        }
     }
 
     /**
      * Lists up all the constants of the specified type (including subtypes if applicable.)
      */
     public <T> Iterable<T> list(final Class<T> type) {
+        final List<int[]> matches = new ArrayList<int[]>();
+        for (ConstantType t : ConstantType.values()) {
+            if (type.isAssignableFrom(t.valueType) && indices[t.ordinal()]!=null)
+                matches.add(indices[t.ordinal()]);
+        }
         return new Iterable<T>() {
             public Iterator<T> iterator() {
                 return new Iterator<T>() {
-                    int idx=-1;
-
-                    {
-                        seek();
-                    }
+                    /**
+                     * Position in each of {@code matches}; the lists are merged to keep pool order.
+                     */
+                    final int[] pos = new int[matches.size()];
 
                     public boolean hasNext() {
-                        return idx<constants.length;
+                        for (int i = 0; i < pos.length; i++) {
+                            if (pos[i]<matches.get(i).length)
+                                return true;
+                        }
+                        return false;
                     }
 
                     public T next() {
-                        Object v = constants[idx];
-                        seek();
-                        return type.cast(v);
-                    }
-
-                    private void seek() {
-                        do {
-                            idx++;
-                        } while (hasNext() && !type.isInstance(constants[idx]));
+                        int best = -1;
+                        for (int i = 0; i < pos.length; i++) {
+                            if (pos[i]<matches.get(i).length
+                             && (best==-1 || matches.get(i)[pos[i]]<matches.get(best)[pos[best]]))
+                                best = i;
+                        }
+                        if (best==-1)
+                            throw new NoSuchElementException();
+                        return type.cast(get(matches.get(best)[pos[best]++]));
                     }
 
                     public void remove() {
@@ -52,53 +187,302 @@ public final class ConstantPool {
         };
     }
 
+    /**
+     * Reads the access flags, name, superclass and interfaces that follow the pool in the class file.
+     *
+     * @throws IOException if the class file ends before them or they do not refer to classes in this pool
+     */
+    public ClassHeader header() throws IOException {
+        return ClassHeader.read(source,end,count,tags,offsets);
+    }
+
+    /**
+     * The part of the class file this pool was read from: the version, the pool itself,
+     * and the class header after it if it is all there, as a buffer of its own.
+     */
+    ByteBuffer bytes() {
+        return source.duplicate();
+    }
+
+    /**
+     * @return the offset after the class header that follows the pool, or {@code end} if it is not all there
+     */
+    private static int headerEnd(ByteBuffer b, int end) {
+        if (end+8<=b.limit()) {
+            int headerEnd = end+8+2*b.getChar(end+6);
+            if (headerEnd<=b.limit())
+                return headerEnd;
+        }
+        return end;
+    }
+
+    /**
+     * Number of entries in the pool, including unusable ones.
+     */
     public int size() {
-        return constants.length;
+        return count - 1;
+    }
+
+    /**
+     * Indices of all the collected constants of the given type, in pool order.
+     *
+     * @return an empty array if the type was not collected
+     */
+    public int[] indicesOf(ConstantType type) {
+        int[] r = indices[type.ordinal()];
+        return r==null ? new int[0] : r.clone();
+    }
+
+    /**
+     * Tag of the entry at the given index, or 0 for the unusable slot after a long or double.
+     */
+    public int tagAt(int index) {
+        checkIndex(index);
+        return tags[index];
     }
 
-    NameAndTypeConstant nameAndTypeAt(int i) {
-        if (constants[i]==null)
-            constants[i] = new NameAndTypeConstant();
-        return (NameAndTypeConstant)constants[i];
+    /**
+     * Type of the entry at the given index, or null if it is of no known {@link ConstantType}.
+     */
+    public ConstantType typeAt(int index) {
+        return ConstantType.fromTag(tagAt(index));
     }
 
-    FieldRefConstant fieldRefAt(int i) {
-        if (constants[i]==null)
-            constants[i] = new FieldRefConstant();
-        return (FieldRefConstant)constants[i];
+    /**
+     * Index of the {@code CONSTANT_Utf8} holding the name of a {@code CONSTANT_Class}.
+     */
+    public int classNameIndexAt(int index) {
+        return u2(index,0,ConstantType.CLASS);
     }
 
-    MethodRefConstant methodRefAt(int i) {
-        if (constants[i]==null)
-            constants[i] = new MethodRefConstant();
-        return (MethodRefConstant)constants[i];
+    /**
+     * Index of the {@code CONSTANT_Utf8} holding the value of a {@code CONSTANT_String}.
+     */
+    public int stringIndexAt(int index) {
+        return u2(index,0,ConstantType.STRING);
     }
 
-    InterfaceMethodRefConstant interfaceMethodRefAt(int i) {
-        if (constants[i]==null)
-            constants[i] = new InterfaceMethodRefConstant();
-        return (InterfaceMethodRefConstant)constants[i];
+    /**
+     * Index of the {@code CONSTANT_Utf8} holding the name part of a {@code CONSTANT_NameAndType}.
+     */
+    public int nameIndexAt(int index) {
+        return u2(index,0,ConstantType.NAME_AND_TYPE);
     }
 
-    ClassConstant classAt(int i) {
-        if (constants[i]==null)
-            constants[i] = new ClassConstant();
-        return (ClassConstant)constants[i];
+    /**
+     * Index of the {@code CONSTANT_Utf8} holding the descriptor part of a {@code CONSTANT_NameAndType}.
+     */
+    public int descriptorIndexAt(int index) {
+        return u2(index,1,ConstantType.NAME_AND_TYPE);
     }
 
-    Utf8Constant utf8At(int i) {
-        if (constants[i]==null)
-            constants[i] = new Utf8Constant();
-        return (Utf8Constant)constants[i];
+    /**
+     * Index of the {@code CONSTANT_Class} that contains a referenced field or method.
+     */
+    public int memberClassIndexAt(int index) {
+        checkMemberRef(index);
+        return source.getChar(offsets[index]);
     }
 
-    void set(int i, Object value) {
-        assert constants[i]==null;
-        constants[i] = value;
+    /**
+     * Index of the {@code CONSTANT_NameAndType} of a referenced field or method.
+     */
+    public int memberNameAndTypeIndexAt(int index) {
+        checkMemberRef(index);
+        return source.getChar(offsets[index]+2);
+    }
+
+    /**
+     * {@code reference_kind} of a {@code CONSTANT_MethodHandle}, from {@code 1} to {@code 9}.
+     */
+    public int methodHandleKindAt(int index) {
+        check(index,ConstantType.METHOD_HANDLE);
+        return source.get(offsets[index]);
+    }
+
+    /**
+     * Index of the field or method reference a {@code CONSTANT_MethodHandle} points to.
+     */
+    public int methodHandleReferenceIndexAt(int index) {
+        check(index,ConstantType.METHOD_HANDLE);
+        return source.getChar(offsets[index]+1);
+    }
+
+    /**
+     * Index of the {@code CONSTANT_Utf8} holding the descriptor of a {@code CONSTANT_MethodType}.
+     */
+    public int methodTypeDescriptorIndexAt(int index) {
+        return u2(index,0,ConstantType.METHOD_TYPE);
+    }
+
+    /**
+     * Index into the {@code BootstrapMethods} attribute of a {@code CONSTANT_Dynamic} or {@code CONSTANT_InvokeDynamic}.
+     */
+    public int bootstrapMethodAttrIndexAt(int index) {
+        checkBootstrap(index);
+        return source.getChar(offsets[index]);
+    }
+
+    /**
+     * Index of the {@code CONSTANT_NameAndType} of a {@code CONSTANT_Dynamic} or {@code CONSTANT_InvokeDynamic}.
+     */
+    public int bootstrapNameAndTypeIndexAt(int index) {
+        checkBootstrap(index);
+        return source.getChar(offsets[index]+2);
+    }
+
+    /**
+     * Index of the {@code CONSTANT_Utf8} holding the name of a {@code CONSTANT_Module}.
+     */
+    public int moduleNameIndexAt(int index) {
+        return u2(index,0,ConstantType.MODULE);
+    }
+
+    /**
+     * Index of the {@code CONSTANT_Utf8} holding the name of a {@code CONSTANT_Package}.
+     */
+    public int packageNameIndexAt(int index) {
+        return u2(index,0,ConstantType.PACKAGE);
+    }
+
+    public int intAt(int index) {
+        check(index,ConstantType.INTEGER);
+        return source.getInt(offsets[index]);
+    }
+
+    public float floatAt(int index) {
+        check(index,ConstantType.FLOAT);
+        return source.getFloat(offsets[index]);
+    }
+
+    public long longAt(int index) {
+        check(index,ConstantType.LONG);
+        return source.getLong(offsets[index]);
+    }
+
+    public double doubleAt(int index) {
+        check(index,ConstantType.DOUBLE);
+        return source.getDouble(offsets[index]);
+    }
+
+    /**
+     * The {@code CONSTANT_Utf8} at the given index.
+     *
+     * @throws IllegalStateException if the entry was not collected, nor checked as part of a collected constant,
+     *         and is not valid modified UTF-8
+     */
+    public Utf8Constant utf8At(int index) {
+        check(index,ConstantType.UTF8);
+        return (Utf8Constant)get(index);
+    }
+
+    private int u2(int index, int n, ConstantType type) {
+        check(index,type);
+        return source.getChar(offsets[index]+2*n);
+    }
+
+    private void checkIndex(int index) {
+        if (index<=0 || index>=count)
+            throw new IndexOutOfBoundsException("No constant pool entry " + index + " in a pool of " + size());
+    }
+
+    private void check(int index, ConstantType type) {
+        if (tagAt(index)!=type.tag)
+            throw new IllegalArgumentException("Constant pool entry " + index + " is not " + type + " but " + typeAt(index));
+    }
+
+    private void checkMemberRef(int index) {
+        int tag = tagAt(index);
+        if (tag!=ConstantType.FIELD_REF.tag && tag!=ConstantType.METHOD_REF.tag && tag!=ConstantType.INTERFACE_METHOD_REF.tag)
+            throw new IllegalArgumentException("Constant pool entry " + index + " is not a field or method reference but " + typeAt(index));
+    }
+
+    private void checkBootstrap(int index) {
+        int tag = tagAt(index);
+        if (tag!=ConstantType.DYNAMIC.tag && tag!=ConstantType.INVOKE_DYNAMIC.tag)
+            throw new IllegalArgumentException("Constant pool entry " + index + " is not a dynamic constant or call site but " + typeAt(index));
+    }
+
+    /**
+     * Gets the constant object for an entry, creating it if need be.
+     *
+     * Threads that race to create the same constant all end up with the one that got stored first,
+     * so a pool can be shared between threads just as it could when it was fully populated by the parser.
+     */
+    Object get(int i) {
+        AtomicReferenceArray<Object> c = constants;
+        if (c==null) {
+            synchronized (this) {
+                c = constants;
+                if (c==null)
+                    constants = c = new AtomicReferenceArray<Object>(count);
+            }
+        }
+        Object o = c.get(i);
+        if (o==null) {
+            o = create(i);
+            if (!c.compareAndSet(i,null,o))
+                o = c.get(i);
+        }
+        return o;
+    }
+
+    private Object create(int i) {
+        int p = offsets[i];
+        switch (tags[i]) {
+            case 1: // CONSTANT_Utf8
+                if (indices[ConstantType.UTF8.ordinal()]==null) {
+                    // neither collected nor necessarily reached from a collected constant, so not checked yet
+                    try {
+                        ModifiedUtf8.check(source,p+2,source.getChar(p));
+                    } catch (UTFDataFormatException e) {
+                        throw new IllegalStateException("Malformed CONSTANT_Utf8 at entry " + i, e);
+                    }
+                }
+                return new Utf8Constant().set(source,p+2,source.getChar(p));
+            case 7: // CONSTANT_Class
+                return new ClassConstant().set((Utf8Constant)get(source.getChar(p)));
+            case 3: // CONSTANT_Integer
+                return source.getInt(p);
+            case 4: // CONSTANT_Float
+                return source.getFloat(p);
+            case 9: // CONSTANT_Fieldref
+                return new FieldRefConstant().set((ClassConstant)get(source.getChar(p)),(NameAndTypeConstant)get(source.getChar(p+2)));
+            case 10: // CONSTANT_Methodref
+                return new MethodRefConstant().set((ClassConstant)get(source.getChar(p)),(NameAndTypeConstant)get(source.getChar(p+2)));
+            case 11: // CONSTANT_InterfaceMethodref
+                return new InterfaceMethodRefConstant().set((ClassConstant)get(source.getChar(p)),(NameAndTypeConstant)get(source.getChar(p+2)));
+            case 12: // CONSTANT_NameAndType
+                return new NameAndTypeConstant().set((Utf8Constant)get(source.getChar(p)),(Utf8Constant)get(source.getChar(p+2)));
+            case 8: // CONSTANT_String
+                return new StringConstant((Utf8Constant)get(source.getChar(p)));
+            case 5: // CONSTANT_Long
+                return source.getLong(p);
+            case 6: // CONSTANT_Double
+                return source.getDouble(p);
+            case 15: // CONSTANT_MethodHandle
+                return new MethodHandleConstant().set(source.get(p),(MemberRefConstant)get(source.getChar(p+1)));
+            case 16: // CONSTANT_MethodType
+                return new MethodTypeConstant().set((Utf8Constant)get(source.getChar(p)));
+            case 17: // CONSTANT_Dynamic
+                return new DynamicConstant().set(source.getChar(p),(NameAndTypeConstant)get(source.getChar(p+2)));
+            case 18: // CONSTANT_InvokeDynamic
+                return new InvokeDynamicConstant().set(source.getChar(p),(NameAndTypeConstant)get(source.getChar(p+2)));
+            case 19: // CONSTANT_Module
+                return new ModuleConstant().set((Utf8Constant)get(source.getChar(p)));
+            case 20: // CONSTANT_Package
+                return new PackageConstant().set((Utf8Constant)get(source.getChar(p)));
+            default:
+                throw new IllegalArgumentException("Constant pool entry " + i + " has no constant object");
+        }
     }
 
     @Override
     public String toString() {
-        return Arrays.asList(constants).toString();
+        List<Object> all = new ArrayList<Object>();
+        for (Object o : list(Object.class)) {
+            all.add(o);
+        }
+        return all.toString();
     }
 }
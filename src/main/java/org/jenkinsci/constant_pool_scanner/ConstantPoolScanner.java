@@ -44,22 +44,20 @@
 
 package org.jenkinsci.constant_pool_scanner;
 
-import java.io.ByteArrayInputStream;
 import java.io.DataInput;
-import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.EnumSet;
 import java.util.Set;
-import java.util.TreeSet;
-
-import static org.jenkinsci.constant_pool_scanner.ConstantType.*;
 
 /**
  * Streaming parser of the constant pool in a Java class file.
  *
+ * Constants can either be collected into a {@link ConstantPool} by the {@code parse} methods,
+ * or pushed to a {@link ConstantVisitor} one by one by the {@code accept} methods.
  * This might be used for dependency analysis, class loader optimizations, etc.
  * @see <a href="http://hg.netbeans.org/main-silver/raw-file/4a24ea1d4a94/nbbuild/antsrc/org/netbeans/nbbuild/VerifyClassLinkage.java">original sources</a>
  */
@@ -72,7 +70,17 @@ public class ConstantPoolScanner {
      * @throws IOException in case of malformed bytecode
      */
     public static Set<String> dependencies(byte[] data) throws IOException {
-        return dependencies(new ByteArrayInputStream(data));
+        return dependencies(ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Examines the constant pool of a class file and looks for references to other classes.
+     * @param data a Java class file, starting at the buffer's position; the position is left untouched
+     * @return a (sorted) set of binary class names (e.g. {@code some.pkg.Outer$Inner})
+     * @throws IOException in case of malformed bytecode
+     */
+    public static Set<String> dependencies(ByteBuffer data) throws IOException {
+        return new ScannerContext().dependencies(data);
     }
 
     /**
@@ -82,178 +90,279 @@ public class ConstantPoolScanner {
      * @throws IOException in case of malformed bytecode
      */
     public static Set<String> dependencies(InputStream in) throws IOException {
-        ConstantPool pool = parse(in,CLASS,NAME_AND_TYPE);
+        return new ScannerContext().dependencies(in);
+    }
 
-        Set<String> result = new TreeSet<String>();
+    /**
+     * Examines the constant pool of a class file and adds the names of the classes it refers to
+     * to a collection, for callers that do not need them sorted.
+     * Each name is added once, even if the collection is not a set.
+     * @param data a Java class file
+     * @param result where to add binary class names (e.g. {@code some.pkg.Outer$Inner})
+     * @return {@code result}
+     * @throws IOException in case of malformed bytecode
+     */
+    public static <C extends Collection<? super String>> C dependencies(byte[] data, C result) throws IOException {
+        return new ScannerContext().dependencies(data,result);
+    }
 
-        for (ClassConstant cc : pool.list(ClassConstant.class)) {
-            String s = cc.get();
-            while (s.charAt(0) == '[') {
-                // array type
-                s = s.substring(1);
-            }
-            if (s.length() == 1) {
-                // primitive
-                continue;
-            }
-            String c;
-            if (s.charAt(s.length() - 1) == ';' && s.charAt(0) == 'L') {
-                // Uncommon but seems sometimes this happens.
-                c = s.substring(1, s.length() - 1);
-            } else {
-                c = s;
-            }
-            result.add(c.replace('/', '.'));
-        }
+    /**
+     * Examines the constant pool of a class file and adds the names of the classes it refers to
+     * to a collection, for callers that do not need them sorted.
+     * Each name is added once, even if the collection is not a set.
+     * @param data a Java class file, starting at the buffer's position; the position is left untouched
+     * @param result where to add binary class names (e.g. {@code some.pkg.Outer$Inner})
+     * @return {@code result}
+     * @throws IOException in case of malformed bytecode
+     */
+    public static <C extends Collection<? super String>> C dependencies(ByteBuffer data, C result) throws IOException {
+        return new ScannerContext().dependencies(data,result);
+    }
 
-        for (NameAndTypeConstant cc : pool.list(NameAndTypeConstant.class)) {
-            String s = cc.getDescriptor();
-            int idx = 0;
-            while ((idx = s.indexOf('L', idx)) != -1) {
-                int semi = s.indexOf(';', idx);
-                if (semi == -1) {
-                    throw new IOException("Invalid type or descriptor: " + s);
-                }
-                result.add(s.substring(idx + 1, semi).replace('/', '.'));
-                idx = semi;
-            }
-        }
+    /**
+     * Examines the constant pool of a class file and adds the names of the classes it refers to
+     * to a collection, for callers that do not need them sorted.
+     * Each name is added once, even if the collection is not a set.
+     * @param in Stream that reads a Java class file
+     * @param result where to add binary class names (e.g. {@code some.pkg.Outer$Inner})
+     * @return {@code result}
+     * @throws IOException in case of malformed bytecode
+     */
+    public static <C extends Collection<? super String>> C dependencies(InputStream in, C result) throws IOException {
+        return new ScannerContext().dependencies(in,result);
+    }
+
+    /**
+     * Examines the constant pool of a class file and looks for references to other classes,
+     * keeping only those that pass the filter of {@code options}.
+     * Names that do not pass are never decoded.
+     * @param data a Java class file
+     * @return a (sorted) set of binary class names (e.g. {@code some.pkg.Outer$Inner})
+     * @throws IOException in case of malformed bytecode
+     */
+    public static Set<String> dependencies(byte[] data, ScanOptions options) throws IOException {
+        return new ScannerContext().dependencies(data,options);
+    }
+
+    /**
+     * Examines the constant pool of a class file and looks for references to other classes,
+     * keeping only those that pass the filter of {@code options}.
+     * Names that do not pass are never decoded.
+     * @param data a Java class file, starting at the buffer's position; the position is left untouched
+     * @return a (sorted) set of binary class names (e.g. {@code some.pkg.Outer$Inner})
+     * @throws IOException in case of malformed bytecode
+     */
+    public static Set<String> dependencies(ByteBuffer data, ScanOptions options) throws IOException {
+        return new ScannerContext().dependencies(data,options);
+    }
+
+    /**
+     * Examines the constant pool of a class file and looks for references to other classes,
+     * keeping only those that pass the filter of {@code options}.
+     * Names that do not pass are never decoded.
+     * With {@link ScanOptions#deep()}, the stream is read to its end, not just to the end of the constant pool.
+     * @param in Stream that reads a Java class file
+     * @return a (sorted) set of binary class names (e.g. {@code some.pkg.Outer$Inner})
+     * @throws IOException in case of malformed bytecode
+     */
+    public static Set<String> dependencies(InputStream in, ScanOptions options) throws IOException {
+        return new ScannerContext().dependencies(in,options);
+    }
+
+    /**
+     * Reads the access flags, name, superclass and interfaces of a class,
+     * which come right after the constant pool; fields and methods are not read.
+     * @param data a Java class file
+     * @throws IOException in case of malformed bytecode
+     * @see ConstantPool#header()
+     */
+    public static ClassHeader header(byte[] data) throws IOException {
+        return new ScannerContext().header(data);
+    }
+
+    /**
+     * Reads the access flags, name, superclass and interfaces of a class,
+     * which come right after the constant pool; fields and methods are not read.
+     * @param data a Java class file, starting at the buffer's position; the position is left untouched
+     * @throws IOException in case of malformed bytecode
+     * @see ConstantPool#header()
+     */
+    public static ClassHeader header(ByteBuffer data) throws IOException {
+        return new ScannerContext().header(data);
+    }
+
+    /**
+     * Reads the access flags, name, superclass and interfaces of a class,
+     * which come right after the constant pool; fields and methods are not read.
+     * @param in Stream that reads a Java class file; it is not read past the interfaces
+     * @throws IOException in case of malformed bytecode
+     * @see ConstantPool#header()
+     */
+    public static ClassHeader header(InputStream in) throws IOException {
+        return new ScannerContext().header(in);
+    }
 
-        return result;
+    /**
+     * Checks whether a class file refers to any of a set of classes or packages,
+     * considering the same names {@link #dependencies(byte[])} would report.
+     *
+     * <p>
+     * Names are matched on their raw bytes and none is decoded;
+     * the scan ends at the first match.
+     * @param data a Java class file
+     * @throws IOException in case of malformed bytecode
+     */
+    public static boolean referencesAny(byte[] data, ClassNameMatcher matcher) throws IOException {
+        return new ScannerContext().referencesAny(data,matcher);
+    }
+
+    /**
+     * Checks whether a class file refers to any of a set of classes or packages,
+     * considering the same names {@link #dependencies(byte[])} would report.
+     *
+     * <p>
+     * Names are matched on their raw bytes and none is decoded;
+     * the scan ends at the first match.
+     * @param data a Java class file, starting at the buffer's position; the position is left untouched
+     * @throws IOException in case of malformed bytecode
+     */
+    public static boolean referencesAny(ByteBuffer data, ClassNameMatcher matcher) throws IOException {
+        return new ScannerContext().referencesAny(data,matcher);
+    }
+
+    /**
+     * Checks whether a class file refers to any of a set of classes or packages,
+     * considering the same names {@link #dependencies(byte[])} would report.
+     *
+     * <p>
+     * Names are matched on their raw bytes and none is decoded;
+     * the scan ends at the first match.
+     * @param in Stream that reads a Java class file
+     * @throws IOException in case of malformed bytecode
+     */
+    public static boolean referencesAny(InputStream in, ClassNameMatcher matcher) throws IOException {
+        return new ScannerContext().referencesAny(in,matcher);
     }
 
     private ConstantPoolScanner() {
     }
 
+    /**
+     * Reports constants of the given types to a visitor as they are found,
+     * without building a {@link ConstantPool}.
+     */
+    public static void accept(byte[] source, ConstantVisitor visitor, ConstantType... types) throws IOException {
+        new ScannerContext().accept(source,visitor,types);
+    }
+
+    /**
+     * Reports constants of the given types to a visitor as they are found,
+     * without building a {@link ConstantPool}.
+     *
+     * <p>
+     * The buffer is read as by {@link #parse(ByteBuffer, Collection)}.
+     */
+    public static void accept(ByteBuffer source, ConstantVisitor visitor, ConstantType... types) throws IOException {
+        new ScannerContext().accept(source,visitor,types);
+    }
+
+    /**
+     * Reports constants of the given types to a visitor as they are found,
+     * without building a {@link ConstantPool}.
+     */
+    public static void accept(InputStream source, ConstantVisitor visitor, ConstantType... types) throws IOException {
+        new ScannerContext().accept(source,visitor,types);
+    }
+
     /**
      * Parses a class file and invokes the visitor with constants.
+     *
+     * <p>
+     * The returned pool keeps its own copy of the bytes it needs, so the array may be reused once this returns.
      */
     public static ConstantPool parse(byte[] source, ConstantType... types) throws IOException {
-        return parse(new ByteArrayInputStream(source),types);
+        return parse(ByteBuffer.wrap(source),types);
+    }
+
+    /**
+     * Parses a class file and invokes the visitor with constants.
+     */
+    public static ConstantPool parse(ByteBuffer source, ConstantType... types) throws IOException {
+        return parse(source,Arrays.asList(types));
     }
 
     /**
      * Parses a class file and invokes the visitor with constants.
      */
     public static ConstantPool parse(InputStream source, ConstantType... types) throws IOException {
-        return parse(new DataInputStream(source),Arrays.asList(types));
+        return new ScannerContext().parse(source,types);
     }
 
     /**
      * Parses a class file and invokes the visitor with constants.
      */
     public static ConstantPool parse(DataInput s, Collection<ConstantType> _collect) throws IOException {
-        skip(s,8); // magic, minor_version, major_version
-        int size = s.readUnsignedShort() - 1; // constantPoolCount
-        ConstantPool pool = new ConstantPool(size);
-
-        // figure out all the types of constants we need to collect
-        final EnumSet<ConstantType> collect = transitiveClosureOf(_collect);
-
-        for (int i = 0; i < size; i++) {
-            int tag = s.readByte();
-            switch (tag) {
-                case 1: // CONSTANT_Utf8
-                    if (collect.contains(UTF8))
-                        pool.utf8At(i).actual = s.readUTF();
-                    else
-                        skip(s,s.readUnsignedShort());
-                    break;
-                case 7: // CONSTANT_Class
-                    if (collect.contains(CLASS))
-                        pool.classAt(i).set(pool.utf8At(readIndex(s)));
-                    else
-                        skip(s,2);
-                    break;
-                case 3: // CONSTANT_Integer
-                    if (collect.contains(INTEGER))
-                        pool.set(i,s.readInt());
-                    else
-                        skip(s,4);
-                    break;
-                case 4: // CONSTANT_Float
-                    if (collect.contains(FLOAT))
-                        pool.set(i,s.readFloat());
-                    else
-                        skip(s,4);
-                    break;
-                case 9: // CONSTANT_Fieldref
-                    if (collect.contains(FIELD_REF))
-                        pool.fieldRefAt(i).set(pool.classAt(readIndex(s)),pool.nameAndTypeAt(readIndex(s)));
-                    else
-                        skip(s,4);
-                    break;
-                case 10: // CONSTANT_Methodref
-                    if (collect.contains(METHOD_REF))
-                        pool.methodRefAt(i).set(pool.classAt(readIndex(s)),pool.nameAndTypeAt(readIndex(s)));
-                    else
-                        skip(s,4);
-                    break;
-                case 11: // CONSTANT_InterfaceMethodref
-                    if (collect.contains(INTERFACE_METHOD_REF))
-                        pool.interfaceMethodRefAt(i).set(pool.classAt(readIndex(s)),pool.nameAndTypeAt(readIndex(s)));
-                    else
-                        skip(s,4);
-                    break;
-                case 12: // CONSTANT_NameAndType
-                    if (collect.contains(NAME_AND_TYPE))
-                        pool.nameAndTypeAt(i).set(pool.utf8At(readIndex(s)),pool.utf8At(readIndex(s)));
-                    else
-                        skip(s,4);
-                    break;
-                case 8: // CONSTANT_String
-                    if (collect.contains(STRING))
-                        pool.set(i, new StringConstant(pool.utf8At(readIndex(s))));
-                    else
-                        skip(s,2);
-                    break;
-                case 5: // CONSTANT_Long
-                    if (collect.contains(LONG))
-                        pool.set(i,s.readLong());
-                    else
-                        skip(s,8);
-                    i++; // weirdness in spec
-                    break;
-                case 6: // CONSTANT_Double
-                    if (collect.contains(DOUBLE))
-                        pool.set(i,s.readDouble());
-                    else
-                        skip(s,8);
-                    i++; // weirdness in spec
-                    break;
-                case 15:// CONSTANT_MethodHandle
-                    skip(s,3);
-                    break;
-                case 16:// CONSTANT_MethodType
-                    skip(s,2);
-                    break;
-                case 18:// CONSTANT_INVOKE_DYNAMIC
-                    skip(s,4);
-                    break;
-                default:
-                    throw new IOException("Unrecognized constant pool tag " + tag + " at index " + i +
-                            "; running constants: " + pool);
-            }
-        }
+        return new ScannerContext().parse(s,_collect);
+    }
 
-        return pool;
+    /**
+     * Parses a class file held in a buffer, which may be a heap, direct or memory-mapped one.
+     *
+     * <p>
+     * The class file is read with absolute reads starting at the buffer's position,
+     * so neither the position nor the byte order of {@code source} is modified
+     * and the same read-only buffer can be scanned by several threads at once.
+     * The returned pool keeps its own copy of the bytes up to the end of the class header,
+     * so the buffer may be reused, or unmapped, once this returns.
+     * To read a direct or mapped buffer in place without copying, use {@link #dependencies(ByteBuffer)}
+     * or {@link #accept(ByteBuffer, ConstantVisitor, ConstantType...)} instead.
+     */
+    public static ConstantPool parse(ByteBuffer source, Collection<ConstantType> _collect) throws IOException {
+        return new ScannerContext().parse(source,_collect);
     }
 
-    private static EnumSet<ConstantType> transitiveClosureOf(Collection<ConstantType> collect) {
-        EnumSet<ConstantType> subject = EnumSet.copyOf(collect);
+    /**
+     * Computes the transitive closure into an existing set, which is cleared first.
+     */
+    static void transitiveClosureOf(Collection<ConstantType> collect, EnumSet<ConstantType> subject) {
+        subject.clear();
         for (ConstantType c : collect) {
+            subject.add(c);
             subject.addAll(c.implies);
         }
-        return subject;
-    }
-
-    private static void skip(DataInput source, int bytes) throws IOException {
-        // skipBytes cannot be used reliably because 0 is a valid return value
-        // and we can end up looping forever
-        source.readFully(new byte[bytes]);
     }
 
-    private static int readIndex(DataInput source) throws IOException {
-        return source.readUnsignedShort() - 1;
+    /**
+     * Number of bytes that follow the tag of a constant pool entry,
+     * {@code -1} for {@code CONSTANT_Utf8} whose length is variable,
+     * or {@code -2} for an unrecognized tag.
+     */
+    static int entryLength(int tag) {
+        switch (tag) {
+            case 1: // CONSTANT_Utf8
+                return -1;
+            case 7: // CONSTANT_Class
+            case 8: // CONSTANT_String
+            case 16:// CONSTANT_MethodType
+            case 19:// CONSTANT_Module
+            case 20:// CONSTANT_Package
+                return 2;
+            case 15:// CONSTANT_MethodHandle
+                return 3;
+            case 3: // CONSTANT_Integer
+            case 4: // CONSTANT_Float
+            case 9: // CONSTANT_Fieldref
+            case 10: // CONSTANT_Methodref
+            case 11: // CONSTANT_InterfaceMethodref
+            case 12: // CONSTANT_NameAndType
+            case 17:// CONSTANT_Dynamic
+            case 18:// CONSTANT_InvokeDynamic
+                return 4;
+            case 5: // CONSTANT_Long
+            case 6: // CONSTANT_Double
+                return 8;
+            default:
+                return -2;
+        }
     }
 }
@@ -0,0 +1,210 @@
+package org.jenkinsci.constant_pool_scanner;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Constant pools written to a file by one process, to be read by others
+ * without going back to the class files and the archives they came from.
+ *
+ * <pre>
+ * Map&lt;String,ConstantPool&gt; pools = ...;
+ * ConstantPoolSnapshot.write(file, pools);
+ * ...
+ * ConstantPoolSnapshot snapshot = ConstantPoolSnapshot.open(file);
+ * for (MethodRefConstant m : snapshot.get("some/pkg/Foo.class", ConstantType.METHOD_REF).list(MethodRefConstant.class)) ...
+ * </pre>
+ *
+ * <p>
+ * Each pool is stored the way the class file has it, which is already compact and can be read in place:
+ * the version, the constant pool and the class header, without the fields, methods and attributes.
+ * The file is memory-mapped, and {@link #get(String, ConstantType...)} only indexes the one pool it returns,
+ * copying its bytes out of the mapped file; its constants are then decoded as they are asked for, as with any {@link ConstantPool}.
+ *
+ * <p>
+ * Instances are immutable and safe for concurrent use.
+ *
+ * <h2>File format</h2>
+ * All numbers are big-endian; offsets are from the start of the file.
+ * <pre>
+ * u4 magic "CPSS", u4 version, u4 poolCount
+ * poolCount x (u4 name offset, u4 data offset, u4 data length), sorted by name with {@link String#compareTo}
+ * names:  u2 length + modified UTF-8
+ * data:   class file bytes from the magic to the end of the interfaces, or of the constant pool if the header was not read
+ * </pre>
+ */
+public final class ConstantPoolSnapshot {
+    private static final int MAGIC = 0x43505353; // CPSS
+    /**
+     * Bumped whenever the format changes.
+     */
+    private static final int VERSION = 1;
+    private static final int HEADER = 12;
+    private static final int RECORD = 12;
+
+    private final ByteBuffer data;
+    private final int count;
+
+    private ConstantPoolSnapshot(ByteBuffer data) throws IOException {
+        this.data = data;
+        if (data.limit()<HEADER || data.getInt(0)!=MAGIC)
+            throw new IOException("Not a constant pool snapshot");
+        if (data.getInt(4)!=VERSION)
+            throw new IOException("Unsupported constant pool snapshot version " + data.getInt(4));
+        count = data.getInt(8);
+        if (count<0 || HEADER+(long)RECORD*count>data.limit())
+            throw new IOException("Truncated constant pool snapshot");
+    }
+
+    /**
+     * Opens a snapshot file.
+     */
+    public static ConstantPoolSnapshot open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file,"r");
+        try {
+            FileChannel ch = raf.getChannel();
+            return new ConstantPoolSnapshot(ch.map(FileChannel.MapMode.READ_ONLY,0,ch.size()));
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Writes pools into a snapshot file, replacing it.
+     *
+     * @param pools keyed by any name, such as the entry name of the class file
+     */
+    public static void write(File file, Map<String,ConstantPool> pools) throws IOException {
+        TreeMap<String,ByteBuffer> sorted = new TreeMap<String,ByteBuffer>();
+        for (Map.Entry<String,ConstantPool> e : pools.entrySet()) {
+            sorted.put(e.getKey(),e.getValue().bytes());
+        }
+        byte[][] names = new byte[sorted.size()][];
+        int i = 0;
+        long offset = HEADER+(long)RECORD*sorted.size();
+        for (String n : sorted.keySet()) {
+            names[i] = ModifiedUtf8.encode(n);
+            if (names[i].length>0xFFFF)
+                throw new IOException("Name too long: " + n);
+            offset += 2+names[i++].length;
+        }
+        long dataOffset = offset;
+        for (ByteBuffer b : sorted.values()) {
+            offset += b.remaining();
+        }
+        if (offset>Integer.MAX_VALUE)
+            throw new IOException("Too much for one snapshot: " + offset + " bytes");
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(sorted.size());
+            int nameOffset = HEADER+RECORD*sorted.size();
+            int p = (int)dataOffset;
+            i = 0;
+            for (ByteBuffer b : sorted.values()) {
+                out.writeInt(nameOffset);
+                out.writeInt(p);
+                out.writeInt(b.remaining());
+                nameOffset += 2+names[i++].length;
+                p += b.remaining();
+            }
+            for (byte[] n : names) {
+                out.writeShort(n.length);
+                out.write(n);
+            }
+            byte[] buf = new byte[8192];
+            for (ByteBuffer b : sorted.values()) {
+                b = b.duplicate();
+                while (b.hasRemaining()) {
+                    int n = Math.min(buf.length,b.remaining());
+                    b.get(buf,0,n);
+                    out.write(buf,0,n);
+                }
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Number of pools in the snapshot.
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Names of the pools, sorted; decoded as they are read from the list.
+     */
+    public List<String> names() {
+        return new AbstractList<String>() {
+            public String get(int index) {
+                if (index<0 || index>=count)
+                    throw new IndexOutOfBoundsException(String.valueOf(index));
+                return name(index);
+            }
+            public int size() {
+                return count;
+            }
+        };
+    }
+
+    /**
+     * Opens one of the pools.
+     *
+     * @param types constants to collect, as for {@link ConstantPoolScanner#parse(byte[], ConstantType...)};
+     *              all of them if none are given
+     * @return null if there is no pool of that name
+     * @throws IOException if the stored pool is malformed
+     */
+    public ConstantPool get(String name, ConstantType... types) throws IOException {
+        int i = find(name);
+        if (i<0)
+            return null;
+        int r = HEADER+RECORD*i;
+        ByteBuffer b = data.duplicate();
+        int offset = data.getInt(r+4);
+        b.limit(offset+data.getInt(r+8)).position(offset);
+        return ConstantPoolScanner.parse(b.slice(),Arrays.asList(types.length==0 ? ConstantType.values() : types));
+    }
+
+    private String name(int i) {
+        int p = data.getInt(HEADER+RECORD*i);
+        try {
+            return ModifiedUtf8.decode(data,p+2,data.getChar(p));
+        } catch (IOException e) {
+            throw new IllegalStateException("Corrupt constant pool snapshot",e);
+        }
+    }
+
+    /**
+     * Binary search in the sorted records.
+     */
+    private int find(String name) {
+        int lo = 0, hi = count-1;
+        while (lo<=hi) {
+            int mid = (lo+hi)>>>1;
+            int c = name(mid).compareTo(name);
+            if (c<0)
+                lo = mid+1;
+            else if (c>0)
+                hi = mid-1;
+            else
+                return mid;
+        }
+        return -1;
+    }
+}
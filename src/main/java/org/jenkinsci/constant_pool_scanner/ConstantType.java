@@ -15,14 +15,17 @@ public enum ConstantType {
     FIELD_REF(9,FieldRefConstant.class,CLASS,NAME_AND_TYPE,UTF8),
     METHOD_REF(10,MethodRefConstant.class,CLASS,NAME_AND_TYPE,UTF8),
     INTERFACE_METHOD_REF(11,InterfaceMethodRefConstant.class,CLASS,NAME_AND_TYPE,UTF8),
-    STRING(8,String.class,UTF8),
+    STRING(8,StringConstant.class,UTF8),
     INTEGER(3,Integer.class),
     FLOAT(4,Float.class),
     LONG(5,Long.class),
     DOUBLE(6,Double.class),
-    // METHOD_HANDLE(15,
-    // METHOD_TYPE(16,
-    // INVOKE_DYNAMIC(18
+    METHOD_HANDLE(15,MethodHandleConstant.class,FIELD_REF,METHOD_REF,INTERFACE_METHOD_REF,CLASS,NAME_AND_TYPE,UTF8),
+    METHOD_TYPE(16,MethodTypeConstant.class,UTF8),
+    DYNAMIC(17,DynamicConstant.class,NAME_AND_TYPE,UTF8),
+    INVOKE_DYNAMIC(18,InvokeDynamicConstant.class,NAME_AND_TYPE,UTF8),
+    MODULE(19,ModuleConstant.class,UTF8),
+    PACKAGE(20,PackageConstant.class,UTF8),
     ;
 
     /**
@@ -47,7 +50,7 @@ public enum ConstantType {
         this.implies = Arrays.asList(implies);
     }
 
-    private static final ConstantType[] byTag = new ConstantType[20];
+    private static final ConstantType[] byTag = new ConstantType[21];
 
     static {
         for (ConstantType c : ConstantType.values()) {
@@ -55,7 +58,10 @@ public enum ConstantType {
         }
     }
 
+    /**
+     * Type of the given constant pool tag, or null if there is none.
+     */
     public static ConstantType fromTag(int tag) {
-        return byTag[tag];
+        return tag>=0 && tag<byTag.length ? byTag[tag] : null;
     }
 }
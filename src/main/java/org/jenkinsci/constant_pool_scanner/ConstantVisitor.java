@@ -0,0 +1,91 @@
+package org.jenkinsci.constant_pool_scanner;
+
+/**
+ * Receives the constants of a class file as they are found,
+ * via {@link ConstantPoolScanner#accept(java.nio.ByteBuffer, ConstantVisitor, ConstantType...)},
+ * without building a {@link ConstantPool}.
+ *
+ * <p>
+ * Each method gets the index of the constant, as numbered in the class file,
+ * the indices of the constants it refers to, and those values resolved.
+ * Every {@link Utf8Constant} passed in is a reusable view that is only valid during the call;
+ * it decodes nothing unless asked, and {@link Utf8Constant#get()} should be used
+ * to keep the value around.
+ *
+ * <p>
+ * Only the methods for the requested {@link ConstantType}s are called, in pool order.
+ * All methods do nothing by default.
+ */
+public abstract class ConstantVisitor {
+    /**
+     * Set by visitors within this package to end the scan early.
+     */
+    boolean stopped;
+
+    public void visitUtf8(int index, Utf8Constant value) {
+    }
+
+    /**
+     * @param name internal name of the class, or the descriptor of an array type
+     */
+    public void visitClass(int index, int nameIndex, Utf8Constant name) {
+    }
+
+    public void visitString(int index, int valueIndex, Utf8Constant value) {
+    }
+
+    public void visitNameAndType(int index, int nameIndex, Utf8Constant name, int descriptorIndex, Utf8Constant descriptor) {
+    }
+
+    /**
+     * Called for {@link ConstantType#FIELD_REF}, {@link ConstantType#METHOD_REF}
+     * and {@link ConstantType#INTERFACE_METHOD_REF}.
+     *
+     * @param owner internal name of the class that contains the member
+     */
+    public void visitMemberRef(ConstantType type, int index, int classIndex, int nameAndTypeIndex,
+                               Utf8Constant owner, Utf8Constant name, Utf8Constant descriptor) {
+    }
+
+    /**
+     * @param referenceKind from {@code 1} ({@code REF_getField}) to {@code 9} ({@code REF_invokeInterface})
+     * @param referenceType type of the entry at {@code referenceIndex}
+     * @param owner internal name of the class that contains the member
+     */
+    public void visitMethodHandle(int index, int referenceKind, int referenceIndex, ConstantType referenceType,
+                                  Utf8Constant owner, Utf8Constant name, Utf8Constant descriptor) {
+    }
+
+    public void visitMethodType(int index, int descriptorIndex, Utf8Constant descriptor) {
+    }
+
+    /**
+     * Called for {@link ConstantType#DYNAMIC} and {@link ConstantType#INVOKE_DYNAMIC}.
+     *
+     * @param bootstrapMethodAttrIndex index into the {@code BootstrapMethods} attribute, not into the pool
+     */
+    public void visitDynamic(ConstantType type, int index, int bootstrapMethodAttrIndex, int nameAndTypeIndex,
+                             Utf8Constant name, Utf8Constant descriptor) {
+    }
+
+    public void visitModule(int index, int nameIndex, Utf8Constant name) {
+    }
+
+    /**
+     * @param name internal name of the package, e.g. {@code java/lang}
+     */
+    public void visitPackage(int index, int nameIndex, Utf8Constant name) {
+    }
+
+    public void visitInteger(int index, int value) {
+    }
+
+    public void visitFloat(int index, float value) {
+    }
+
+    public void visitLong(int index, long value) {
+    }
+
+    public void visitDouble(int index, double value) {
+    }
+}
@@ -0,0 +1,196 @@
+package org.jenkinsci.constant_pool_scanner;
+
+import java.io.IOException;
+import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Collects class names referenced from {@code CONSTANT_Class} entries and from
+ * {@code CONSTANT_NameAndType} and {@code CONSTANT_MethodType} descriptors,
+ * as {@link ConstantPoolScanner#dependencies(byte[])} reports them.
+ *
+ * <p>
+ * Each distinct name is decoded and added to the result only once per class file,
+ * however many times it is mentioned; the names seen so far are remembered
+ * as byte ranges of the class file in a small open-addressing table.
+ */
+final class DependencyCollector extends ClassNameTokenizer {
+    /**
+     * If non-null, names are resolved through this table.
+     */
+    private final SymbolTable symbols;
+
+    private Collection<? super String> result;
+    /**
+     * Names to report, or null for all of them.
+     */
+    private ScanOptions options;
+    /**
+     * Whether ids of names are collected in {@link #ids} instead of adding names to {@link #result}.
+     */
+    private boolean collectIds;
+    private int[] ids;
+    private int idCount;
+
+    private ByteBuffer source;
+    /**
+     * Number of names decoded, for {@link ScanStatistics#getDecoded()}.
+     */
+    int decoded;
+    /**
+     * Size of the symbol table when statistics started to be recorded, or -1 if they are not;
+     * ids from there on are of names decoded since.
+     */
+    int known = -1;
+    /**
+     * Offset plus one of each name seen, or 0 for an empty slot.
+     */
+    private int[] offsets = new int[64];
+    private int[] lengths = new int[64];
+    private int size;
+
+    DependencyCollector(SymbolTable symbols) {
+        this.symbols = symbols;
+    }
+
+    /**
+     * Prepares for the next class file.
+     */
+    void reset(Collection<? super String> result, ScanOptions options) {
+        this.result = result;
+        this.options = options;
+        this.collectIds = false;
+        this.problem = null;
+        this.source = null;
+        if (size > 0) {
+            Arrays.fill(offsets, 0);
+            size = 0;
+        }
+    }
+
+    /**
+     * Prepares for the next class file, collecting symbol ids rather than names.
+     */
+    void resetIds(ScanOptions options) {
+        reset(null,options);
+        collectIds = true;
+        if (ids == null)
+            ids = new int[64];
+        idCount = 0;
+    }
+
+    /**
+     * Gets the ids collected since {@link #resetIds(ScanOptions)}, sorted.
+     */
+    int[] ids() throws IOException {
+        int[] r = Arrays.copyOf(ids,idCount);
+        finish();
+        Arrays.sort(r);
+        return r;
+    }
+
+    /**
+     * Reports the first problem found in the class file, if any, and lets go of the result.
+     */
+    void finish() throws IOException {
+        result = null;
+        source = null;
+        if (problem != null)
+            throw problem;
+    }
+
+    /**
+     * Lets go of the result after the class file failed to parse, forgetting any problem found on the way,
+     * so that the failure that stopped the parse is the one reported.
+     */
+    void abandon() {
+        result = null;
+        source = null;
+        problem = null;
+    }
+
+    @Override
+    void name(ByteBuffer b, int offset, int length) {
+        if (options != null && !options.accepts(b, offset, length))
+            return;
+        if (!add(b, offset, length))
+            return;
+        try {
+            if (symbols == null) {
+                result.add(ModifiedUtf8.decodeBinaryName(b, offset, length));
+                decoded++;
+                return;
+            }
+            SymbolTable.Symbol s = symbols.lookup(b, offset, length);
+            if (known >= 0 && s.id >= known)
+                decoded++;
+            if (!collectIds) {
+                result.add(s.name);
+            } else {
+                if (idCount == ids.length)
+                    ids = Arrays.copyOf(ids, idCount * 2);
+                ids[idCount++] = s.id;
+            }
+        } catch (UTFDataFormatException e) {
+            if (problem == null)
+                problem = e;
+        }
+    }
+
+    /**
+     * Remembers a name, unless it was already seen.
+     * @return true if the name is new
+     */
+    private boolean add(ByteBuffer b, int offset, int length) {
+        source = b;
+        int h = 0;
+        for (int i = 0; i < length; i++) {
+            h = 31 * h + b.get(offset + i);
+        }
+        int mask = offsets.length - 1;
+        int slot = (h ^ (h >>> 16)) & mask;
+        while (offsets[slot] != 0) {
+            if (lengths[slot] == length && sameBytes(b, offsets[slot] - 1, offset, length))
+                return false;
+            slot = (slot + 1) & mask;
+        }
+        offsets[slot] = offset + 1;
+        lengths[slot] = length;
+        if (++size * 2 > offsets.length)
+            grow();
+        return true;
+    }
+
+    private static boolean sameBytes(ByteBuffer b, int x, int y, int length) {
+        for (int i = 0; i < length; i++) {
+            if (b.get(x + i) != b.get(y + i))
+                return false;
+        }
+        return true;
+    }
+
+    private void grow() {
+        int[] oldOffsets = offsets;
+        int[] oldLengths = lengths;
+        offsets = new int[oldOffsets.length * 2];
+        lengths = new int[oldLengths.length * 2];
+        int mask = offsets.length - 1;
+        for (int i = 0; i < oldOffsets.length; i++) {
+            if (oldOffsets[i] == 0)
+                continue;
+            int offset = oldOffsets[i] - 1;
+            int h = 0;
+            for (int j = 0; j < oldLengths[i]; j++) {
+                h = 31 * h + source.get(offset + j);
+            }
+            int slot = (h ^ (h >>> 16)) & mask;
+            while (offsets[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            offsets[slot] = oldOffsets[i];
+            lengths[slot] = oldLengths[i];
+        }
+    }
+}
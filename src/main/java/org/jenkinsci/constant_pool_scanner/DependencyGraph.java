@@ -0,0 +1,497 @@
+package org.jenkinsci.constant_pool_scanner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Class-to-class dependencies of a whole classpath, held as {@code int} arrays
+ * rather than as a {@code Map<String,Set<String>>}.
+ *
+ * <pre>
+ * DependencyGraph.Builder b = new DependencyGraph.Builder();
+ * for (File jar : classpath)
+ *     b.addArchive(jar.getName(), new JarScanner().scan(jar));
+ * DependencyGraph classes = b.build();
+ * DependencyGraph jars = classes.containers();
+ * for (int[] cycle : jars.cycles()) ...
+ * </pre>
+ *
+ * <p>
+ * Nodes are numbered from 0 in order of their names, so {@link #id(String)} is a binary search.
+ * Edges are kept in compressed sparse row form: the successors of node {@code i} are
+ * {@code targets[offsets[i]]} to {@code targets[offsets[i+1]-1]}, sorted, without duplicates or self-loops.
+ * A class graph has a node for every class that was added and every class any of them refers to;
+ * the latter are not {@linkplain #isDeclared(int) declared} and have no outgoing edges.
+ *
+ * <p>
+ * Graphs are immutable and safe for concurrent use.
+ */
+public final class DependencyGraph {
+    private final String[] names;
+    private final int[] offsets;
+    private final int[] targets;
+    private final BitSet declared;
+    /**
+     * Index into {@link #containerNames} of the archive or directory each node comes from, or -1; null when rolled up.
+     */
+    private final int[] containerOf;
+    private final String[] containerNames;
+
+    private DependencyGraph(String[] names, int[] offsets, int[] targets, BitSet declared, int[] containerOf, String[] containerNames) {
+        this.names = names;
+        this.offsets = offsets;
+        this.targets = targets;
+        this.declared = declared;
+        this.containerOf = containerOf;
+        this.containerNames = containerNames;
+    }
+
+    /**
+     * Collects the output of the scanner, one class at a time.
+     * A builder is not safe for concurrent use, but the {@link SymbolTable} it numbers names with is.
+     */
+    public static final class Builder {
+        private final SymbolTable symbols;
+        private final Map<String,Integer> containers = new HashMap<String,Integer>();
+        private final List<String> containerNames = new ArrayList<String>();
+        /**
+         * Symbol id of each added class, its container, and where its edges start in {@link #edges}.
+         */
+        private int[] sources = new int[256], sourceContainers = new int[256], sourceEdges = new int[257];
+        private int sourceCount;
+        private int[] edges = new int[4096];
+        private int edgeCount;
+
+        public Builder() {
+            this(new SymbolTable());
+        }
+
+        /**
+         * @param symbols the table the ids given to {@link #add(int, String, int[])} come from,
+         *                such as the one of the {@link ScannerContext} that computed them;
+         *                every name in it becomes a node
+         */
+        public Builder(SymbolTable symbols) {
+            this.symbols = symbols;
+        }
+
+        /**
+         * Adds a class that comes from no archive in particular.
+         *
+         * @param className binary name of the class, as from {@link ClassHeader#getName()}
+         * @param dependencies binary names, as from {@link ConstantPoolScanner#dependencies(byte[])}
+         */
+        public Builder add(String className, Collection<String> dependencies) {
+            return add(className,null,dependencies);
+        }
+
+        /**
+         * @param container name of the jar or directory the class comes from, for {@link DependencyGraph#containers()}; may be null
+         */
+        public Builder add(String className, String container, Collection<String> dependencies) {
+            int[] ids = new int[dependencies.size()];
+            int n = 0;
+            for (String d : dependencies) {
+                ids[n++] = symbols.id(d);
+            }
+            return add(symbols.id(className),container,ids);
+        }
+
+        /**
+         * Adds a class by the ids of its name and dependencies in the symbol table of this builder,
+         * as from {@link ScannerContext#dependencyIds(java.nio.ByteBuffer)}.
+         */
+        public Builder add(int classId, String container, int[] dependencyIds) {
+            if (sourceCount+1==sources.length) {
+                sources = Arrays.copyOf(sources,sources.length*2);
+                sourceContainers = Arrays.copyOf(sourceContainers,sources.length);
+                sourceEdges = Arrays.copyOf(sourceEdges,sources.length+1);
+            }
+            if (edgeCount+dependencyIds.length>edges.length)
+                edges = Arrays.copyOf(edges,Math.max(edges.length*2,edgeCount+dependencyIds.length));
+            System.arraycopy(dependencyIds,0,edges,edgeCount,dependencyIds.length);
+            edgeCount += dependencyIds.length;
+            sources[sourceCount] = classId;
+            sourceContainers[sourceCount] = container==null ? -1 : container(container);
+            sourceEdges[++sourceCount] = edgeCount;
+            return this;
+        }
+
+        /**
+         * Adds the classes of an archive, as scanned by {@link JarScanner#scan(java.io.File)}.
+         *
+         * @param classes dependencies keyed by entry name, e.g. {@code some/pkg/Outer$Inner.class}
+         */
+        public Builder addArchive(String container, Map<String,Set<String>> classes) {
+            for (Map.Entry<String,Set<String>> e : classes.entrySet()) {
+                String entry = e.getKey();
+                if (entry.endsWith("module-info.class") || entry.startsWith("META-INF/"))
+                    continue;
+                add(entry.substring(0,entry.length()-".class".length()).replace('/','.'),container,e.getValue());
+            }
+            return this;
+        }
+
+        private int container(String name) {
+            Integer i = containers.get(name);
+            if (i==null) {
+                i = containerNames.size();
+                containers.put(name,i);
+                containerNames.add(name);
+            }
+            return i;
+        }
+
+        public DependencyGraph build() {
+            int n = symbols.size();
+            final String[] byId = new String[n];
+            for (int i = 0; i < n; i++) {
+                byId[i] = symbols.name(i);
+            }
+            // renumber so that ids follow the order of names
+            Integer[] order = new Integer[n];
+            for (int i = 0; i < n; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order,new Comparator<Integer>() {
+                public int compare(Integer a, Integer b) {
+                    return byId[a].compareTo(byId[b]);
+                }
+            });
+            String[] names = new String[n];
+            int[] renumber = new int[n];
+            for (int i = 0; i < n; i++) {
+                names[i] = byId[order[i]];
+                renumber[order[i]] = i;
+            }
+
+            BitSet declared = new BitSet(n);
+            int[] containerOf = new int[n];
+            Arrays.fill(containerOf,-1);
+            int[] from = new int[edgeCount], to = new int[edgeCount];
+            int m = 0;
+            for (int s = 0; s < sourceCount; s++) {
+                int src = renumber[sources[s]];
+                if (declared.get(src))
+                    continue; // first definition wins, as on a classpath
+                declared.set(src);
+                containerOf[src] = sourceContainers[s];
+                for (int e = sourceEdges[s]; e < sourceEdges[s+1]; e++) {
+                    from[m] = src;
+                    to[m++] = renumber[edges[e]];
+                }
+            }
+            return of(names,from,to,m,declared,containerOf,containerNames.toArray(new String[0]));
+        }
+    }
+
+    /**
+     * Builds the sparse rows out of an edge list, sorting and deduplicating each row and dropping self-loops.
+     */
+    private static DependencyGraph of(String[] names, int[] from, int[] to, int m, BitSet declared, int[] containerOf, String[] containerNames) {
+        int n = names.length;
+        int[] offsets = new int[n+1];
+        for (int e = 0; e < m; e++) {
+            offsets[from[e]+1]++;
+        }
+        for (int i = 0; i < n; i++) {
+            offsets[i+1] += offsets[i];
+        }
+        int[] fill = Arrays.copyOf(offsets,n);
+        int[] targets = new int[m];
+        for (int e = 0; e < m; e++) {
+            targets[fill[from[e]]++] = to[e];
+        }
+        // compact each row in place
+        int w = 0;
+        for (int i = 0; i < n; i++) {
+            int start = offsets[i], end = offsets[i+1];
+            Arrays.sort(targets,start,end);
+            offsets[i] = w;
+            int last = -1;
+            for (int e = start; e < end; e++) {
+                int t = targets[e];
+                if (t!=last && t!=i)
+                    targets[w++] = t;
+                last = t;
+            }
+        }
+        offsets[n] = w;
+        return new DependencyGraph(names,offsets,Arrays.copyOf(targets,w),declared,containerOf,containerNames);
+    }
+
+    /**
+     * Number of nodes.
+     */
+    public int size() {
+        return names.length;
+    }
+
+    /**
+     * Number of edges.
+     */
+    public int edgeCount() {
+        return targets.length;
+    }
+
+    public String name(int id) {
+        return names[id];
+    }
+
+    /**
+     * @return the id of the node of that name, or -1 if there is none
+     */
+    public int id(String name) {
+        int i = Arrays.binarySearch(names,name);
+        return i<0 ? -1 : i;
+    }
+
+    /**
+     * Whether the node was added, rather than only referred to.
+     */
+    public boolean isDeclared(int id) {
+        return declared.get(id);
+    }
+
+    /**
+     * Name of the archive or directory a class was added with, or null.
+     * Always null in a rolled-up graph.
+     */
+    public String container(int id) {
+        if (containerOf==null || containerOf[id]<0)
+            return null;
+        return containerNames[containerOf[id]];
+    }
+
+    /**
+     * Ids of the nodes this one depends on, sorted.
+     */
+    public int[] successors(int id) {
+        return Arrays.copyOfRange(targets,offsets[id],offsets[id+1]);
+    }
+
+    /**
+     * Same graph with all edges reversed, to find what depends on a node.
+     */
+    public DependencyGraph transpose() {
+        int m = targets.length;
+        int[] from = new int[m], to = new int[m];
+        for (int i = 0; i < names.length; i++) {
+            for (int e = offsets[i]; e < offsets[i+1]; e++) {
+                from[e] = targets[e];
+                to[e] = i;
+            }
+        }
+        return of(names,from,to,m,declared,containerOf,containerNames);
+    }
+
+    /**
+     * Rolls classes up to their packages: there is an edge between two packages
+     * if a class in one depends on a class in the other.
+     * Packages are named like {@code some.pkg}; the default package is named {@code ""}.
+     * A package is declared if any of its classes is.
+     */
+    public DependencyGraph packages() {
+        String[] groupOf = new String[names.length];
+        for (int i = 0; i < names.length; i++) {
+            int dot = names[i].lastIndexOf('.');
+            groupOf[i] = dot<0 ? "" : names[i].substring(0,dot);
+        }
+        return rollup(groupOf);
+    }
+
+    /**
+     * Rolls classes up to the archives or directories they were added with:
+     * there is an edge between two containers if a class in one depends on a class declared in the other.
+     * Classes that were only referred to are left out, as are dependencies on them.
+     */
+    public DependencyGraph containers() {
+        if (containerOf==null)
+            throw new IllegalStateException("Already rolled up");
+        String[] groupOf = new String[names.length];
+        for (int i = 0; i < names.length; i++) {
+            groupOf[i] = container(i);
+        }
+        return rollup(groupOf);
+    }
+
+    /**
+     * @param groupOf name of the group of each node, or null to leave it out
+     */
+    private DependencyGraph rollup(String[] groupOf) {
+        String[] groups = new String[names.length];
+        int n = 0;
+        for (String g : groupOf) {
+            if (g!=null)
+                groups[n++] = g;
+        }
+        Arrays.sort(groups,0,n);
+        int distinct = 0;
+        for (int i = 0; i < n; i++) {
+            if (distinct==0 || !groups[i].equals(groups[distinct-1]))
+                groups[distinct++] = groups[i];
+        }
+        groups = Arrays.copyOf(groups,distinct);
+
+        int[] group = new int[names.length];
+        BitSet declaredGroups = new BitSet(distinct);
+        for (int i = 0; i < names.length; i++) {
+            group[i] = groupOf[i]==null ? -1 : Arrays.binarySearch(groups,groupOf[i]);
+            if (group[i]>=0 && declared.get(i))
+                declaredGroups.set(group[i]);
+        }
+        int[] from = new int[targets.length], to = new int[targets.length];
+        int m = 0;
+        for (int i = 0; i < names.length; i++) {
+            if (group[i]<0)
+                continue;
+            for (int e = offsets[i]; e < offsets[i+1]; e++) {
+                int g = group[targets[e]];
+                if (g>=0 && g!=group[i]) {
+                    from[m] = group[i];
+                    to[m++] = g;
+                }
+            }
+        }
+        return of(groups,from,to,m,declaredGroups,null,null);
+    }
+
+    /**
+     * Finds every node reachable from the given ones by following edges, including themselves.
+     */
+    public BitSet reachableFrom(int... roots) {
+        BitSet seen = new BitSet(names.length);
+        int[] stack = new int[Math.max(16,roots.length)];
+        int sp = 0;
+        for (int r : roots) {
+            if (!seen.get(r)) {
+                seen.set(r);
+                stack[sp++] = r;
+            }
+        }
+        while (sp>0) {
+            int i = stack[--sp];
+            for (int e = offsets[i]; e < offsets[i+1]; e++) {
+                int t = targets[e];
+                if (!seen.get(t)) {
+                    seen.set(t);
+                    if (sp==stack.length)
+                        stack = Arrays.copyOf(stack,sp*2);
+                    stack[sp++] = t;
+                }
+            }
+        }
+        return seen;
+    }
+
+    /**
+     * Whether {@code to} can be reached from {@code from} by following edges.
+     */
+    public boolean reaches(int from, int to) {
+        return reachableFrom(from).get(to);
+    }
+
+    /**
+     * Numbers the strongly connected components, with Tarjan's algorithm run without recursion.
+     * Components are numbered in reverse topological order: a node only depends on nodes
+     * in its own component or in components with smaller numbers.
+     *
+     * @return the component of each node
+     */
+    public int[] components() {
+        int n = names.length;
+        int[] index = new int[n], low = new int[n], component = new int[n];
+        Arrays.fill(index,-1);
+        int[] stack = new int[n];  // Tarjan's stack of visited nodes
+        boolean[] onStack = new boolean[n];
+        int[] callNode = new int[n], callEdge = new int[n]; // the depth-first search itself
+        int sp = 0, next = 0, components = 0;
+        for (int root = 0; root < n; root++) {
+            if (index[root]>=0)
+                continue;
+            int depth = 0;
+            callNode[0] = root;
+            callEdge[0] = offsets[root];
+            index[root] = low[root] = next++;
+            stack[sp++] = root;
+            onStack[root] = true;
+            while (depth>=0) {
+                int v = callNode[depth];
+                if (callEdge[depth]<offsets[v+1]) {
+                    int w = targets[callEdge[depth]++];
+                    if (index[w]<0) {
+                        index[w] = low[w] = next++;
+                        stack[sp++] = w;
+                        onStack[w] = true;
+                        depth++;
+                        callNode[depth] = w;
+                        callEdge[depth] = offsets[w];
+                    } else if (onStack[w]) {
+                        low[v] = Math.min(low[v],index[w]);
+                    }
+                    continue;
+                }
+                if (low[v]==index[v]) {
+                    int w;
+                    do {
+                        w = stack[--sp];
+                        onStack[w] = false;
+                        component[w] = components;
+                    } while (w!=v);
+                    components++;
+                }
+                depth--;
+                if (depth>=0) {
+                    int u = callNode[depth];
+                    low[u] = Math.min(low[u],low[v]);
+                }
+            }
+        }
+        return component;
+    }
+
+    /**
+     * Strongly connected components of more than one node, that is, groups of nodes that all depend on each other.
+     *
+     * @return the ids of the nodes of each cycle, sorted, in the order of {@link #components()}
+     */
+    public List<int[]> cycles() {
+        int[] component = components();
+        int count = 0;
+        for (int c : component) {
+            count = Math.max(count,c+1);
+        }
+        int[] sizes = new int[count];
+        for (int c : component) {
+            sizes[c]++;
+        }
+        int[][] members = new int[count][];
+        int[] filled = new int[count];
+        for (int i = 0; i < names.length; i++) {
+            int c = component[i];
+            if (sizes[c]<2)
+                continue;
+            if (members[c]==null)
+                members[c] = new int[sizes[c]];
+            members[c][filled[c]++] = i;
+        }
+        List<int[]> r = new ArrayList<int[]>();
+        for (int[] m : members) {
+            if (m!=null)
+                r.add(m);
+        }
+        return r;
+    }
+
+    @Override
+    public String toString() {
+        return "DependencyGraph[" + names.length + " nodes, " + declared.cardinality() + " declared, " + targets.length + " edges]";
+    }
+}
@@ -0,0 +1,602 @@
+package org.jenkinsci.constant_pool_scanner;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Dependencies of all the classes on a classpath, kept in a binary file
+ * so that they need not be recomputed when the classpath has not changed.
+ *
+ * <p>
+ * {@link #update(File, List)} reuses whatever it can from the previous index file:
+ * an archive whose size and modification time are unchanged is not even opened,
+ * and within a changed jar only entries whose CRC or size changed are scanned again
+ * (for a directory, files whose size or modification time changed).
+ * The index file is memory-mapped and lookups decode only what they return,
+ * so opening an index for an unchanged classpath costs next to nothing.
+ *
+ * <p>
+ * Instances are immutable and safe for concurrent use.
+ *
+ * <h2>File format</h2>
+ * All numbers are big-endian; offsets are from the start of the file.
+ * <pre>
+ * u4 magic "CPSI", u4 version, u4 stringCount, u4 archiveCount, u4 classCount
+ * u4[stringCount]   offset of each string, sorted by {@link String#compareTo}; each is u2 length + modified UTF-8
+ * u4[archiveCount]  offset of each archive record, in classpath order
+ * classCount x (u4 entry name string, u4 archive, u4 entry), sorted by entry name, first archive wins
+ * archive record:   u4 path string, u8 size, u8 mtime, u4 entryCount,
+ *                   entryCount x (u4 name string, u4 size, u8 CRC or mtime, u4 dependencyCount, u4 dependencies offset)
+ * dependencies:     u4 string per dependency, sorted
+ * </pre>
+ */
+public final class DependencyIndex {
+    private static final int MAGIC = 0x43505349; // CPSI
+    /**
+     * Bumped whenever the format or what counts as a dependency changes; 2 added {@code CONSTANT_MethodType} descriptors.
+     */
+    private static final int VERSION = 2;
+    private static final int HEADER = 20;
+    private static final int CLASS_RECORD = 12;
+    private static final int ARCHIVE_HEADER = 24;
+    private static final int ENTRY_RECORD = 24;
+
+    private final ByteBuffer data;
+    private final int stringCount, archiveCount, classCount;
+
+    private DependencyIndex(ByteBuffer data) throws IOException {
+        this.data = data;
+        if (data.limit()<HEADER || data.getInt(0)!=MAGIC)
+            throw new IOException("Not a dependency index");
+        if (data.getInt(4)!=VERSION)
+            throw new IOException("Unsupported dependency index version " + data.getInt(4));
+        stringCount = data.getInt(8);
+        archiveCount = data.getInt(12);
+        classCount = data.getInt(16);
+    }
+
+    /**
+     * Opens an existing index file.
+     */
+    public static DependencyIndex open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file,"r");
+        try {
+            FileChannel ch = raf.getChannel();
+            return new DependencyIndex(ch.map(FileChannel.MapMode.READ_ONLY,0,ch.size()));
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Brings an index file up to date with a classpath, rescanning only what changed since it was written,
+     * and opens the result.
+     *
+     * @param file index file; if missing or unreadable, everything is scanned
+     * @param classpath jar/zip files and directories of class files
+     */
+    public static DependencyIndex update(File file, List<File> classpath) throws IOException {
+        return update(file,classpath,new JarScanner());
+    }
+
+    /**
+     * Same as {@link #update(File, List)}, scanning jars with the given scanner.
+     *
+     * @throws IllegalArgumentException if the scanner has {@link ScanOptions}, since the index holds all the dependencies of each class
+     */
+    public static DependencyIndex update(File file, List<File> classpath, JarScanner scanner) throws IOException {
+        checkUnfiltered(scanner);
+        DependencyIndex previous = null;
+        if (file.isFile()) {
+            // read rather than mapped, since the file may get replaced while entries are still being copied out of it,
+            // and a mapped file cannot be replaced on Windows
+            InputStream in = new FileInputStream(file);
+            try {
+                previous = read(in,file.length());
+            } catch (IOException e) {
+                // corrupt or from another version; rebuild from scratch
+            } finally {
+                in.close();
+            }
+        }
+
+        List<Archive> archives = new ArrayList<Archive>();
+        boolean changed = previous==null || !previous.archives().equals(absolute(classpath));
+        for (File f : classpath) {
+            Archive old = previous==null ? null : previous.archive(f.getAbsolutePath());
+            Archive a = f.isDirectory() ? scanDirectory(f,old) : scanArchive(f,old,scanner);
+            changed |= a!=old;
+            archives.add(a);
+        }
+        if (changed) {
+            File tmp = new File(file.getPath()+".tmp");
+            try {
+                write(archives,tmp);
+                Files.move(tmp.toPath(),file.toPath(),StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(tmp.toPath());
+            }
+        }
+        return open(file);
+    }
+
+    /**
+     * Reads an index that is not in a file of its own, such as the one {@link EmbeddedIndex} finds in a jar.
+     *
+     * @param size expected number of bytes, or -1 if unknown
+     */
+    static DependencyIndex read(InputStream in, long size) throws IOException {
+        return new DependencyIndex(new JarScanner.EntryReader().read(in,size));
+    }
+
+    /**
+     * Writes the index of a directory of class files that {@link EmbeddedIndex} expects in the jar they are packaged into.
+     * Entries are stamped with their CRC, as jar entries are, and no path or time is recorded,
+     * so that the same classes always give the same bytes.
+     * All the classes are scanned before the file is opened, so a class that fails to scan leaves it as it was.
+     *
+     * @return the number of classes indexed
+     */
+    static int writeEmbedded(File dir, File index) throws IOException {
+        Archive r = new Archive("",-1,-1);
+        ScannerContext context = new ScannerContext();
+        JarScanner.EntryReader reader = new JarScanner.EntryReader();
+        CRC32 crc = new CRC32();
+        List<String> names = new ArrayList<String>();
+        listClasses(dir,"",names);
+        for (String name : names) {
+            File f = new File(dir,name);
+            InputStream in = new FileInputStream(f);
+            try {
+                ByteBuffer b = reader.read(in,f.length());
+                crc.reset();
+                crc.update(b.duplicate());
+                r.entries.add(new Entry(name,b.remaining(),crc.getValue(),context.dependencies(b,new TreeSet<String>())));
+            } catch (IOException x) {
+                throw new IOException("Failed to scan " + f, x);
+            } finally {
+                in.close();
+            }
+        }
+        write(Collections.singletonList(r),index);
+        return names.size();
+    }
+
+    /**
+     * Gets the dependencies of the classes of a jar from this index, written by {@link #writeEmbedded(File, File)},
+     * scanning the entries it has no record of with the same CRC and size.
+     *
+     * @return dependencies keyed by entry name, as from {@link JarScanner#scan(ZipFile)}
+     */
+    Map<String,Set<String>> scanEmbedded(ZipFile zip, JarScanner scanner) throws IOException {
+        Archive r = new Archive(zip.getName(),-1,-1);
+        scanEntries(zip,archiveCount==1 ? archive(0) : null,r,scanner);
+        Map<String,Set<String>> m = new LinkedHashMap<String,Set<String>>();
+        for (Entry e : r.entries) {
+            m.put(e.name,e.dependencies());
+        }
+        return m;
+    }
+
+    private static List<File> absolute(List<File> files) {
+        List<File> r = new ArrayList<File>();
+        for (File f : files) {
+            r.add(f.getAbsoluteFile());
+        }
+        return r;
+    }
+
+    /**
+     * Gets the dependencies of a class.
+     *
+     * @param className binary name, e.g. {@code some.pkg.Outer$Inner}
+     * @return a (sorted) set of binary class names, as from {@link ConstantPoolScanner#dependencies(byte[])},
+     *         or null if the class is not in the index
+     */
+    public Set<String> dependencies(String className) {
+        int name = stringId(className.replace('.','/')+".class");
+        if (name<0)
+            return null;
+        int lo = 0, hi = classCount-1;
+        int table = classTable();
+        while (lo<=hi) {
+            int mid = (lo+hi)>>>1;
+            int id = data.getInt(table+mid*CLASS_RECORD);
+            if (id<name) {
+                lo = mid+1;
+            } else if (id>name) {
+                hi = mid-1;
+            } else {
+                return dependencies(entry(data.getInt(table+mid*CLASS_RECORD+4),data.getInt(table+mid*CLASS_RECORD+8)));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gets the dependencies of every class in one archive or directory of the classpath.
+     *
+     * @return dependencies keyed by entry name, as from {@link JarScanner#scan(File)}, or null if not indexed
+     */
+    public Map<String,Set<String>> scan(File archive) {
+        int a = archiveIndex(archive.getAbsolutePath());
+        if (a<0)
+            return null;
+        Map<String,Set<String>> r = new LinkedHashMap<String,Set<String>>();
+        int n = data.getInt(archiveOffset(a)+20);
+        for (int i = 0; i < n; i++) {
+            int e = entry(a,i);
+            r.put(string(data.getInt(e)),dependencies(e));
+        }
+        return r;
+    }
+
+    /**
+     * Lists the archives and directories in the index, in classpath order.
+     */
+    public List<File> archives() {
+        List<File> r = new ArrayList<File>();
+        for (int i = 0; i < archiveCount; i++) {
+            r.add(new File(string(data.getInt(archiveOffset(i)))));
+        }
+        return r;
+    }
+
+    private int classTable() {
+        return HEADER+4*stringCount+4*archiveCount;
+    }
+
+    private int archiveOffset(int i) {
+        return data.getInt(HEADER+4*stringCount+4*i);
+    }
+
+    private int entry(int archive, int i) {
+        return archiveOffset(archive)+ARCHIVE_HEADER+i*ENTRY_RECORD;
+    }
+
+    private Set<String> dependencies(int entry) {
+        int n = data.getInt(entry+16);
+        int p = data.getInt(entry+20);
+        Set<String> r = new TreeSet<String>();
+        for (int i = 0; i < n; i++) {
+            r.add(string(data.getInt(p+4*i)));
+        }
+        return r;
+    }
+
+    private String string(int id) {
+        int p = data.getInt(HEADER+4*id);
+        try {
+            return ModifiedUtf8.decode(data,p+2,data.getChar(p));
+        } catch (IOException e) {
+            throw new IllegalStateException("Corrupt dependency index",e);
+        }
+    }
+
+    /**
+     * Binary search in the sorted string table.
+     */
+    private int stringId(String s) {
+        int lo = 0, hi = stringCount-1;
+        while (lo<=hi) {
+            int mid = (lo+hi)>>>1;
+            int c = string(mid).compareTo(s);
+            if (c<0)
+                lo = mid+1;
+            else if (c>0)
+                hi = mid-1;
+            else
+                return mid;
+        }
+        return -1;
+    }
+
+    private int archiveIndex(String path) {
+        int id = stringId(path);
+        if (id<0)
+            return -1;
+        for (int i = 0; i < archiveCount; i++) {
+            if (data.getInt(archiveOffset(i))==id)
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Reads back an archive record; dependencies are only decoded when the record gets written out again.
+     */
+    private Archive archive(String path) {
+        int a = archiveIndex(path);
+        return a<0 ? null : archive(a);
+    }
+
+    private Archive archive(int a) {
+        int p = archiveOffset(a);
+        Archive r = new Archive(string(data.getInt(p)),data.getLong(p+4),data.getLong(p+12));
+        int n = data.getInt(p+20);
+        for (int i = 0; i < n; i++) {
+            int e = entry(a,i);
+            r.entries.add(new Entry(string(data.getInt(e)),data.getInt(e+4)&0xFFFFFFFFL,data.getLong(e+8),this,e));
+        }
+        return r;
+    }
+
+    /**
+     * Makes sure that what a scanner finds can be mixed with what an index recorded.
+     */
+    static void checkUnfiltered(JarScanner scanner) {
+        if (scanner.options()!=null)
+            throw new IllegalArgumentException("The scanner of an index must not have ScanOptions");
+    }
+
+    /**
+     * @return {@code old} if nothing changed
+     */
+    private static Archive scanArchive(File f, Archive old, JarScanner scanner) throws IOException {
+        long size = f.length(), mtime = f.lastModified();
+        if (old!=null && old.size==size && old.mtime==mtime)
+            return old;
+
+        Archive r = new Archive(f.getAbsolutePath(),size,mtime);
+        ZipFile zip = new ZipFile(f);
+        try {
+            scanEntries(zip,old,r,scanner);
+        } finally {
+            zip.close();
+        }
+        return r;
+    }
+
+    /**
+     * Adds the class entries of a zip file to an archive record,
+     * scanning only those whose CRC or size differs from the ones in {@code old}.
+     */
+    private static void scanEntries(ZipFile zip, Archive old, Archive r, JarScanner scanner) throws IOException {
+        Map<String,Entry> previous = old==null ? new HashMap<String,Entry>() : old.byName();
+        List<ZipEntry> entries = JarScanner.classEntries(zip);
+        List<ZipEntry> changed = new ArrayList<ZipEntry>();
+        for (ZipEntry ze : entries) {
+            Entry e = previous.get(ze.getName());
+            if (e==null || e.size!=ze.getSize() || e.stamp!=ze.getCrc())
+                changed.add(ze);
+        }
+        Map<String,Set<String>> scanned = scanner.scan(zip,changed);
+        for (ZipEntry ze : entries) {
+            Set<String> deps = scanned.get(ze.getName());
+            r.entries.add(deps==null ? previous.get(ze.getName()) : new Entry(ze.getName(),ze.getSize(),ze.getCrc(),deps));
+        }
+    }
+
+    /**
+     * @return {@code old} if nothing changed
+     */
+    private static Archive scanDirectory(File dir, Archive old) throws IOException {
+        // a directory's own timestamp says nothing about the files deep inside it, so always look at each file
+        Map<String,Entry> previous = old==null ? new HashMap<String,Entry>() : old.byName();
+        boolean changed = old==null;
+        Archive r = new Archive(dir.getAbsolutePath(),-1,-1);
+        ScannerContext context = new ScannerContext();
+        JarScanner.EntryReader reader = new JarScanner.EntryReader();
+        List<String> names = new ArrayList<String>();
+        listClasses(dir,"",names);
+        for (String name : names) {
+            File f = new File(dir,name);
+            long size = f.length(), mtime = f.lastModified();
+            Entry e = previous.get(name);
+            if (e==null || e.size!=size || e.stamp!=mtime) {
+                InputStream in = new FileInputStream(f);
+                try {
+                    e = new Entry(name,size,mtime,context.dependencies(reader.read(in,size),new TreeSet<String>()));
+                } catch (IOException x) {
+                    throw new IOException("Failed to scan " + f, x);
+                } finally {
+                    in.close();
+                }
+                changed = true;
+            }
+            r.entries.add(e);
+        }
+        return changed || r.entries.size()!=old.entries.size() ? r : old;
+    }
+
+    private static void listClasses(File dir, String prefix, List<String> names) {
+        File[] children = dir.listFiles();
+        if (children==null)
+            return;
+        Arrays.sort(children);
+        for (File child : children) {
+            if (child.isDirectory())
+                listClasses(child,prefix+child.getName()+'/',names);
+            else if (child.getName().endsWith(".class"))
+                names.add(prefix+child.getName());
+        }
+    }
+
+    private static void write(List<Archive> archives, File file) throws IOException {
+        write(archives,new FileOutputStream(file));
+    }
+
+    /**
+     * Writes an index and closes the stream.
+     */
+    private static void write(List<Archive> archives, OutputStream os) throws IOException {
+        // assign string ids in sorted order, so that lookups can binary search
+        TreeMap<String,Integer> strings = new TreeMap<String,Integer>();
+        for (Archive a : archives) {
+            strings.put(a.path,0);
+            for (Entry e : a.entries) {
+                strings.put(e.name,0);
+                for (String d : e.dependencies()) {
+                    strings.put(d,0);
+                }
+            }
+        }
+        int id = 0;
+        for (Map.Entry<String,Integer> s : strings.entrySet()) {
+            s.setValue(id++);
+        }
+
+        // first archive on the classpath wins, like a class loader
+        TreeMap<Integer,int[]> classes = new TreeMap<Integer,int[]>();
+        for (int a = 0; a < archives.size(); a++) {
+            List<Entry> entries = archives.get(a).entries;
+            for (int e = 0; e < entries.size(); e++) {
+                Integer name = strings.get(entries.get(e).name);
+                if (!classes.containsKey(name))
+                    classes.put(name,new int[] {a,e});
+            }
+        }
+
+        int offset = HEADER+4*strings.size()+4*archives.size()+CLASS_RECORD*classes.size();
+        int[] archiveOffsets = new int[archives.size()];
+        for (int a = 0; a < archives.size(); a++) {
+            archiveOffsets[a] = offset;
+            offset += ARCHIVE_HEADER+ENTRY_RECORD*archives.get(a).entries.size();
+        }
+        int dependencyOffset = offset;
+        for (Archive a : archives) {
+            for (Entry e : a.entries) {
+                offset += 4*e.dependencies().size();
+            }
+        }
+        ByteArrayOutputStream stringData = new ByteArrayOutputStream();
+        DataOutputStream sd = new DataOutputStream(stringData);
+        int[] stringOffsets = new int[strings.size()];
+        int i = 0;
+        for (String s : strings.keySet()) {
+            stringOffsets[i++] = offset+sd.size();
+            sd.writeUTF(s);
+        }
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(strings.size());
+            out.writeInt(archives.size());
+            out.writeInt(classes.size());
+            for (int o : stringOffsets) {
+                out.writeInt(o);
+            }
+            for (int o : archiveOffsets) {
+                out.writeInt(o);
+            }
+            for (Map.Entry<Integer,int[]> c : classes.entrySet()) {
+                out.writeInt(c.getKey());
+                out.writeInt(c.getValue()[0]);
+                out.writeInt(c.getValue()[1]);
+            }
+            int p = dependencyOffset;
+            for (Archive a : archives) {
+                out.writeInt(strings.get(a.path));
+                out.writeLong(a.size);
+                out.writeLong(a.mtime);
+                out.writeInt(a.entries.size());
+                for (Entry e : a.entries) {
+                    out.writeInt(strings.get(e.name));
+                    out.writeInt((int)e.size);
+                    out.writeLong(e.stamp);
+                    out.writeInt(e.dependencies().size());
+                    out.writeInt(p);
+                    p += 4*e.dependencies().size();
+                }
+            }
+            for (Archive a : archives) {
+                for (Entry e : a.entries) {
+                    for (String d : e.dependencies()) {
+                        out.writeInt(strings.get(d));
+                    }
+                }
+            }
+            stringData.writeTo(out);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static final class Archive {
+        final String path;
+        final long size, mtime;
+        final List<Entry> entries = new ArrayList<Entry>();
+
+        Archive(String path, long size, long mtime) {
+            this.path = path;
+            this.size = size;
+            this.mtime = mtime;
+        }
+
+        Map<String,Entry> byName() {
+            Map<String,Entry> r = new HashMap<String,Entry>();
+            for (Entry e : entries) {
+                r.put(e.name,e);
+            }
+            return r;
+        }
+    }
+
+    private static final class Entry {
+        final String name;
+        final long size;
+        /**
+         * CRC of a zip entry, or modification time of a file.
+         */
+        final long stamp;
+        /**
+         * Sorted dependencies, or null until decoded from {@link #from} or scanned.
+         */
+        Set<String> dependencies;
+        /**
+         * Index this entry was read back from, if any.
+         */
+        final DependencyIndex from;
+        final int record;
+
+        Entry(String name, long size, long stamp, Set<String> dependencies) {
+            this(name,size,stamp,null,0,dependencies);
+        }
+
+        Entry(String name, long size, long stamp, DependencyIndex from, int record) {
+            this(name,size,stamp,from,record,null);
+        }
+
+        private Entry(String name, long size, long stamp, DependencyIndex from, int record, Set<String> dependencies) {
+            this.name = name;
+            this.size = size;
+            this.stamp = stamp;
+            this.from = from;
+            this.record = record;
+            this.dependencies = dependencies;
+        }
+
+        Set<String> dependencies() {
+            if (dependencies==null)
+                dependencies = from.dependencies(record);
+            return dependencies;
+        }
+    }
+}
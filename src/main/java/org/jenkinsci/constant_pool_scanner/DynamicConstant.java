@@ -0,0 +1,7 @@
+package org.jenkinsci.constant_pool_scanner;
+
+/**
+ * Dynamically-computed constant ({@code CONSTANT_Dynamic}).
+ */
+public final class DynamicConstant extends BootstrapConstant {
+}
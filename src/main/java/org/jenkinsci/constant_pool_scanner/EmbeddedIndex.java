@@ -0,0 +1,92 @@
+package org.jenkinsci.constant_pool_scanner;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Dependencies of the classes of a jar, computed when the jar was built if it says so.
+ *
+ * <pre>
+ * Map&lt;String,Set&lt;String&gt;&gt; deps = EmbeddedIndex.scan(pluginJar);
+ * </pre>
+ *
+ * <p>
+ * The {@code index} goal of {@code constant-pool-scanner-maven-plugin} writes a {@link DependencyIndex}
+ * of the classes of a project to {@link #ENTRY} right before they are packaged.
+ * Scanning a jar that has one reads the index and the central directory of the jar, and no class file,
+ * as long as the CRC and size of each class entry match the ones recorded in the index.
+ * Entries that do not match, such as classes changed or added after the jar was built, are scanned as usual,
+ * and so is every entry of a jar without an index or with one written by an incompatible version.
+ * Either way the result is the one {@link JarScanner#scan(ZipFile)} would give.
+ */
+public final class EmbeddedIndex {
+    /**
+     * Name of the jar entry holding the index.
+     */
+    public static final String ENTRY = "META-INF/constant-pool-scanner/index.bin";
+
+    private EmbeddedIndex() {}
+
+    /**
+     * Gets the dependencies of all the classes of a jar, from its index if it has one.
+     *
+     * @return dependencies of each class, keyed by entry name, in the order the entries appear in the archive
+     */
+    public static Map<String,Set<String>> scan(File jar) throws IOException {
+        ZipFile zip = new ZipFile(jar);
+        try {
+            return scan(zip);
+        } finally {
+            zip.close();
+        }
+    }
+
+    /**
+     * @see #scan(File)
+     */
+    public static Map<String,Set<String>> scan(ZipFile zip) throws IOException {
+        return scan(zip,new JarScanner());
+    }
+
+    /**
+     * Same as {@link #scan(ZipFile)}, scanning what the index does not cover with the given scanner.
+     *
+     * @throws IllegalArgumentException if the scanner has {@link ScanOptions}, since the index holds all the dependencies of each class
+     */
+    public static Map<String,Set<String>> scan(ZipFile zip, JarScanner scanner) throws IOException {
+        DependencyIndex.checkUnfiltered(scanner);
+        DependencyIndex index = null;
+        ZipEntry entry = zip.getEntry(ENTRY);
+        if (entry!=null) {
+            InputStream in = zip.getInputStream(entry);
+            try {
+                index = DependencyIndex.read(in,entry.getSize());
+            } catch (IOException e) {
+                // corrupt or from another version; scan everything
+            } finally {
+                in.close();
+            }
+        }
+        return index==null ? scanner.scan(zip) : index.scanEmbedded(zip,scanner);
+    }
+
+    /**
+     * Writes the index of a directory of class files, to be packaged into a jar as {@link #ENTRY}.
+     * Classes changed in the jar later on are still reported right, only without help from the index.
+     *
+     * @param classesDirectory root of the class files, such as {@code target/classes}
+     * @param index file to write, such as {@code new File(classesDirectory, EmbeddedIndex.ENTRY)}; its directory is created if needed
+     * @return the number of classes indexed
+     */
+    public static int write(File classesDirectory, File index) throws IOException {
+        File dir = index.getParentFile();
+        if (dir!=null && !dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("Failed to create " + dir);
+        return DependencyIndex.writeEmbedded(classesDirectory,index);
+    }
+}
@@ -0,0 +1,94 @@
+package org.jenkinsci.constant_pool_scanner;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Processes the entries {@code [from,to)} of an archive, or of a pair of them, on a {@link ForkJoinPool},
+ * splitting the range until it is no larger than {@code slice}.
+ * Each leaf works through its entries one after another with its own {@link ScannerContext} and read buffer,
+ * and stops at the first failure, which is then reported by the task it was split from.
+ *
+ * @param <E> what is processed, such as a {@link java.util.zip.ZipEntry}
+ */
+abstract class EntryTask<E> extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    final List<? extends E> entries;
+    private final int from, to;
+    final int slice;
+    /**
+     * First failure in this task or any of its subtasks.
+     */
+    private IOException problem;
+
+    EntryTask(List<? extends E> entries, int from, int to, int slice) {
+        this.entries = entries;
+        this.from = from;
+        this.to = to;
+        this.slice = slice;
+    }
+
+    /**
+     * Slice size that gives each thread of the pool a few tasks to balance the load.
+     */
+    static int slice(ForkJoinPool pool, int size) {
+        return Math.max(1,size/(pool.getParallelism()*4));
+    }
+
+    /**
+     * Runs this task on a pool and waits for it.
+     *
+     * @throws IOException the first failure of any entry
+     */
+    final void invoke(ForkJoinPool pool) throws IOException {
+        pool.invoke(this);
+        if (problem!=null)
+            throw problem;
+    }
+
+    /**
+     * Creates a task for a part of the range, with the same work and results.
+     */
+    abstract EntryTask<E> subtask(int from, int to);
+
+    /**
+     * Creates the context a leaf scans with.
+     */
+    ScannerContext newContext() {
+        return new ScannerContext();
+    }
+
+    /**
+     * Processes one entry.
+     *
+     * @param i index of the entry in {@link #entries}
+     * @throws IOException with the entry and archive in its message
+     */
+    abstract void process(int i, E entry, ScannerContext context, JarScanner.EntryReader reader) throws IOException;
+
+    @Override
+    protected final void compute() {
+        if (to-from>slice) {
+            int mid = (from+to)>>>1;
+            EntryTask<E> left = subtask(from,mid);
+            EntryTask<E> right = subtask(mid,to);
+            invokeAll(left,right);
+            problem = left.problem!=null ? left.problem : right.problem;
+            return;
+        }
+
+        ScannerContext context = newContext();
+        JarScanner.EntryReader reader = new JarScanner.EntryReader();
+        for (int i = from; i < to; i++) {
+            try {
+                process(i,entries.get(i),context,reader);
+            } catch (IOException e) {
+                problem = e;
+                return;
+            }
+        }
+    }
+}
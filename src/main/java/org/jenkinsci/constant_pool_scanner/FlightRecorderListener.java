@@ -0,0 +1,71 @@
+package org.jenkinsci.constant_pool_scanner;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Commits a JDK Flight Recorder event for every scan, timed from the start of the scan
+ * so that the usual duration threshold of a recording picks out the slow ones.
+ *
+ * This is the only class that refers to {@code jdk.jfr}, and it is only loaded
+ * by {@link ScanListener#flightRecorder()} once that package is known to exist,
+ * so the rest of the library keeps working on JVMs without it.
+ * Compiling it takes JDK 11 or newer, though, since {@code --release 8} has no {@code jdk.jfr}.
+ */
+final class FlightRecorderListener implements ScanStartListener {
+    @Name("org.jenkinsci.constant_pool_scanner.Scan")
+    @Label("Constant Pool Scan")
+    @Description("Scan of the constant pool of one class file")
+    @Category("Constant Pool Scanner")
+    @StackTrace(true)
+    static final class ScanEvent extends Event {
+        @Label("Bytes") @DataAmount
+        long bytes;
+        @Label("Pool Size")
+        int poolSize;
+        @Label("Utf8 Entries")
+        int utf8;
+        @Label("Class Entries")
+        int classes;
+        @Label("Strings Decoded")
+        int decoded;
+        @Label("Parse Time") @Timespan
+        long parseNanos;
+        @Label("Build Time") @Timespan
+        long buildNanos;
+        @Label("Failure")
+        String failure;
+    }
+
+    public void scanning(ScanStatistics stats) {
+        ScanEvent e = new ScanEvent();
+        if (!e.isEnabled())
+            return;
+        e.begin();
+        stats.attachment = e;
+    }
+
+    public void scanned(ScanStatistics stats) {
+        ScanEvent e = (ScanEvent) stats.attachment;
+        if (e == null)
+            return;
+        e.end();
+        if (!e.shouldCommit())
+            return;
+        e.bytes = stats.bytes;
+        e.poolSize = stats.poolSize;
+        e.utf8 = stats.getCount(ConstantType.UTF8);
+        e.classes = stats.getCount(ConstantType.CLASS);
+        e.decoded = stats.decoded;
+        e.parseNanos = stats.parseNanos;
+        e.buildNanos = stats.buildNanos;
+        e.failure = stats.failure != null ? stats.failure.name() : null;
+        e.commit();
+    }
+}
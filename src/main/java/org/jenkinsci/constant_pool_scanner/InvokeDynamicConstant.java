@@ -0,0 +1,7 @@
+package org.jenkinsci.constant_pool_scanner;
+
+/**
+ * Call site of an {@code invokedynamic} instruction.
+ */
+public final class InvokeDynamicConstant extends BootstrapConstant {
+}
@@ -0,0 +1,270 @@
+package org.jenkinsci.constant_pool_scanner;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Tells which classes and members the classes of a jar started or stopped referring to between two versions of it,
+ * for example to spot a plugin update that newly calls an API removed from core.
+ *
+ * <pre>
+ * for (JarDiff.Change c : new JarDiff().diff(oldJar, newJar)) {
+ *     for (String m : c.getAddedMembers()) ...
+ * }
+ * </pre>
+ *
+ * <p>
+ * Entries with the same CRC and size in both jars are taken to be identical and are not even read,
+ * so comparing two releases of a plugin costs about as much as scanning the classes that changed.
+ * The others are scanned in parallel on a {@link ForkJoinPool}.
+ *
+ * <p>
+ * Member references are written as {@code owner.name(args)ret} for methods and {@code owner.name:type} for fields,
+ * with the binary name of the owner ({@code some.pkg.Outer$Inner}), or its descriptor if it is an array type.
+ */
+public final class JarDiff {
+    /**
+     * What changed in one class entry.
+     */
+    public static final class Change {
+        public enum Kind {
+            ADDED, REMOVED, CHANGED
+        }
+
+        private final String name;
+        private final Kind kind;
+        private final Set<String> addedDependencies, removedDependencies, addedMembers, removedMembers;
+
+        Change(String name, Kind kind, Set<String> addedDependencies, Set<String> removedDependencies,
+               Set<String> addedMembers, Set<String> removedMembers) {
+            this.name = name;
+            this.kind = kind;
+            this.addedDependencies = Collections.unmodifiableSet(addedDependencies);
+            this.removedDependencies = Collections.unmodifiableSet(removedDependencies);
+            this.addedMembers = Collections.unmodifiableSet(addedMembers);
+            this.removedMembers = Collections.unmodifiableSet(removedMembers);
+        }
+
+        /**
+         * Entry name, e.g. {@code some/pkg/Outer$Inner.class}.
+         */
+        public String getName() {
+            return name;
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        /**
+         * Binary names of the classes referred to by the new version only, sorted;
+         * for an added class, all of its dependencies.
+         */
+        public Set<String> getAddedDependencies() {
+            return addedDependencies;
+        }
+
+        /**
+         * Binary names of the classes referred to by the old version only, sorted;
+         * for a removed class, all of its dependencies.
+         */
+        public Set<String> getRemovedDependencies() {
+            return removedDependencies;
+        }
+
+        /**
+         * Fields and methods referred to by the new version only, sorted.
+         */
+        public Set<String> getAddedMembers() {
+            return addedMembers;
+        }
+
+        /**
+         * Fields and methods referred to by the old version only, sorted.
+         */
+        public Set<String> getRemovedMembers() {
+            return removedMembers;
+        }
+
+        @Override
+        public String toString() {
+            return kind + " " + name + ": +" + addedDependencies + " -" + removedDependencies
+                    + " +" + addedMembers + " -" + removedMembers;
+        }
+    }
+
+    private final ForkJoinPool pool;
+    private final ScanOptions options;
+
+    /**
+     * Compares on {@link ForkJoinPool#commonPool()}, reporting all classes.
+     */
+    public JarDiff() {
+        this(ForkJoinPool.commonPool(),null);
+    }
+
+    /**
+     * @param options if non-null, only the classes that pass its filter are reported, and the members they own;
+     *                with {@link ScanOptions#deep()}, dependencies are found as in that mode
+     */
+    public JarDiff(ForkJoinPool pool, ScanOptions options) {
+        this.pool = pool;
+        this.options = options;
+    }
+
+    /**
+     * Compares two versions of a jar or zip file.
+     *
+     * @return the class entries that were added, removed, or changed in what they refer to, sorted by name;
+     *         a class whose bytes changed but whose references did not is left out
+     * @throws IOException if an entry cannot be read or is not a valid class file
+     */
+    public List<Change> diff(File oldArchive, File newArchive) throws IOException {
+        ZipFile oldZip = new ZipFile(oldArchive);
+        try {
+            ZipFile newZip = new ZipFile(newArchive);
+            try {
+                return diff(oldZip,newZip);
+            } finally {
+                newZip.close();
+            }
+        } finally {
+            oldZip.close();
+        }
+    }
+
+    /**
+     * Compares two versions of a jar or zip file.
+     *
+     * @see #diff(File, File)
+     */
+    public List<Change> diff(ZipFile oldZip, ZipFile newZip) throws IOException {
+        Map<String,ZipEntry[]> pairs = new TreeMap<String,ZipEntry[]>();
+        for (ZipEntry e : JarScanner.classEntries(oldZip)) {
+            pairs.put(e.getName(),new ZipEntry[] {e,null});
+        }
+        for (ZipEntry e : JarScanner.classEntries(newZip)) {
+            ZipEntry[] pair = pairs.get(e.getName());
+            if (pair==null)
+                pairs.put(e.getName(),new ZipEntry[] {null,e});
+            else if (pair[0].getCrc()==e.getCrc() && pair[0].getSize()==e.getSize())
+                pairs.remove(e.getName()); // identical
+            else
+                pair[1] = e;
+        }
+
+        List<ZipEntry[]> work = new ArrayList<ZipEntry[]>(pairs.values());
+        Change[] results = new Change[work.size()];
+        new DiffTask(oldZip,newZip,options,work,results,0,work.size(),EntryTask.slice(pool,work.size())).invoke(pool);
+
+        List<Change> r = new ArrayList<Change>();
+        for (Change c : results) {
+            if (c!=null)
+                r.add(c);
+        }
+        return r;
+    }
+
+    /**
+     * Compares the references of two versions of a class.
+     *
+     * @return null if they refer to the same things
+     */
+    private static Change compare(String name, References before, References after) {
+        if (before==null)
+            return new Change(name,Change.Kind.ADDED,after.classes,new TreeSet<String>(),after.members,new TreeSet<String>());
+        if (after==null)
+            return new Change(name,Change.Kind.REMOVED,new TreeSet<String>(),before.classes,new TreeSet<String>(),before.members);
+        Set<String> addedClasses = minus(after.classes,before.classes), removedClasses = minus(before.classes,after.classes);
+        Set<String> addedMembers = minus(after.members,before.members), removedMembers = minus(before.members,after.members);
+        if (addedClasses.isEmpty() && removedClasses.isEmpty() && addedMembers.isEmpty() && removedMembers.isEmpty())
+            return null;
+        return new Change(name,Change.Kind.CHANGED,addedClasses,removedClasses,addedMembers,removedMembers);
+    }
+
+    private static Set<String> minus(Set<String> a, Set<String> b) {
+        Set<String> r = new TreeSet<String>(a);
+        r.removeAll(b);
+        return r;
+    }
+
+    /**
+     * What one version of a class refers to.
+     */
+    private static final class References extends ConstantVisitor {
+        final Set<String> classes = new TreeSet<String>();
+        final Set<String> members = new TreeSet<String>();
+        private final ScanOptions options;
+
+        private References(ScanOptions options) {
+            this.options = options;
+        }
+
+        static References of(ByteBuffer classFile, ScannerContext context, ScanOptions options) throws IOException {
+            References r = new References(options);
+            context.dependencies(classFile,options,r.classes,r);
+            return r;
+        }
+
+        @Override
+        public void visitMemberRef(ConstantType type, int index, int classIndex, int nameAndTypeIndex,
+                                   Utf8Constant owner, Utf8Constant name, Utf8Constant descriptor) {
+            String o = owner.get();
+            if (!o.startsWith("["))
+                o = o.replace('/','.');
+            if (options!=null && !options.accepts(o))
+                return;
+            members.add(type==ConstantType.FIELD_REF ? o+'.'+name.get()+':'+descriptor.get() : o+'.'+name.get()+descriptor.get());
+        }
+    }
+
+    /**
+     * Compares pairs {@code [from,to)}.
+     */
+    private static final class DiffTask extends EntryTask<ZipEntry[]> {
+        private static final long serialVersionUID = 1L;
+
+        private final ZipFile oldZip, newZip;
+        private final ScanOptions options;
+        private final Change[] results;
+
+        DiffTask(ZipFile oldZip, ZipFile newZip, ScanOptions options, List<? extends ZipEntry[]> work, Change[] results, int from, int to, int slice) {
+            super(work,from,to,slice);
+            this.oldZip = oldZip;
+            this.newZip = newZip;
+            this.options = options;
+            this.results = results;
+        }
+
+        @Override
+        EntryTask<ZipEntry[]> subtask(int from, int to) {
+            return new DiffTask(oldZip,newZip,options,entries,results,from,to,slice);
+        }
+
+        @Override
+        void process(int i, ZipEntry[] pair, ScannerContext context, JarScanner.EntryReader reader) throws IOException {
+            ZipFile zip = oldZip;
+            ZipEntry entry = pair[0];
+            try {
+                References before = entry==null ? null : References.of(reader.read(zip,entry),context,options);
+                zip = newZip;
+                entry = pair[1];
+                References after = entry==null ? null : References.of(reader.read(zip,entry),context,options);
+                results[i] = compare(pair[0]!=null ? pair[0].getName() : pair[1].getName(),before,after);
+            } catch (IOException e) {
+                throw new IOException("Failed to scan " + entry.getName() + " in " + zip.getName(), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package org.jenkinsci.constant_pool_scanner;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Computes {@link ConstantPoolScanner#dependencies(byte[])} for every class in a jar or zip file,
+ * scanning the entries in parallel on a {@link ForkJoinPool}.
+ *
+ * <p>
+ * The entries are split into contiguous slices, and each slice is read and scanned by one task
+ * with its own {@link ScannerContext} and read buffer, so the per-class cost is just the results.
+ * Instances hold no state other than their configuration and can be shared.
+ */
+public final class JarScanner {
+    private final ForkJoinPool pool;
+    private final SymbolTable symbols;
+    private final ScanOptions options;
+
+    /**
+     * Scans on {@link ForkJoinPool#commonPool()}.
+     */
+    public JarScanner() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public JarScanner(ForkJoinPool pool) {
+        this(pool,null);
+    }
+
+    /**
+     * @param symbols if non-null, class names in the results are interned through this table
+     */
+    public JarScanner(ForkJoinPool pool, SymbolTable symbols) {
+        this(pool,symbols,null);
+    }
+
+    /**
+     * @param symbols if non-null, class names in the results are interned through this table
+     * @param options if non-null, only the class names that pass its filter are reported
+     */
+    public JarScanner(ForkJoinPool pool, SymbolTable symbols, ScanOptions options) {
+        this.pool = pool;
+        this.symbols = symbols;
+        this.options = options;
+    }
+
+    /**
+     * Filter given to the constructor, if any.
+     */
+    ScanOptions options() {
+        return options;
+    }
+
+    /**
+     * Scans all the {@code .class} entries of a jar or zip file.
+     *
+     * @return dependencies of each class, keyed by entry name (e.g. {@code some/pkg/Outer$Inner.class}),
+     *         in the order the entries appear in the archive
+     * @throws IOException if an entry cannot be read or is not a valid class file
+     */
+    public Map<String,Set<String>> scan(File archive) throws IOException {
+        ZipFile zip = new ZipFile(archive);
+        try {
+            return scan(zip);
+        } finally {
+            zip.close();
+        }
+    }
+
+    /**
+     * Scans all the {@code .class} entries of a jar or zip file.
+     *
+     * @see #scan(File)
+     */
+    public Map<String,Set<String>> scan(ZipFile zip) throws IOException {
+        return scan(zip,classEntries(zip));
+    }
+
+    /**
+     * Scans the given entries of a jar or zip file, which should all be class files.
+     *
+     * @see #scan(File)
+     */
+    public Map<String,Set<String>> scan(ZipFile zip, List<? extends ZipEntry> entries) throws IOException {
+        @SuppressWarnings({"unchecked","rawtypes"})
+        Set<String>[] results = new Set[entries.size()];
+        new ScanTask(zip,entries,symbols,options,results,0,entries.size(),EntryTask.slice(pool,entries.size())).invoke(pool);
+
+        Map<String,Set<String>> r = new LinkedHashMap<String,Set<String>>();
+        for (int i = 0; i < results.length; i++) {
+            r.put(entries.get(i).getName(),results[i]);
+        }
+        return r;
+    }
+
+    /**
+     * Scans all the {@code .class} entries of a jar or zip file and merges the results.
+     *
+     * @return the (sorted) set of all classes referenced from any class in the archive
+     */
+    public Set<String> dependencies(ZipFile zip) throws IOException {
+        Set<String> merged = new TreeSet<String>();
+        for (Set<String> deps : scan(zip).values()) {
+            merged.addAll(deps);
+        }
+        return merged;
+    }
+
+    /**
+     * Lists the {@code .class} entries of an archive, in archive order.
+     */
+    static List<ZipEntry> classEntries(ZipFile zip) {
+        List<ZipEntry> r = new ArrayList<ZipEntry>();
+        Enumeration<? extends ZipEntry> e = zip.entries();
+        while (e.hasMoreElements()) {
+            ZipEntry entry = e.nextElement();
+            if (!entry.isDirectory() && entry.getName().endsWith(".class"))
+                r.add(entry);
+        }
+        return r;
+    }
+
+    /**
+     * Scans entries {@code [from,to)}.
+     */
+    private static final class ScanTask extends EntryTask<ZipEntry> {
+        private static final long serialVersionUID = 1L;
+
+        private final ZipFile zip;
+        private final SymbolTable symbols;
+        private final ScanOptions options;
+        private final Set<String>[] results;
+
+        ScanTask(ZipFile zip, List<? extends ZipEntry> entries, SymbolTable symbols, ScanOptions options, Set<String>[] results, int from, int to, int slice) {
+            super(entries,from,to,slice);
+            this.zip = zip;
+            this.symbols = symbols;
+            this.options = options;
+            this.results = results;
+        }
+
+        @Override
+        EntryTask<ZipEntry> subtask(int from, int to) {
+            return new ScanTask(zip,entries,symbols,options,results,from,to,slice);
+        }
+
+        @Override
+        ScannerContext newContext() {
+            return new ScannerContext(symbols);
+        }
+
+        @Override
+        void process(int i, ZipEntry entry, ScannerContext context, EntryReader reader) throws IOException {
+            try {
+                results[i] = context.dependencies(reader.read(zip,entry),options,new TreeSet<String>());
+            } catch (IOException e) {
+                IOException x = new IOException("Failed to scan " + entry.getName() + " in " + zip.getName());
+                x.initCause(e);
+                throw x;
+            }
+        }
+    }
+
+    /**
+     * Reads whole entries into a buffer that is reused from one entry to the next.
+     */
+    static final class EntryReader {
+        private byte[] buffer = new byte[8192];
+        private ByteBuffer view = ByteBuffer.wrap(buffer);
+
+        /**
+         * @return the entry contents, valid until the next call
+         */
+        ByteBuffer read(ZipFile zip, ZipEntry entry) throws IOException {
+            InputStream in = zip.getInputStream(entry);
+            try {
+                return read(in,entry.getSize());
+            } finally {
+                in.close();
+            }
+        }
+
+        /**
+         * @param size expected number of bytes, or -1 if unknown
+         * @return the stream contents, valid until the next call
+         */
+        ByteBuffer read(InputStream in, long size) throws IOException {
+            if (size>buffer.length)
+                grow((int)size);
+            int n = 0;
+            while (true) {
+                if (n==buffer.length)
+                    grow(n*2);
+                int r = in.read(buffer,n,buffer.length-n);
+                if (r<0)
+                    break;
+                n += r;
+            }
+            view.clear();
+            view.limit(n);
+            return view;
+        }
+
+        private void grow(int size) {
+            buffer = Arrays.copyOf(buffer,size);
+            view = ByteBuffer.wrap(buffer);
+        }
+    }
+}
@@ -0,0 +1,352 @@
+package org.jenkinsci.constant_pool_scanner;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Checks that the classes, fields and methods a set of classes refer to exist,
+ * the way {@code VerifyClassLinkage} of NetBeans does, but down to members.
+ *
+ * <p>
+ * Each {@code CONSTANT_Class} must name a class in the {@link MemberIndex}.
+ * Each field and method reference must resolve, by name and descriptor, to a member declared
+ * by its owner or by one of the owner's superclasses or superinterfaces
+ * (or by {@code java.lang.Object}, for interfaces and arrays),
+ * or to a signature polymorphic method of {@code MethodHandle} or {@code VarHandle}.
+ * Access checks and the finer points of resolution order are left out, so a reference
+ * that would fail with {@link IllegalAccessError} or {@link IncompatibleClassChangeError} passes.
+ * When a supertype needed to resolve a member is itself missing, that class is reported instead of the member.
+ *
+ * <p>
+ * Classes are checked in parallel on a {@link ForkJoinPool}.
+ * The index is only read, so one can be shared by any number of checks.
+ */
+public final class LinkageChecker {
+    private static final int ACC_VARARGS = 0x0080, ACC_NATIVE = 0x0100;
+
+    /**
+     * A reference that does not resolve.
+     */
+    public static final class Problem {
+        public enum Kind {
+            MISSING_CLASS, MISSING_FIELD, MISSING_METHOD
+        }
+
+        private final Kind kind;
+        private final String source;
+        private final String owner;
+        private final String name;
+        private final String descriptor;
+
+        Problem(Kind kind, String source, String owner, String name, String descriptor) {
+            this.kind = kind;
+            this.source = source;
+            this.owner = owner;
+            this.name = name;
+            this.descriptor = descriptor;
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        /**
+         * Binary name of the class the reference is made from.
+         */
+        public String getSource() {
+            return source;
+        }
+
+        /**
+         * Binary name of the missing class, or of the class the missing member was looked up in.
+         */
+        public String getOwner() {
+            return owner;
+        }
+
+        /**
+         * Name of the missing member, or null for {@link Kind#MISSING_CLASS}.
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Descriptor of the missing member, or null for {@link Kind#MISSING_CLASS}.
+         */
+        public String getDescriptor() {
+            return descriptor;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Problem))
+                return false;
+            Problem p = (Problem) o;
+            return kind==p.kind && source.equals(p.source) && owner.equals(p.owner)
+                && (name==null ? p.name==null : name.equals(p.name))
+                && (descriptor==null ? p.descriptor==null : descriptor.equals(p.descriptor));
+        }
+
+        @Override
+        public int hashCode() {
+            return ((kind.hashCode()*31 + source.hashCode())*31 + owner.hashCode())*31
+                 + (name==null ? 0 : name.hashCode()*31 + descriptor.hashCode());
+        }
+
+        @Override
+        public String toString() {
+            switch (kind) {
+            case MISSING_CLASS:
+                return source + " refers to missing class " + owner;
+            case MISSING_FIELD:
+                return source + " refers to missing field " + owner + "." + name + ":" + descriptor;
+            default:
+                return source + " refers to missing method " + owner + "." + name + descriptor;
+            }
+        }
+    }
+
+    private final MemberIndex index;
+    private final ForkJoinPool pool;
+
+    /**
+     * Checks on {@link ForkJoinPool#commonPool()}.
+     */
+    public LinkageChecker(MemberIndex index) {
+        this(index,ForkJoinPool.commonPool());
+    }
+
+    public LinkageChecker(MemberIndex index, ForkJoinPool pool) {
+        this.index = index;
+        this.pool = pool;
+    }
+
+    /**
+     * Checks all the classes of a jar or zip file.
+     * They are added to an index layered over the one of this checker, so they may refer to one another.
+     *
+     * @return the problems found, by class in archive order, then in the order of the constant pool
+     */
+    public List<Problem> check(File archive) throws IOException {
+        ZipFile zip = new ZipFile(archive);
+        try {
+            return check(zip);
+        } finally {
+            zip.close();
+        }
+    }
+
+    /**
+     * Checks all the classes of a jar or zip file.
+     *
+     * @see #check(File)
+     */
+    public List<Problem> check(ZipFile zip) throws IOException {
+        MemberIndex local = new MemberIndex(index);
+        local.add(zip);
+        List<ZipEntry> entries = new ArrayList<ZipEntry>();
+        for (ZipEntry entry : JarScanner.classEntries(zip)) {
+            String name = entry.getName();
+            if (!name.startsWith("META-INF/") && !name.endsWith("module-info.class"))
+                entries.add(entry);
+        }
+        @SuppressWarnings({"unchecked","rawtypes"})
+        List<Problem>[] results = new List[entries.size()];
+        new CheckTask(local,zip,entries,results,0,entries.size(),EntryTask.slice(pool,entries.size())).invoke(pool);
+
+        List<Problem> r = new ArrayList<Problem>();
+        for (List<Problem> l : results) {
+            r.addAll(l);
+        }
+        return r;
+    }
+
+    /**
+     * Checks a single class on the calling thread.
+     * It is added to an index layered over the one of this checker, so it may refer to itself.
+     *
+     * @return the problems found, in the order of the constant pool
+     */
+    public List<Problem> check(byte[] classFile) throws IOException {
+        MemberIndex local = new MemberIndex(index);
+        local.add(classFile);
+        return check(ByteBuffer.wrap(classFile),new ScannerContext(),local);
+    }
+
+    private static List<Problem> check(ByteBuffer classFile, ScannerContext context, MemberIndex index) throws IOException {
+        References refs = new References();
+        String source = context.acceptHeader(classFile,refs,ConstantType.CLASS,ConstantType.FIELD_REF,ConstantType.METHOD_REF,ConstantType.INTERFACE_METHOD_REF).getName();
+
+        Set<Problem> problems = new LinkedHashSet<Problem>();
+        for (String c : refs.classes) {
+            if (index.get(c)==null)
+                problems.add(new Problem(Problem.Kind.MISSING_CLASS,source,c,null,null));
+        }
+        for (MemberRef m : refs.members) {
+            String owner = m.owner;
+            boolean field = m.field;
+            String name = m.name, descriptor = m.descriptor;
+            if (owner.startsWith("[")) {
+                // array types have the members of Object; their element type was checked as a class
+                owner = "java.lang.Object";
+            }
+            String key = field ? name+':'+descriptor : name+descriptor;
+            String missing = resolve(index,owner,key,!field && isPolymorphicCandidate(owner));
+            if (missing==null)
+                continue;
+            if (!missing.equals(""))
+                problems.add(new Problem(Problem.Kind.MISSING_CLASS,source,missing,null,null));
+            else
+                problems.add(new Problem(field ? Problem.Kind.MISSING_FIELD : Problem.Kind.MISSING_METHOD,source,owner,name,descriptor));
+        }
+        return new ArrayList<Problem>(problems);
+    }
+
+    private static boolean isPolymorphicCandidate(String owner) {
+        return owner.equals("java.lang.invoke.MethodHandle") || owner.equals("java.lang.invoke.VarHandle");
+    }
+
+    /**
+     * Looks for a member in a class and all its supertypes.
+     *
+     * @param key name and descriptor, as in {@link MemberIndex.ClassInfo#members}
+     * @return null if found, "" if not, or the name of a class that is missing from the hierarchy
+     */
+    private static String resolve(MemberIndex index, String owner, String key, boolean polymorphic) throws IOException {
+        String missing = null;
+        Set<String> seen = new HashSet<String>();
+        ArrayDeque<String> todo = new ArrayDeque<String>();
+        todo.add(owner);
+        boolean isInterface = false;
+        while (!todo.isEmpty()) {
+            String n = todo.poll();
+            if (!seen.add(n))
+                continue;
+            MemberIndex.ClassInfo c = index.get(n);
+            if (c==null) {
+                if (missing==null)
+                    missing = n;
+                continue;
+            }
+            if (n.equals(owner))
+                isInterface = c.isInterface();
+            if (c.members.containsKey(key))
+                return null;
+            if (polymorphic && n.equals(owner) && declaresPolymorphic(c,key))
+                return null;
+            if (c.superName!=null)
+                todo.add(c.superName);
+            Collections.addAll(todo,c.interfaces);
+        }
+        if (isInterface && !seen.contains("java.lang.Object")) {
+            MemberIndex.ClassInfo o = index.get("java.lang.Object");
+            if (o==null)
+                return missing!=null ? missing : "java.lang.Object";
+            if (o.members.containsKey(key))
+                return null;
+        }
+        return missing!=null ? missing : "";
+    }
+
+    /**
+     * Whether the class declares a native varargs method of the name in the key, which accepts any descriptor.
+     */
+    private static boolean declaresPolymorphic(MemberIndex.ClassInfo c, String key) {
+        String name = key.substring(0,key.indexOf('('));
+        for (Map.Entry<String,Integer> e : c.members.entrySet()) {
+            String k = e.getKey();
+            if (k.startsWith(name) && k.length()>name.length() && k.charAt(name.length())=='('
+                    && (e.getValue() & (ACC_NATIVE|ACC_VARARGS))==(ACC_NATIVE|ACC_VARARGS))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Collects the classes and members a class file refers to, with binary class names.
+     */
+    private static final class References extends ConstantVisitor {
+        final Set<String> classes = new LinkedHashSet<String>();
+        final List<MemberRef> members = new ArrayList<MemberRef>();
+
+        @Override
+        public void visitClass(int index, int nameIndex, Utf8Constant name) {
+            String n = name.get();
+            if (n.startsWith("[")) {
+                int i = n.lastIndexOf('[')+1;
+                if (n.charAt(i)!='L')
+                    return; // array of primitives
+                n = n.substring(i+1,n.length()-1);
+            }
+            classes.add(n.replace('/','.'));
+        }
+
+        @Override
+        public void visitMemberRef(ConstantType type, int index, int classIndex, int nameAndTypeIndex,
+                                   Utf8Constant owner, Utf8Constant name, Utf8Constant descriptor) {
+            String o = owner.get();
+            members.add(new MemberRef(o.startsWith("[") ? o : o.replace('/','.'),type==ConstantType.FIELD_REF,name.get(),descriptor.get()));
+        }
+    }
+
+    private static final class MemberRef {
+        /**
+         * Binary name of the owner, or the descriptor of an array type.
+         */
+        final String owner;
+        final boolean field;
+        final String name, descriptor;
+
+        MemberRef(String owner, boolean field, String name, String descriptor) {
+            this.owner = owner;
+            this.field = field;
+            this.name = name;
+            this.descriptor = descriptor;
+        }
+    }
+
+    /**
+     * Checks entries {@code [from,to)}.
+     */
+    private static final class CheckTask extends EntryTask<ZipEntry> {
+        private static final long serialVersionUID = 1L;
+
+        private final MemberIndex index;
+        private final ZipFile zip;
+        private final List<Problem>[] results;
+
+        CheckTask(MemberIndex index, ZipFile zip, List<? extends ZipEntry> entries, List<Problem>[] results, int from, int to, int slice) {
+            super(entries,from,to,slice);
+            this.index = index;
+            this.zip = zip;
+            this.results = results;
+        }
+
+        @Override
+        EntryTask<ZipEntry> subtask(int from, int to) {
+            return new CheckTask(index,zip,entries,results,from,to,slice);
+        }
+
+        @Override
+        void process(int i, ZipEntry entry, ScannerContext context, JarScanner.EntryReader reader) throws IOException {
+            try {
+                results[i] = check(reader.read(zip,entry),context,index);
+            } catch (IOException e) {
+                throw new IOException("Failed to check " + entry.getName() + " in " + zip.getName(), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package org.jenkinsci.constant_pool_scanner;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * The classes of a classpath with the fields and methods each of them declares,
+ * for {@link LinkageChecker} to resolve member references against.
+ *
+ * <p>
+ * Indices can be layered, so that what is common to many checks is read once:
+ * a class not found in an index is looked up in its parent, and the root of the chain
+ * may load classes on demand from a {@link ClassLoader}, such as the one of the Java platform.
+ * For example, an index of Jenkins core whose parent loads from the JDK
+ * can be the parent of one index per plugin.
+ *
+ * <p>
+ * Safe for concurrent use, including adding classes while other threads look them up.
+ * A class added twice keeps its first definition, as on a classpath.
+ */
+public final class MemberIndex {
+    /**
+     * Marks classes the {@link #loader} does not have.
+     */
+    private static final ClassInfo MISSING = new ClassInfo(null,null,new String[0],0,new HashMap<String,Integer>());
+
+    private final MemberIndex parent;
+    private final ClassLoader loader;
+    private final ConcurrentMap<String,ClassInfo> classes = new ConcurrentHashMap<String,ClassInfo>();
+
+    /**
+     * An index of just the classes that will be added.
+     */
+    public MemberIndex() {
+        this(null,null);
+    }
+
+    /**
+     * An index that falls back to another one for the classes that are not added to it.
+     */
+    public MemberIndex(MemberIndex parent) {
+        this(parent,null);
+    }
+
+    /**
+     * An index that reads the classes that are not added to it from a class loader, when first looked up.
+     * On Java 9 and newer, {@code ClassLoader.getPlatformClassLoader()} provides the Java SE classes.
+     */
+    public MemberIndex(ClassLoader loader) {
+        this(null,loader);
+    }
+
+    private MemberIndex(MemberIndex parent, ClassLoader loader) {
+        this.parent = parent;
+        this.loader = loader;
+    }
+
+    /**
+     * Adds all the classes of a jar or zip file, or of a directory tree of class files.
+     */
+    public void add(File classpathElement) throws IOException {
+        if (classpathElement.isDirectory()) {
+            addTree(classpathElement);
+            return;
+        }
+        ZipFile zip = new ZipFile(classpathElement);
+        try {
+            add(zip);
+        } finally {
+            zip.close();
+        }
+    }
+
+    /**
+     * Adds all the classes of a jar or zip file.
+     */
+    public void add(ZipFile zip) throws IOException {
+        JarScanner.EntryReader reader = new JarScanner.EntryReader();
+        PoolIndex idx = new PoolIndex();
+        for (ZipEntry entry : JarScanner.classEntries(zip)) {
+            String name = entry.getName();
+            if (name.startsWith("META-INF/") || name.endsWith("module-info.class"))
+                continue;
+            try {
+                add(reader.read(zip,entry),idx);
+            } catch (IOException e) {
+                throw new IOException("Failed to index " + name + " in " + zip.getName(), e);
+            }
+        }
+    }
+
+    private void addTree(File dir) throws IOException {
+        File[] children = dir.listFiles();
+        if (children==null)
+            throw new IOException("Failed to list " + dir);
+        JarScanner.EntryReader reader = new JarScanner.EntryReader();
+        PoolIndex idx = new PoolIndex();
+        for (File f : children) {
+            if (f.isDirectory()) {
+                addTree(f);
+            } else if (f.getName().endsWith(".class") && !f.getName().equals("module-info.class")) {
+                InputStream in = new FileInputStream(f);
+                try {
+                    add(reader.read(in,f.length()),idx);
+                } catch (IOException e) {
+                    throw new IOException("Failed to index " + f, e);
+                } finally {
+                    in.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds a class file.
+     */
+    public void add(byte[] classFile) throws IOException {
+        add(ByteBuffer.wrap(classFile),new PoolIndex());
+    }
+
+    /**
+     * Adds a class file, from the buffer's position to its limit; the position is left untouched.
+     */
+    public void add(ByteBuffer classFile) throws IOException {
+        add(classFile,new PoolIndex());
+    }
+
+    private void add(ByteBuffer classFile, PoolIndex idx) throws IOException {
+        ClassInfo c = read(classFile,idx);
+        classes.putIfAbsent(c.name,c);
+    }
+
+    private static ClassInfo read(ByteBuffer classFile, PoolIndex idx) throws IOException {
+        idx.index(classFile);
+        ClassHeader h = idx.header();
+        final Map<String,Integer> members = new HashMap<String,Integer>();
+        new MemberReader() {
+            void member(boolean method, int accessFlags, String name, String descriptor) {
+                members.put(method ? name+descriptor : name+':'+descriptor,accessFlags);
+            }
+        }.read(idx,h.end);
+        return new ClassInfo(h.getName(),h.getSuperName(),h.getInterfaces().toArray(new String[0]),h.getAccessFlags(),members);
+    }
+
+    /**
+     * Whether the class is in this index or its parents.
+     *
+     * @param name binary name of the class, e.g. {@code some.pkg.Outer$Inner}
+     */
+    public boolean containsClass(String name) throws IOException {
+        return get(name)!=null;
+    }
+
+    /**
+     * Number of classes added to this index itself or loaded into it, not counting its parents.
+     */
+    public int size() {
+        int n = 0;
+        for (ClassInfo c : classes.values()) {
+            if (c!=MISSING)
+                n++;
+        }
+        return n;
+    }
+
+    /**
+     * Looks up a class here, then in the parents.
+     *
+     * @return null if no index in the chain has it
+     */
+    ClassInfo get(String name) throws IOException {
+        for (MemberIndex i = this; i!=null; i = i.parent) {
+            ClassInfo c = i.classes.get(name);
+            if (c==null && i.loader!=null)
+                c = i.load(name);
+            if (c!=null && c!=MISSING)
+                return c;
+        }
+        return null;
+    }
+
+    private ClassInfo load(String name) throws IOException {
+        InputStream in = loader.getResourceAsStream(name.replace('.','/')+".class");
+        ClassInfo c;
+        if (in==null) {
+            c = MISSING;
+        } else {
+            try {
+                c = read(new JarScanner.EntryReader().read(in,-1),new PoolIndex());
+            } catch (IOException e) {
+                throw new IOException("Failed to index " + name, e);
+            } finally {
+                in.close();
+            }
+        }
+        ClassInfo existing = classes.putIfAbsent(name,c);
+        return existing!=null ? existing : c;
+    }
+
+    /**
+     * What the linkage checker needs to know of a class.
+     */
+    static final class ClassInfo {
+        final String name;
+        /**
+         * Null for {@code java.lang.Object}.
+         */
+        final String superName;
+        final String[] interfaces;
+        final int accessFlags;
+        /**
+         * Access flags of the declared members, keyed by name and descriptor:
+         * {@code name(args)ret} for methods and {@code name:type} for fields.
+         */
+        final Map<String,Integer> members;
+
+        ClassInfo(String name, String superName, String[] interfaces, int accessFlags, Map<String,Integer> members) {
+            this.name = name;
+            this.superName = superName;
+            this.interfaces = interfaces;
+            this.accessFlags = accessFlags;
+            this.members = members;
+        }
+
+        boolean isInterface() {
+            return (accessFlags & ClassHeader.ACC_INTERFACE)!=0;
+        }
+    }
+}
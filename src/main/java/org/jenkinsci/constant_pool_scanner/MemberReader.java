@@ -0,0 +1,56 @@
+package org.jenkinsci.constant_pool_scanner;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads the fields and methods declared by a class, which follow its {@link ClassHeader}.
+ * Their attributes are skipped by length.
+ */
+abstract class MemberReader {
+    /**
+     * Called for each field, then each method, in declaration order.
+     */
+    abstract void member(boolean method, int accessFlags, String name, String descriptor) throws IOException;
+
+    /**
+     * @param idx the indexed pool of the class file
+     * @param p offset of {@code fields_count}, as in {@link ClassHeader#end}
+     * @return offset of the {@code attributes_count} of the class
+     */
+    final int read(PoolIndex idx, int p) throws IOException {
+        ByteBuffer b = idx.source;
+        try {
+            for (int kind = 0; kind < 2; kind++) {
+                int n = b.getChar(p);
+                p += 2;
+                for (int i = 0; i < n; i++) {
+                    member(kind==1,b.getChar(p),idx.utf8(b.getChar(p+2)),idx.utf8(b.getChar(p+4)));
+                    p = skipAttributes(b,p+6);
+                }
+            }
+        } catch (IndexOutOfBoundsException e) {
+            EOFException x = new EOFException("Truncated class file at offset " + (p - b.position()) + ", within its fields or methods");
+            x.initCause(e);
+            throw x;
+        }
+        return p;
+    }
+
+    /**
+     * @param p offset of an {@code attributes_count}
+     * @return offset of the first byte after the attributes
+     */
+    static int skipAttributes(ByteBuffer b, int p) throws IOException {
+        int n = b.getChar(p);
+        p += 2;
+        for (int i = 0; i < n; i++) {
+            int length = b.getInt(p+2);
+            if (length<0 || (long)p+6+length>b.limit())
+                throw new EOFException("Truncated class file at offset " + (p - b.position()) + ", within an attribute");
+            p += 6+length;
+        }
+        return p;
+    }
+}
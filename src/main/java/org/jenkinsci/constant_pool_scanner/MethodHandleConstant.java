@@ -0,0 +1,29 @@
+package org.jenkinsci.constant_pool_scanner;
+
+/**
+ * Method handle, as loaded by {@code ldc} or used as a bootstrap method.
+ */
+public final class MethodHandleConstant {
+    private int referenceKind;
+    private MemberRefConstant reference;
+
+    /**
+     * Kind of the handle, from {@code 1} ({@code REF_getField}) to {@code 9} ({@code REF_invokeInterface}).
+     */
+    public int getReferenceKind() {
+        return referenceKind;
+    }
+
+    /**
+     * Field or method the handle points to.
+     */
+    public MemberRefConstant getReference() {
+        return reference;
+    }
+
+    MethodHandleConstant set(int referenceKind, MemberRefConstant reference) {
+        this.referenceKind = referenceKind;
+        this.reference = reference;
+        return this;
+    }
+}
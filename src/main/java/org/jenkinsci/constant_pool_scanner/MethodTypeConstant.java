@@ -0,0 +1,24 @@
+package org.jenkinsci.constant_pool_scanner;
+
+/**
+ * Method type, as loaded by {@code ldc} or passed to a bootstrap method.
+ */
+public final class MethodTypeConstant {
+    private Utf8Constant descriptor;
+
+    /**
+     * Gets the method descriptor, e.g. {@code (Ljava/lang/String;)V}.
+     */
+    public String get() {
+        return descriptor.get();
+    }
+
+    public Utf8Constant getUTF8() {
+        return descriptor;
+    }
+
+    MethodTypeConstant set(Utf8Constant descriptor) {
+        this.descriptor = descriptor;
+        return this;
+    }
+}
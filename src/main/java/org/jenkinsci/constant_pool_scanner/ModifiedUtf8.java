@@ -0,0 +1,176 @@
+package org.jenkinsci.constant_pool_scanner;
+
+import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Decodes the "modified UTF-8" encoding used by {@code CONSTANT_Utf8} entries,
+ * the same way {@link java.io.DataInput#readUTF()} does, but straight out of a buffer.
+ *
+ * <p>
+ * Nearly all entries are plain ASCII, which is checked for first and turned into a string
+ * with a Latin-1 copy of the bytes; on Java 9 and newer that is the string's own compact representation.
+ * Only the other entries go through the full decoder, which also handles
+ * {@code U+0000} encoded as {@code 0xC0 0x80} and supplementary characters encoded as surrogate pairs.
+ */
+final class ModifiedUtf8 {
+    private static final Charset LATIN1 = StandardCharsets.ISO_8859_1;
+
+    /**
+     * Decodes {@code len} bytes starting at the absolute offset {@code off}.
+     */
+    static String decode(ByteBuffer b, int off, int len) throws UTFDataFormatException {
+        return decode(b,off,len,false);
+    }
+
+    /**
+     * Decodes an internal class name into a binary name, turning {@code /} into {@code .} on the way.
+     */
+    static String decodeBinaryName(ByteBuffer b, int off, int len) throws UTFDataFormatException {
+        return decode(b,off,len,true);
+    }
+
+    /**
+     * Whether all the bytes are between 1 and 0x7F, each standing for the character of the same value.
+     * Written as a reduction without branches, which the JIT can vectorize.
+     */
+    static boolean isAscii(ByteBuffer b, int off, int len) {
+        int acc = 0;
+        if (b.hasArray()) {
+            byte[] a = b.array();
+            int start = b.arrayOffset() + off;
+            for (int i = start; i < start + len; i++) {
+                acc |= a[i] - 1; // negative for 0 and for 0x80-0xFF
+            }
+        } else {
+            for (int i = off; i < off + len; i++) {
+                acc |= b.get(i) - 1;
+            }
+        }
+        return acc >= 0;
+    }
+
+    /**
+     * Checks that {@code len} bytes starting at {@code off} would decode, without decoding them.
+     */
+    static void check(ByteBuffer b, int off, int len) throws UTFDataFormatException {
+        if (isAscii(b, off, len))
+            return;
+        int p = off;
+        int end = off + len;
+        while (p < end) {
+            int c = b.get(p) & 0xFF;
+            int n;
+            switch (c >> 4) {
+                case 0: case 1: case 2: case 3: case 4: case 5: case 6: case 7:
+                    n = 1;
+                    break;
+                case 12: case 13:
+                    n = 2;
+                    break;
+                case 14:
+                    n = 3;
+                    break;
+                default:
+                    throw new UTFDataFormatException("malformed input around byte " + (p - off));
+            }
+            if (p + n > end)
+                throw new UTFDataFormatException("malformed input: partial character at end");
+            for (int i = 1; i < n; i++) {
+                if ((b.get(p + i) & 0xC0) != 0x80)
+                    throw new UTFDataFormatException("malformed input around byte " + (p - off));
+            }
+            p += n;
+        }
+    }
+
+    private static String decode(ByteBuffer b, int off, int len, boolean binaryName) throws UTFDataFormatException {
+        if (isAscii(b, off, len)) {
+            String s;
+            if (b.hasArray()) {
+                s = new String(b.array(), b.arrayOffset() + off, len, LATIN1);
+            } else {
+                byte[] bytes = new byte[len];
+                ByteBuffer d = b.duplicate();
+                d.position(off);
+                d.get(bytes);
+                s = new String(bytes, LATIN1);
+            }
+            return binaryName ? s.replace('/', '.') : s;
+        }
+
+        char[] chars = new char[len];
+        int n = 0;
+        int p = off;
+        int end = off + len;
+        while (p < end) {
+            int c = b.get(p) & 0xFF;
+            switch (c >> 4) {
+                case 0: case 1: case 2: case 3: case 4: case 5: case 6: case 7:
+                    // 0xxxxxxx
+                    chars[n++] = binaryName && c == '/' ? '.' : (char) c;
+                    p++;
+                    break;
+                case 12: case 13: {
+                    // 110x xxxx   10xx xxxx
+                    if (p + 2 > end)
+                        throw new UTFDataFormatException("malformed input: partial character at end");
+                    int c2 = b.get(p + 1);
+                    if ((c2 & 0xC0) != 0x80)
+                        throw new UTFDataFormatException("malformed input around byte " + (p - off));
+                    chars[n++] = (char) (((c & 0x1F) << 6) | (c2 & 0x3F));
+                    p += 2;
+                    break;
+                }
+                case 14: {
+                    // 1110 xxxx  10xx xxxx  10xx xxxx
+                    if (p + 3 > end)
+                        throw new UTFDataFormatException("malformed input: partial character at end");
+                    int c2 = b.get(p + 1);
+                    int c3 = b.get(p + 2);
+                    if ((c2 & 0xC0) != 0x80 || (c3 & 0xC0) != 0x80)
+                        throw new UTFDataFormatException("malformed input around byte " + (p - off));
+                    chars[n++] = (char) (((c & 0x0F) << 12) | ((c2 & 0x3F) << 6) | (c3 & 0x3F));
+                    p += 3;
+                    break;
+                }
+                default:
+                    // 10xx xxxx,  1111 xxxx
+                    throw new UTFDataFormatException("malformed input around byte " + (p - off));
+            }
+        }
+        return new String(chars, 0, n);
+    }
+
+    /**
+     * Encodes a string the way {@link java.io.DataOutput#writeUTF(String)} does, without the length prefix.
+     */
+    static byte[] encode(String s) {
+        int n = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            n += c >= 1 && c <= 0x7F ? 1 : c <= 0x7FF ? 2 : 3;
+        }
+        byte[] r = new byte[n];
+        int p = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c >= 1 && c <= 0x7F) {
+                r[p++] = (byte) c;
+            } else if (c <= 0x7FF) {
+                r[p++] = (byte) (0xC0 | (c >> 6));
+                r[p++] = (byte) (0x80 | (c & 0x3F));
+            } else {
+                r[p++] = (byte) (0xE0 | (c >> 12));
+                r[p++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                r[p++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        return r;
+    }
+
+    private ModifiedUtf8() {
+    }
+}
@@ -0,0 +1,24 @@
+package org.jenkinsci.constant_pool_scanner;
+
+/**
+ * Module name, found in {@code module-info.class}.
+ */
+public final class ModuleConstant {
+    private Utf8Constant value;
+
+    /**
+     * Gets the module name, e.g. {@code java.base}.
+     */
+    public String get() {
+        return value.get();
+    }
+
+    public Utf8Constant getUTF8() {
+        return value;
+    }
+
+    ModuleConstant set(Utf8Constant v) {
+        this.value = v;
+        return this;
+    }
+}
@@ -0,0 +1,24 @@
+package org.jenkinsci.constant_pool_scanner;
+
+/**
+ * Package exported or opened by a module, found in {@code module-info.class}.
+ */
+public final class PackageConstant {
+    private Utf8Constant value;
+
+    /**
+     * Gets the internal package name, e.g. {@code java/lang}.
+     */
+    public String get() {
+        return value.get();
+    }
+
+    public Utf8Constant getUTF8() {
+        return value;
+    }
+
+    PackageConstant set(Utf8Constant v) {
+        this.value = v;
+        return this;
+    }
+}
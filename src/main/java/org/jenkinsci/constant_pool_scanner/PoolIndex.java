@@ -0,0 +1,171 @@
+package org.jenkinsci.constant_pool_scanner;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Tag and offset of every entry in a constant pool, found without decoding any of them.
+ *
+ * Indices are the ones used in the class file, so entry 0 is unused,
+ * as is the slot following each {@code CONSTANT_Long} and {@code CONSTANT_Double}.
+ * The arrays are reused when the index is refilled for another class.
+ */
+final class PoolIndex {
+    /**
+     * Class file being indexed, in big-endian order.
+     */
+    ByteBuffer source;
+    /**
+     * {@code constant_pool_count}, one more than the number of the last entry.
+     */
+    int count;
+    byte[] tags = new byte[0];
+    /**
+     * Offset in {@link #source} of the byte right after the tag of each entry.
+     */
+    int[] offsets = new int[0];
+    /**
+     * Offset in {@link #source} of the first byte after the constant pool.
+     */
+    int end;
+
+    PoolIndex index(ByteBuffer source) throws IOException {
+        ByteBuffer b = source.order()==ByteOrder.BIG_ENDIAN ? source : source.duplicate().order(ByteOrder.BIG_ENDIAN);
+        this.source = b;
+        int p = b.position() + 8; // magic, minor_version, major_version
+        try {
+            int count = b.getChar(p); // constantPoolCount
+            p += 2;
+            if (tags.length<count) {
+                tags = new byte[count];
+                offsets = new int[count];
+            }
+            this.count = count;
+            for (int i = 1; i < count; i++) {
+                int tag = b.get(p++);
+                tags[i] = (byte)tag;
+                offsets[i] = p;
+                int len = ConstantPoolScanner.entryLength(tag);
+                if (len==-1) {
+                    len = 2 + b.getChar(p);
+                } else if (len==-2) {
+                    this.count = 0;
+                    throw new ScanException(ScanStatistics.Failure.UNRECOGNIZED_TAG,"Unrecognized constant pool tag " + tag + " at index " + i);
+                }
+                p += len;
+                if (tag==5 || tag==6) {
+                    // weirdness in spec
+                    tags[++i] = 0;
+                }
+            }
+        } catch (IndexOutOfBoundsException e) {
+            this.count = 0;
+            throw truncated(p,e);
+        }
+        if (p>b.limit()) {
+            this.count = 0;
+            throw truncated(p,null);
+        }
+        end = p;
+        return this;
+    }
+
+    private EOFException truncated(int p, Exception cause) {
+        EOFException x = new EOFException("Truncated or malformed class file at offset " + (p - source.position()));
+        x.initCause(cause);
+        return x;
+    }
+
+    int tag(int i) {
+        return tags[i];
+    }
+
+    /**
+     * Reads the {@code n}th two-byte operand of entry {@code i}.
+     */
+    int u2(int i, int n) {
+        return source.getChar(offsets[i]+2*n);
+    }
+
+    /**
+     * Reads the {@code n}th operand of entry {@code i} as a reference to another entry,
+     * checking that it has the expected tag.
+     */
+    int ref(int i, int n, int expectedTag) throws IOException {
+        int r = u2(i,n);
+        if (r<=0 || r>=count || tags[r]!=expectedTag)
+            throw new ScanException(ScanStatistics.Failure.BAD_REFERENCE,"Constant pool entry " + i + " refers to entry " + r + " which does not have tag " + expectedTag);
+        return r;
+    }
+
+    /**
+     * Reads the {@code reference_index} of the {@code CONSTANT_MethodHandle} entry {@code i},
+     * checking that it refers to the kind of field or method reference its {@code reference_kind} calls for.
+     */
+    int methodHandleRef(int i) throws IOException {
+        int kind = source.get(offsets[i]);
+        int r = source.getChar(offsets[i]+1);
+        int tag = r<=0 || r>=count ? 0 : tags[r];
+        boolean ok;
+        switch (kind) {
+            case 1: case 2: case 3: case 4: // REF_getField, REF_getStatic, REF_putField, REF_putStatic
+                ok = tag==9;
+                break;
+            case 5: case 8: // REF_invokeVirtual, REF_newInvokeSpecial
+                ok = tag==10;
+                break;
+            case 6: case 7: // REF_invokeStatic, REF_invokeSpecial
+                ok = tag==10 || tag==11;
+                break;
+            case 9: // REF_invokeInterface
+                ok = tag==11;
+                break;
+            default:
+                throw new ScanException(ScanStatistics.Failure.BAD_REFERENCE,"Constant pool entry " + i + " has invalid reference kind " + kind);
+        }
+        if (!ok)
+            throw new ScanException(ScanStatistics.Failure.BAD_REFERENCE,"Constant pool entry " + i + " of reference kind " + kind + " refers to entry " + r + " which has tag " + tag);
+        return r;
+    }
+
+    /**
+     * Reads the part of the class file that follows the pool.
+     */
+    ClassHeader header() throws IOException {
+        return ClassHeader.read(source,end,count,tags,offsets);
+    }
+
+    /**
+     * Points {@code flyweight} at the {@code CONSTANT_Utf8} entry {@code i}.
+     */
+    Utf8Constant utf8(int i, Utf8Constant flyweight) {
+        int p = offsets[i];
+        return flyweight.set(source,p+2,source.getChar(p));
+    }
+
+    /**
+     * Decodes the {@code CONSTANT_Utf8} entry {@code i}, which is referred to from outside the pool.
+     */
+    String utf8(int i) throws IOException {
+        int p = offsets[checkUtf8(i)];
+        return ModifiedUtf8.decode(source,p+2,source.getChar(p));
+    }
+
+    /**
+     * Points a flyweight at the {@code CONSTANT_Utf8} entry {@code i}, which is referred to from outside the pool.
+     */
+    Utf8Constant utf8Ref(int i, Utf8Constant flyweight) throws IOException {
+        return utf8(checkUtf8(i),flyweight);
+    }
+
+    /**
+     * Checks that entry {@code i} exists and is a {@code CONSTANT_Utf8}.
+     */
+    int checkUtf8(int i) throws IOException {
+        if (i<=0 || i>=count || tags[i]!=1)
+            throw new ScanException(ScanStatistics.Failure.BAD_REFERENCE,"Class file refers to constant pool entry " + i + " which does not have tag 1");
+        return i;
+    }
+}
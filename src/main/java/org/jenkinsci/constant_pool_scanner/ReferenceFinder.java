@@ -0,0 +1,26 @@
+package org.jenkinsci.constant_pool_scanner;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Looks for the first class name accepted by a {@link ClassNameMatcher}
+ * and stops the scan as soon as it is found.
+ */
+final class ReferenceFinder extends ClassNameTokenizer {
+    private ClassNameMatcher matcher;
+    boolean found;
+
+    void reset(ClassNameMatcher matcher) {
+        this.matcher = matcher;
+        this.found = false;
+        this.problem = null;
+    }
+
+    @Override
+    void name(ByteBuffer source, int offset, int length) {
+        if (matcher.matches(source, offset, length)) {
+            found = true;
+            stopped = true;
+        }
+    }
+}
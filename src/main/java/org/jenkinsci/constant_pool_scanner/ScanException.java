@@ -0,0 +1,22 @@
+package org.jenkinsci.constant_pool_scanner;
+
+import java.io.IOException;
+
+/**
+ * A class file that cannot be scanned, saying why for {@link ScanStatistics#getFailure()}.
+ */
+final class ScanException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    final ScanStatistics.Failure failure;
+
+    ScanException(ScanStatistics.Failure failure, String message) {
+        super(message);
+        this.failure = failure;
+    }
+
+    ScanException(ScanStatistics.Failure failure, String message, Throwable cause) {
+        super(message,cause);
+        this.failure = failure;
+    }
+}
@@ -0,0 +1,36 @@
+package org.jenkinsci.constant_pool_scanner;
+
+/**
+ * Receives {@link ScanStatistics} after each scan, successful or not, of a {@link ScannerContext}
+ * that has a listener, whether set on the context or as the default for all of them.
+ *
+ * <p>
+ * Listeners are called on the scanning thread, so they should be quick
+ * and, if shared between contexts, thread-safe.
+ *
+ * @see ScannerContext#setListener(ScanListener)
+ * @see ScannerContext#setDefaultListener(ScanListener)
+ * @see ScanMetrics
+ */
+public interface ScanListener {
+    void scanned(ScanStatistics stats);
+
+    /**
+     * Creates a listener that records each scan as a JDK Flight Recorder event
+     * named {@code org.jenkinsci.constant_pool_scanner.Scan}, which costs next to nothing unless a recording is running.
+     *
+     * @return null if this JVM has no Flight Recorder API (it appeared in Java 11 and 8u262)
+     */
+    static ScanListener flightRecorder() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return (ScanListener)Class.forName("org.jenkinsci.constant_pool_scanner.FlightRecorderListener").getDeclaredConstructor().newInstance();
+        } catch (ClassNotFoundException e) {
+            return null;
+        } catch (LinkageError e) {
+            return null;
+        } catch (ReflectiveOperationException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package org.jenkinsci.constant_pool_scanner;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * {@link ScanListener} that adds up the statistics of all the scans it is told about.
+ *
+ * <pre>
+ * ScanMetrics metrics = new ScanMetrics();
+ * ScannerContext.setDefaultListener(metrics);
+ * ...
+ * LOGGER.info(metrics.toString());
+ * </pre>
+ *
+ * Safe to share between threads; totals read while scans are running may be slightly out of step with each other.
+ */
+public final class ScanMetrics implements ScanListener {
+    private static final int SCANS = 0, BYTES = 1, POOL = 2, DECODED = 3, PARSE = 4, BUILD = 5, TAGS = 6;
+    private static final ScanStatistics.Failure[] FAILURES = ScanStatistics.Failure.values();
+
+    /**
+     * All the totals in one array: the ones named above, then counts by tag, then failures by cause.
+     */
+    private final AtomicLongArray totals = new AtomicLongArray(TAGS + 21 + FAILURES.length);
+
+    public void scanned(ScanStatistics stats) {
+        totals.incrementAndGet(SCANS);
+        totals.addAndGet(BYTES, stats.bytes);
+        totals.addAndGet(POOL, stats.poolSize);
+        totals.addAndGet(DECODED, stats.decoded);
+        totals.addAndGet(PARSE, stats.parseNanos);
+        totals.addAndGet(BUILD, stats.buildNanos);
+        for (int i = 1; i < stats.tagCounts.length; i++) {
+            if (stats.tagCounts[i] != 0)
+                totals.addAndGet(TAGS + i, stats.tagCounts[i]);
+        }
+        if (stats.failure != null)
+            totals.incrementAndGet(TAGS + 21 + stats.failure.ordinal());
+    }
+
+    /**
+     * Number of scans, including failed ones.
+     */
+    public long getScans() {
+        return totals.get(SCANS);
+    }
+
+    /**
+     * @see ScanStatistics#getBytes()
+     */
+    public long getBytes() {
+        return totals.get(BYTES);
+    }
+
+    /**
+     * @see ScanStatistics#getPoolSize()
+     */
+    public long getPoolEntries() {
+        return totals.get(POOL);
+    }
+
+    /**
+     * @see ScanStatistics#getCount(ConstantType)
+     */
+    public long getCount(ConstantType type) {
+        return totals.get(TAGS + type.tag);
+    }
+
+    /**
+     * @see ScanStatistics#getDecoded()
+     */
+    public long getDecoded() {
+        return totals.get(DECODED);
+    }
+
+    /**
+     * @see ScanStatistics#getParseNanos()
+     */
+    public long getParseNanos() {
+        return totals.get(PARSE);
+    }
+
+    /**
+     * @see ScanStatistics#getBuildNanos()
+     */
+    public long getBuildNanos() {
+        return totals.get(BUILD);
+    }
+
+    public long getFailures(ScanStatistics.Failure cause) {
+        return totals.get(TAGS + 21 + cause.ordinal());
+    }
+
+    /**
+     * Number of failed scans by cause, leaving out causes that never happened.
+     */
+    public Map<ScanStatistics.Failure,Long> getFailures() {
+        Map<ScanStatistics.Failure,Long> r = new EnumMap<ScanStatistics.Failure,Long>(ScanStatistics.Failure.class);
+        for (ScanStatistics.Failure f : FAILURES) {
+            long n = getFailures(f);
+            if (n != 0)
+                r.put(f, n);
+        }
+        return r;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder b = new StringBuilder("ScanMetrics[scans=").append(getScans())
+            .append(", bytes=").append(getBytes())
+            .append(", poolEntries=").append(getPoolEntries())
+            .append(", decoded=").append(getDecoded())
+            .append(", parseMillis=").append(getParseNanos() / 1000000)
+            .append(", buildMillis=").append(getBuildNanos() / 1000000);
+        for (ConstantType t : ConstantType.values()) {
+            b.append(", ").append(t).append('=').append(getCount(t));
+        }
+        Map<ScanStatistics.Failure,Long> failures = getFailures();
+        if (!failures.isEmpty())
+            b.append(", failures=").append(failures);
+        return b.append(']').toString();
+    }
+}
@@ -0,0 +1,84 @@
+package org.jenkinsci.constant_pool_scanner;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Narrows down which class names the {@code dependencies} methods report.
+ *
+ * <pre>
+ * ScanOptions options = new ScanOptions().include("hudson").include("jenkins").exclude("hudson.util");
+ * Set&lt;String&gt; deps = ConstantPoolScanner.dependencies(bytecode, options);
+ * </pre>
+ *
+ * <p>
+ * Names are tested on the raw bytes of the class file before anything is decoded,
+ * so rejected names cost no more than a few byte comparisons.
+ * Options may be shared between threads once set up, but must not be modified while in use.
+ */
+public final class ScanOptions {
+    /**
+     * Packages to report, or null for all of them.
+     */
+    private ClassNameMatcher includes;
+    private ClassNameMatcher excludes;
+    private boolean deep;
+
+    /**
+     * Reports classes in the given package, e.g. {@code hudson.model}, and its subpackages.
+     * If never called, every package is included.
+     */
+    public ScanOptions include(String packageName) {
+        if (includes == null)
+            includes = new ClassNameMatcher();
+        includes.addPackage(packageName);
+        return this;
+    }
+
+    /**
+     * Leaves out classes in the given package and its subpackages, even if they are included.
+     */
+    public ScanOptions exclude(String packageName) {
+        if (excludes == null)
+            excludes = new ClassNameMatcher();
+        excludes.addPackage(packageName);
+        return this;
+    }
+
+    /**
+     * Also reports the classes that only the fields, methods and attributes of the class file mention:
+     * field and method descriptors, generic signatures, annotations and the types of their values.
+     * The constant pool alone misses, for example, a type used only as a type argument,
+     * or the type of an annotation, which the pool holds only as a plain string.
+     *
+     * <p>
+     * This reads the whole class file instead of stopping at the end of its constant pool,
+     * although method bodies are still skipped without being looked at.
+     */
+    public ScanOptions deep() {
+        deep = true;
+        return this;
+    }
+
+    /**
+     * Whether {@link #deep()} was called.
+     */
+    public boolean isDeep() {
+        return deep;
+    }
+
+    /**
+     * Whether a binary class name, e.g. {@code some.pkg.Outer$Inner}, passes the filter.
+     */
+    public boolean accepts(String binaryName) {
+        return (includes == null || includes.matches(binaryName))
+            && (excludes == null || !excludes.matches(binaryName));
+    }
+
+    /**
+     * Whether an internal class name held as modified UTF-8 passes the filter.
+     */
+    boolean accepts(ByteBuffer b, int offset, int length) {
+        return (includes == null || includes.matches(b, offset, length))
+            && (excludes == null || !excludes.matches(b, offset, length));
+    }
+}
@@ -0,0 +1,304 @@
+package org.jenkinsci.constant_pool_scanner;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.lang.reflect.InvocationTargetException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Scans many class files or archives asynchronously, for callers that read them from slow storage.
+ *
+ * <p>
+ * By default scans run on virtual threads when the JVM has them (Java 21 and newer),
+ * so that blocking reads do not tie up platform threads, and otherwise on a fixed pool
+ * with one thread per processor.
+ * Each scan first reserves as many bytes as it will read out of a fixed budget
+ * and waits while the budget is used up by other scans, which bounds the memory
+ * held by a large batch however many threads there are.
+ * Sources of unknown size are charged {@link #UNKNOWN_SIZE} bytes;
+ * a single source larger than the whole budget is charged the whole budget.
+ *
+ * <p>
+ * {@link ScannerContext}s are recycled from one scan to the next rather than kept per thread,
+ * since virtual threads are never reused.
+ */
+public final class ScanService implements Closeable {
+    /**
+     * Default cap on the bytes read by scans in progress.
+     */
+    public static final long DEFAULT_MAX_IN_FLIGHT_BYTES = 64L << 20;
+    /**
+     * Bytes charged against the budget for a source whose size is not known in advance.
+     */
+    public static final int UNKNOWN_SIZE = 64 << 10;
+
+    /**
+     * Something to read a class file or an archive from.
+     */
+    public static abstract class Source {
+        /**
+         * Number of bytes {@link #open()} will deliver, or -1 if unknown.
+         */
+        public abstract long size() throws IOException;
+
+        public abstract InputStream open() throws IOException;
+
+        public static Source of(final Path path) {
+            return new Source() {
+                @Override public long size() throws IOException {
+                    return Files.size(path);
+                }
+                @Override public InputStream open() throws IOException {
+                    return Files.newInputStream(path);
+                }
+                @Override public String toString() {
+                    return path.toString();
+                }
+            };
+        }
+
+        /**
+         * A URL such as one from {@link ClassLoader#getResource(String)}.
+         * The size is only looked up in advance for {@code file:} URLs; finding that of a {@code jar:} URL
+         * would mean opening the jar and reading its central directory for every class.
+         */
+        public static Source of(final URL url) {
+            return new Source() {
+                @Override public long size() throws IOException {
+                    if (!url.getProtocol().equals("file"))
+                        return -1;
+                    try {
+                        return Files.size(Paths.get(url.toURI()));
+                    } catch (URISyntaxException e) {
+                        throw new IOException(e);
+                    }
+                }
+                @Override public InputStream open() throws IOException {
+                    return url.openStream();
+                }
+                @Override public String toString() {
+                    return url.toString();
+                }
+            };
+        }
+
+        /**
+         * A stream of unknown size, opened when the scan starts.
+         */
+        public static Source of(final String name, final Callable<? extends InputStream> opener) {
+            return new Source() {
+                @Override public long size() {
+                    return -1;
+                }
+                @Override public InputStream open() throws IOException {
+                    try {
+                        return opener.call();
+                    } catch (IOException e) {
+                        throw e;
+                    } catch (Exception e) {
+                        throw new IOException("Failed to open " + name, e);
+                    }
+                }
+                @Override public String toString() {
+                    return name;
+                }
+            };
+        }
+    }
+
+    private final ExecutorService executor;
+    private final boolean ownExecutor;
+    private final Semaphore budget;
+    private final int maxInFlightBytes;
+    private final ScanOptions options;
+    private final ConcurrentLinkedQueue<ScannerContext> contexts = new ConcurrentLinkedQueue<ScannerContext>();
+
+    /**
+     * Scans on virtual threads if available, or else on a pool of one thread per processor,
+     * with {@link #DEFAULT_MAX_IN_FLIGHT_BYTES}.
+     */
+    public ScanService() {
+        this(defaultExecutor(),true,DEFAULT_MAX_IN_FLIGHT_BYTES,null);
+    }
+
+    /**
+     * @param executor runs the scans; it is not shut down by {@link #close()}
+     * @param maxInFlightBytes cap on the bytes read by scans in progress
+     * @param options if non-null, only the class names that pass its filter are reported
+     */
+    public ScanService(ExecutorService executor, long maxInFlightBytes, ScanOptions options) {
+        this(executor,false,maxInFlightBytes,options);
+    }
+
+    private ScanService(ExecutorService executor, boolean ownExecutor, long maxInFlightBytes, ScanOptions options) {
+        if (maxInFlightBytes<=0)
+            throw new IllegalArgumentException("maxInFlightBytes must be positive: " + maxInFlightBytes);
+        this.executor = executor;
+        this.ownExecutor = ownExecutor;
+        this.maxInFlightBytes = (int)Math.min(maxInFlightBytes,Integer.MAX_VALUE);
+        this.budget = new Semaphore(this.maxInFlightBytes,true);
+        this.options = options;
+    }
+
+    private static ExecutorService defaultExecutor() {
+        try {
+            return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (NoSuchMethodException e) {
+            // before Java 21
+        } catch (IllegalAccessException e) {
+            throw new AssertionError(e);
+        } catch (InvocationTargetException e) {
+            // e.g. preview feature not enabled
+        }
+        return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r,"ScanService");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Computes {@link ConstantPoolScanner#dependencies(InputStream)} of a class file.
+     *
+     * @return completes with the (sorted) set of binary class names,
+     *         or exceptionally with the {@link IOException} that made the scan fail
+     */
+    public CompletableFuture<Set<String>> dependencies(final Source source) {
+        return submit(new Callable<Set<String>>() {
+            public Set<String> call() throws IOException {
+                int charge = 0;
+                ScannerContext context = borrow();
+                try {
+                    charge = reserve(source.size());
+                    InputStream in = source.open();
+                    try {
+                        return context.dependencies(in,options);
+                    } finally {
+                        in.close();
+                    }
+                } catch (IOException e) {
+                    throw new IOException("Failed to scan " + source, e);
+                } finally {
+                    contexts.add(context);
+                    budget.release(charge);
+                }
+            }
+        });
+    }
+
+    /**
+     * Computes {@link ConstantPoolScanner#dependencies(InputStream)} of many class files.
+     *
+     * @return one future per source, in the same order
+     */
+    public List<CompletableFuture<Set<String>>> dependencies(List<? extends Source> sources) {
+        List<CompletableFuture<Set<String>>> r = new ArrayList<CompletableFuture<Set<String>>>(sources.size());
+        for (Source s : sources) {
+            r.add(dependencies(s));
+        }
+        return r;
+    }
+
+    /**
+     * Scans all the {@code .class} entries of a jar or zip file, one after another,
+     * reserving the size of each entry in turn.
+     *
+     * @return completes with the dependencies of each class keyed by entry name, as from {@link JarScanner#scan(File)}
+     */
+    public CompletableFuture<Map<String,Set<String>>> scan(final File archive) {
+        return submit(new Callable<Map<String,Set<String>>>() {
+            public Map<String,Set<String>> call() throws IOException {
+                Map<String,Set<String>> r = new LinkedHashMap<String,Set<String>>();
+                ScannerContext context = borrow();
+                ZipFile zip = new ZipFile(archive);
+                try {
+                    for (ZipEntry entry : JarScanner.classEntries(zip)) {
+                        int charge = reserve(entry.getSize());
+                        try {
+                            InputStream in = zip.getInputStream(entry);
+                            try {
+                                r.put(entry.getName(),context.dependencies(in,options));
+                            } finally {
+                                in.close();
+                            }
+                        } catch (IOException e) {
+                            throw new IOException("Failed to scan " + entry.getName() + " in " + archive, e);
+                        } finally {
+                            budget.release(charge);
+                        }
+                    }
+                } finally {
+                    zip.close();
+                    contexts.add(context);
+                }
+                return r;
+            }
+        });
+    }
+
+    private <T> CompletableFuture<T> submit(final Callable<T> scan) {
+        final CompletableFuture<T> f = new CompletableFuture<T>();
+        executor.execute(new Runnable() {
+            public void run() {
+                try {
+                    f.complete(scan.call());
+                } catch (Throwable t) {
+                    f.completeExceptionally(t);
+                }
+            }
+        });
+        return f;
+    }
+
+    /**
+     * Waits until the given number of bytes fit in the budget and takes them.
+     *
+     * @return the number of bytes actually taken, to be released afterwards
+     */
+    private int reserve(long size) throws IOException {
+        int charge = (int)Math.min(size<0 ? UNKNOWN_SIZE : size,maxInFlightBytes);
+        try {
+            budget.acquire(charge);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw (IOException)new InterruptedIOException("Interrupted while waiting for buffer space").initCause(e);
+        }
+        return charge;
+    }
+
+    private ScannerContext borrow() {
+        ScannerContext c = contexts.poll();
+        return c!=null ? c : new ScannerContext();
+    }
+
+    /**
+     * Shuts down the executor if this service created it. Scans already submitted still complete.
+     */
+    public void close() {
+        if (ownExecutor)
+            executor.shutdown();
+    }
+}
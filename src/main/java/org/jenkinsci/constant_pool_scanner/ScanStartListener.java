@@ -0,0 +1,9 @@
+package org.jenkinsci.constant_pool_scanner;
+
+/**
+ * A {@link ScanListener} that also wants to know when each scan starts, such as to time it itself.
+ * Whatever it needs to carry over to {@link ScanListener#scanned(ScanStatistics)} goes in {@link ScanStatistics#attachment}.
+ */
+interface ScanStartListener extends ScanListener {
+    void scanning(ScanStatistics stats);
+}
@@ -0,0 +1,135 @@
+package org.jenkinsci.constant_pool_scanner;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UTFDataFormatException;
+
+/**
+ * What one scan of a class file did and how long it took, as reported to a {@link ScanListener}.
+ */
+public final class ScanStatistics {
+    /**
+     * Why a scan failed.
+     */
+    public enum Failure {
+        /**
+         * The class file ends within its constant pool.
+         */
+        TRUNCATED,
+        /**
+         * A constant pool entry has a tag this library does not know.
+         */
+        UNRECOGNIZED_TAG,
+        /**
+         * A constant refers to a missing entry or to one of the wrong kind.
+         */
+        BAD_REFERENCE,
+        /**
+         * A {@code CONSTANT_Utf8} entry is not valid modified UTF-8.
+         */
+        MALFORMED_UTF8,
+        /**
+         * A class name or descriptor cannot be parsed.
+         */
+        INVALID_DESCRIPTOR,
+        OTHER;
+
+        /**
+         * Tells the cause from the exception, or from the first one it was caused by that says.
+         */
+        static Failure of(IOException e) {
+            for (Throwable t = e; t != null; t = t.getCause()) {
+                if (t instanceof ScanException)
+                    return ((ScanException) t).failure;
+                if (t instanceof EOFException)
+                    return TRUNCATED;
+                if (t instanceof UTFDataFormatException)
+                    return MALFORMED_UTF8;
+            }
+            return OTHER;
+        }
+    }
+
+    long bytes;
+    int poolSize;
+    final int[] tagCounts = new int[21];
+    int decoded;
+    long parseNanos;
+    long buildNanos;
+    Failure failure;
+    /**
+     * Set by a {@link ScanStartListener} for its own use.
+     */
+    Object attachment;
+
+    ScanStatistics() {
+    }
+
+    /**
+     * Bytes of the class file read, from its start to the end of the constant pool.
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Number of entries in the constant pool, as from {@link ConstantPool#size()},
+     * or 0 if it could not be indexed.
+     */
+    public int getPoolSize() {
+        return poolSize;
+    }
+
+    /**
+     * Number of constants of the given type in the pool, whether or not they were asked for.
+     */
+    public int getCount(ConstantType type) {
+        return tagCounts[type.tag];
+    }
+
+    /**
+     * Number of strings decoded out of {@code CONSTANT_Utf8} entries while scanning;
+     * every other byte of the pool was skipped over or compared without being decoded.
+     * Strings decoded later on, such as by {@link Utf8Constant#get()}, are not counted.
+     */
+    public int getDecoded() {
+        return decoded;
+    }
+
+    /**
+     * Time spent reading the class file, if from a stream, and indexing its constant pool.
+     */
+    public long getParseNanos() {
+        return parseNanos;
+    }
+
+    /**
+     * Time spent after indexing, visiting constants and building the result.
+     */
+    public long getBuildNanos() {
+        return buildNanos;
+    }
+
+    /**
+     * Why the scan failed, or null if it succeeded.
+     */
+    public Failure getFailure() {
+        return failure;
+    }
+
+    void indexed(PoolIndex idx) {
+        bytes = idx.end - idx.source.position();
+        poolSize = idx.count - 1;
+        for (int i = 1; i < idx.count; i++) {
+            tagCounts[idx.tags[i]]++;
+        }
+        tagCounts[0] = 0; // unused slots after longs and doubles
+    }
+
+    @Override
+    public String toString() {
+        return "ScanStatistics[bytes=" + bytes + ", poolSize=" + poolSize + ", decoded=" + decoded
+             + ", parseNanos=" + parseNanos + ", buildNanos=" + buildNanos
+             + (failure != null ? ", failure=" + failure : "") + "]";
+    }
+}
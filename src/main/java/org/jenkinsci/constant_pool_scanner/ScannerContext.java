@@ -0,0 +1,742 @@
+package org.jenkinsci.constant_pool_scanner;
+
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.jenkinsci.constant_pool_scanner.ConstantType.*;
+
+/**
+ * Scratch state that can be reused across many scans on one thread.
+ *
+ * <p>
+ * The static methods on {@link ConstantPoolScanner} create a fresh context for every call.
+ * Code that scans lots of classes in a loop can instead keep one context per worker thread
+ * and call the methods here, so that the read buffer, the set of constant types to collect
+ * and the index of constant pool entries are recycled instead of being allocated for each class.
+ *
+ * <p>
+ * A context is not thread-safe and must not be shared between threads.
+ * {@link ConstantPool}s returned from the {@code parse} methods are never recycled
+ * and so remain valid after further scans.
+ */
+public final class ScannerContext {
+    /**
+     * Holds the constant pool bytes read from a stream; allocated on first use.
+     */
+    private byte[] buffer;
+    private ByteBuffer view;
+
+    private final EnumSet<ConstantType> collect = EnumSet.noneOf(ConstantType.class);
+
+    private final PoolIndex index = new PoolIndex();
+    /**
+     * Views handed out to {@link ConstantVisitor}s.
+     */
+    private final Utf8Constant utf8a = new Utf8Constant(), utf8b = new Utf8Constant(), utf8c = new Utf8Constant();
+
+    private final SymbolTable symbols;
+    private final DependencyCollector dependencies;
+    private final ReferenceFinder finder = new ReferenceFinder();
+    private final AttributeReader attributes = new AttributeReader();
+    private final MemberTee tee = new MemberTee();
+
+    private static volatile ScanListener defaultListener;
+    private ScanListener listener;
+    /**
+     * Statistics of the scan being recorded, if any, and where they go.
+     */
+    private ScanStatistics stats;
+    private ScanListener recording;
+    private long started;
+    /**
+     * Time taken by the last {@link #read(DataInput)}, to be counted in the scan that follows.
+     */
+    private long readNanos;
+
+    public ScannerContext() {
+        this(null);
+    }
+
+    /**
+     * Creates a context that resolves the class names it reports through a symbol table,
+     * so that {@code dependencies} methods return the table's shared instances
+     * and {@link #dependencyIds(ByteBuffer)} can be used.
+     */
+    public ScannerContext(SymbolTable symbols) {
+        this.symbols = symbols;
+        this.dependencies = new DependencyCollector(symbols);
+    }
+
+    /**
+     * Sets the listener told about the scans of contexts that have none of their own,
+     * including the ones created by the static methods of {@link ConstantPoolScanner}.
+     *
+     * @param listener null to stop recording statistics
+     */
+    public static void setDefaultListener(ScanListener listener) {
+        defaultListener = listener;
+    }
+
+    /**
+     * Sets the listener told about the scans of this context, overriding the default one.
+     *
+     * @param listener null to go back to the default
+     */
+    public void setListener(ScanListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * @see ConstantPoolScanner#dependencies(byte[])
+     */
+    public Set<String> dependencies(byte[] data) throws IOException {
+        return dependencies(ByteBuffer.wrap(data));
+    }
+
+    /**
+     * @see ConstantPoolScanner#dependencies(ByteBuffer)
+     */
+    public Set<String> dependencies(ByteBuffer data) throws IOException {
+        return dependencies(data,new TreeSet<String>());
+    }
+
+    /**
+     * @see ConstantPoolScanner#dependencies(InputStream)
+     */
+    public Set<String> dependencies(InputStream in) throws IOException {
+        return dependencies(in,new TreeSet<String>());
+    }
+
+    /**
+     * @see ConstantPoolScanner#dependencies(byte[], Collection)
+     */
+    public <C extends Collection<? super String>> C dependencies(byte[] data, C result) throws IOException {
+        return dependencies(ByteBuffer.wrap(data),result);
+    }
+
+    /**
+     * @see ConstantPoolScanner#dependencies(InputStream, Collection)
+     */
+    public <C extends Collection<? super String>> C dependencies(InputStream in, C result) throws IOException {
+        return dependencies(read(new DataInputStream(in)),result);
+    }
+
+    /**
+     * @see ConstantPoolScanner#dependencies(ByteBuffer, Collection)
+     */
+    public <C extends Collection<? super String>> C dependencies(ByteBuffer data, C result) throws IOException {
+        return dependencies(data,null,result);
+    }
+
+    /**
+     * @see ConstantPoolScanner#dependencies(byte[], ScanOptions)
+     */
+    public Set<String> dependencies(byte[] data, ScanOptions options) throws IOException {
+        return dependencies(ByteBuffer.wrap(data),options,new TreeSet<String>());
+    }
+
+    /**
+     * @see ConstantPoolScanner#dependencies(ByteBuffer, ScanOptions)
+     */
+    public Set<String> dependencies(ByteBuffer data, ScanOptions options) throws IOException {
+        return dependencies(data,options,new TreeSet<String>());
+    }
+
+    /**
+     * @see ConstantPoolScanner#dependencies(InputStream, ScanOptions)
+     */
+    public Set<String> dependencies(InputStream in, ScanOptions options) throws IOException {
+        return dependencies(read(in,options),options,new TreeSet<String>());
+    }
+
+    /**
+     * Adds the names of the classes a class file refers to that pass a filter to a collection.
+     *
+     * @param options if null, all names are added
+     * @see ConstantPoolScanner#dependencies(ByteBuffer, Collection)
+     */
+    public <C extends Collection<? super String>> C dependencies(ByteBuffer data, ScanOptions options, C result) throws IOException {
+        boolean owner = begin();
+        IOException failure = null;
+        dependencies.reset(result,options);
+        try {
+            collect(data,options,null);
+            dependencies.finish();
+            return result;
+        } catch (IOException e) {
+            failure = e;
+            throw e;
+        } finally {
+            end(owner,failure);
+        }
+    }
+
+    /**
+     * Like {@link #dependencies(ByteBuffer, ScanOptions, Collection)}, and in the same pass over the pool
+     * passes the field and method references to {@link ConstantVisitor#visitMemberRef}, unfiltered.
+     */
+    <C extends Collection<? super String>> C dependencies(ByteBuffer data, ScanOptions options, C result, ConstantVisitor members) throws IOException {
+        boolean owner = begin();
+        IOException failure = null;
+        dependencies.reset(result,options);
+        try {
+            collect(data,options,members);
+            dependencies.finish();
+            return result;
+        } catch (IOException e) {
+            failure = e;
+            throw e;
+        } finally {
+            end(owner,failure);
+        }
+    }
+
+    /**
+     * Examines the constant pool of a class file and looks for references to other classes,
+     * like {@link ConstantPoolScanner#dependencies(ByteBuffer)}, but returns them as symbol ids.
+     *
+     * @return sorted ids in the {@link SymbolTable} given to the constructor
+     * @throws IllegalStateException if this context has no symbol table
+     */
+    public int[] dependencyIds(ByteBuffer data) throws IOException {
+        return dependencyIds(data,null);
+    }
+
+    /**
+     * Like {@link #dependencyIds(ByteBuffer)}, but only for names that pass a filter;
+     * the others are not even added to the symbol table.
+     *
+     * @param options if null, all names are included
+     */
+    public int[] dependencyIds(ByteBuffer data, ScanOptions options) throws IOException {
+        if (symbols==null)
+            throw new IllegalStateException("No symbol table");
+        boolean owner = begin();
+        IOException failure = null;
+        dependencies.resetIds(options);
+        try {
+            collect(data,options,null);
+            return dependencies.ids();
+        } catch (IOException e) {
+            failure = e;
+            throw e;
+        } finally {
+            end(owner,failure);
+        }
+    }
+
+    /**
+     * Feeds the class names of a class file to {@link #dependencies}, which is abandoned if that fails,
+     * so that a problem it deferred does not hide the failure.
+     *
+     * @param members if non-null, also gets the field and method references
+     */
+    private void collect(ByteBuffer data, ScanOptions options, ConstantVisitor members) throws IOException {
+        boolean done = false;
+        try {
+            if (members==null) {
+                visit(data,dependencies,CLASS,NAME_AND_TYPE,METHOD_TYPE);
+            } else {
+                tee.members = members;
+                visit(data,tee,CLASS,NAME_AND_TYPE,METHOD_TYPE,FIELD_REF,METHOD_REF,INTERFACE_METHOD_REF);
+            }
+            if (options!=null && options.isDeep())
+                attributes.read(index,dependencies);
+            done = true;
+        } finally {
+            tee.members = null;
+            if (!done)
+                dependencies.abandon();
+        }
+    }
+
+    /**
+     * Sends the constants {@link #dependencies} looks at its way, and member references to another visitor.
+     */
+    private final class MemberTee extends ConstantVisitor {
+        ConstantVisitor members;
+
+        @Override
+        public void visitClass(int index, int nameIndex, Utf8Constant name) {
+            dependencies.visitClass(index,nameIndex,name);
+        }
+
+        @Override
+        public void visitNameAndType(int index, int nameIndex, Utf8Constant name, int descriptorIndex, Utf8Constant descriptor) {
+            dependencies.visitNameAndType(index,nameIndex,name,descriptorIndex,descriptor);
+        }
+
+        @Override
+        public void visitMethodType(int index, int descriptorIndex, Utf8Constant descriptor) {
+            dependencies.visitMethodType(index,descriptorIndex,descriptor);
+        }
+
+        @Override
+        public void visitMemberRef(ConstantType type, int index, int classIndex, int nameAndTypeIndex,
+                                   Utf8Constant owner, Utf8Constant name, Utf8Constant descriptor) {
+            members.visitMemberRef(type,index,classIndex,nameAndTypeIndex,owner,name,descriptor);
+        }
+    }
+
+    /**
+     * @see #dependencyIds(ByteBuffer)
+     */
+    public int[] dependencyIds(byte[] data) throws IOException {
+        return dependencyIds(ByteBuffer.wrap(data));
+    }
+
+    /**
+     * @see #dependencyIds(ByteBuffer)
+     */
+    public int[] dependencyIds(InputStream in) throws IOException {
+        return dependencyIds(read(new DataInputStream(in)));
+    }
+
+    /**
+     * @see ConstantPoolScanner#referencesAny(ByteBuffer, ClassNameMatcher)
+     */
+    public boolean referencesAny(ByteBuffer data, ClassNameMatcher matcher) throws IOException {
+        boolean owner = begin();
+        IOException failure = null;
+        finder.reset(matcher);
+        try {
+            visit(data,finder,CLASS,NAME_AND_TYPE,METHOD_TYPE);
+            if (!finder.found && finder.problem!=null)
+                throw finder.problem;
+            return finder.found;
+        } catch (IOException e) {
+            failure = e;
+            throw e;
+        } finally {
+            end(owner,failure);
+        }
+    }
+
+    /**
+     * @see ConstantPoolScanner#referencesAny(ByteBuffer, ClassNameMatcher)
+     */
+    public boolean referencesAny(byte[] data, ClassNameMatcher matcher) throws IOException {
+        return referencesAny(ByteBuffer.wrap(data),matcher);
+    }
+
+    /**
+     * @see ConstantPoolScanner#referencesAny(ByteBuffer, ClassNameMatcher)
+     */
+    public boolean referencesAny(InputStream in, ClassNameMatcher matcher) throws IOException {
+        return referencesAny(read(new DataInputStream(in)),matcher);
+    }
+
+    /**
+     * @see ConstantPoolScanner#header(ByteBuffer)
+     */
+    public ClassHeader header(ByteBuffer data) throws IOException {
+        boolean owner = begin();
+        IOException failure = null;
+        try {
+            PoolIndex idx = index.index(data);
+            indexed(idx);
+            return idx.header();
+        } catch (IOException e) {
+            failure = e;
+            throw e;
+        } finally {
+            end(owner,failure);
+        }
+    }
+
+    /**
+     * @see ConstantPoolScanner#header(ByteBuffer)
+     */
+    public ClassHeader header(byte[] data) throws IOException {
+        return header(ByteBuffer.wrap(data));
+    }
+
+    /**
+     * @see ConstantPoolScanner#header(ByteBuffer)
+     */
+    public ClassHeader header(InputStream in) throws IOException {
+        return header(read(new DataInputStream(in)));
+    }
+
+    /**
+     * @see ConstantPoolScanner#accept(ByteBuffer, ConstantVisitor, ConstantType...)
+     */
+    public void accept(byte[] source, ConstantVisitor visitor, ConstantType... types) throws IOException {
+        accept(ByteBuffer.wrap(source),visitor,types);
+    }
+
+    /**
+     * @see ConstantPoolScanner#accept(ByteBuffer, ConstantVisitor, ConstantType...)
+     */
+    public void accept(InputStream source, ConstantVisitor visitor, ConstantType... types) throws IOException {
+        accept(read(new DataInputStream(source)),visitor,types);
+    }
+
+    /**
+     * @see ConstantPoolScanner#accept(ByteBuffer, ConstantVisitor, ConstantType...)
+     */
+    public void accept(ByteBuffer source, ConstantVisitor visitor, ConstantType... types) throws IOException {
+        boolean owner = begin();
+        IOException failure = null;
+        try {
+            visit(source,visitor,types);
+        } catch (IOException e) {
+            failure = e;
+            throw e;
+        } finally {
+            end(owner,failure);
+        }
+    }
+
+    /**
+     * Like {@link #accept(ByteBuffer, ConstantVisitor, ConstantType...)}, and reads the header of the class
+     * off the same index rather than indexing the pool again.
+     */
+    ClassHeader acceptHeader(ByteBuffer source, ConstantVisitor visitor, ConstantType... types) throws IOException {
+        boolean owner = begin();
+        IOException failure = null;
+        try {
+            visit(source,visitor,types);
+            return index.header();
+        } catch (IOException e) {
+            failure = e;
+            throw e;
+        } finally {
+            end(owner,failure);
+        }
+    }
+
+    private void visit(ByteBuffer source, ConstantVisitor visitor, ConstantType... types) throws IOException {
+        collect.clear();
+        for (ConstantType t : types) {
+            collect.add(t);
+        }
+        PoolIndex idx = index.index(source);
+        indexed(idx);
+        ByteBuffer b = idx.source;
+        visitor.stopped = false;
+        for (int i = 1; i < idx.count && !visitor.stopped; i++) {
+            int tag = idx.tags[i];
+            switch (tag) {
+                case 1: // CONSTANT_Utf8
+                    if (collect.contains(UTF8))
+                        visitor.visitUtf8(i,idx.utf8(i,utf8a));
+                    break;
+                case 7: // CONSTANT_Class
+                    if (collect.contains(CLASS)) {
+                        int name = idx.ref(i,0,1);
+                        visitor.visitClass(i,name,idx.utf8(name,utf8a));
+                    }
+                    break;
+                case 8: // CONSTANT_String
+                    if (collect.contains(STRING)) {
+                        int value = idx.ref(i,0,1);
+                        visitor.visitString(i,value,idx.utf8(value,utf8a));
+                    }
+                    break;
+                case 12: // CONSTANT_NameAndType
+                    if (collect.contains(NAME_AND_TYPE)) {
+                        int name = idx.ref(i,0,1);
+                        int descriptor = idx.ref(i,1,1);
+                        visitor.visitNameAndType(i,name,idx.utf8(name,utf8a),descriptor,idx.utf8(descriptor,utf8b));
+                    }
+                    break;
+                case 9: // CONSTANT_Fieldref
+                case 10: // CONSTANT_Methodref
+                case 11: // CONSTANT_InterfaceMethodref
+                    ConstantType type = ConstantType.fromTag(tag);
+                    if (collect.contains(type)) {
+                        int clazz = idx.ref(i,0,7);
+                        int nameAndType = idx.ref(i,1,12);
+                        visitor.visitMemberRef(type,i,clazz,nameAndType,
+                                idx.utf8(idx.ref(clazz,0,1),utf8a),
+                                idx.utf8(idx.ref(nameAndType,0,1),utf8b),
+                                idx.utf8(idx.ref(nameAndType,1,1),utf8c));
+                    }
+                    break;
+                case 15: // CONSTANT_MethodHandle
+                    if (collect.contains(METHOD_HANDLE)) {
+                        int ref = idx.methodHandleRef(i);
+                        int clazz = idx.ref(ref,0,7);
+                        int nameAndType = idx.ref(ref,1,12);
+                        visitor.visitMethodHandle(i,b.get(idx.offsets[i]),ref,ConstantType.fromTag(idx.tags[ref]),
+                                idx.utf8(idx.ref(clazz,0,1),utf8a),
+                                idx.utf8(idx.ref(nameAndType,0,1),utf8b),
+                                idx.utf8(idx.ref(nameAndType,1,1),utf8c));
+                    }
+                    break;
+                case 16: // CONSTANT_MethodType
+                    if (collect.contains(METHOD_TYPE)) {
+                        int descriptor = idx.ref(i,0,1);
+                        visitor.visitMethodType(i,descriptor,idx.utf8(descriptor,utf8a));
+                    }
+                    break;
+                case 17: // CONSTANT_Dynamic
+                case 18: // CONSTANT_InvokeDynamic
+                    ConstantType dynamic = ConstantType.fromTag(tag);
+                    if (collect.contains(dynamic)) {
+                        int nameAndType = idx.ref(i,1,12);
+                        visitor.visitDynamic(dynamic,i,idx.u2(i,0),nameAndType,
+                                idx.utf8(idx.ref(nameAndType,0,1),utf8a),
+                                idx.utf8(idx.ref(nameAndType,1,1),utf8b));
+                    }
+                    break;
+                case 19: // CONSTANT_Module
+                    if (collect.contains(MODULE)) {
+                        int name = idx.ref(i,0,1);
+                        visitor.visitModule(i,name,idx.utf8(name,utf8a));
+                    }
+                    break;
+                case 20: // CONSTANT_Package
+                    if (collect.contains(PACKAGE)) {
+                        int name = idx.ref(i,0,1);
+                        visitor.visitPackage(i,name,idx.utf8(name,utf8a));
+                    }
+                    break;
+                case 3: // CONSTANT_Integer
+                    if (collect.contains(INTEGER))
+                        visitor.visitInteger(i,b.getInt(idx.offsets[i]));
+                    break;
+                case 4: // CONSTANT_Float
+                    if (collect.contains(FLOAT))
+                        visitor.visitFloat(i,b.getFloat(idx.offsets[i]));
+                    break;
+                case 5: // CONSTANT_Long
+                    if (collect.contains(LONG))
+                        visitor.visitLong(i,b.getLong(idx.offsets[i]));
+                    break;
+                case 6: // CONSTANT_Double
+                    if (collect.contains(DOUBLE))
+                        visitor.visitDouble(i,b.getDouble(idx.offsets[i]));
+                    break;
+                default:
+                    // the unused slot after a long/double
+                    break;
+            }
+        }
+    }
+
+    /**
+     * @see ConstantPoolScanner#parse(ByteBuffer, Collection)
+     */
+    public ConstantPool parse(ByteBuffer source, Collection<ConstantType> types) throws IOException {
+        ConstantPoolScanner.transitiveClosureOf(types,collect);
+        return parse(source);
+    }
+
+    /**
+     * @see ConstantPoolScanner#parse(InputStream, ConstantType...)
+     */
+    public ConstantPool parse(InputStream source, ConstantType... types) throws IOException {
+        return parse(new DataInputStream(source),Arrays.asList(types));
+    }
+
+    /**
+     * @see ConstantPoolScanner#parse(DataInput, Collection)
+     */
+    public ConstantPool parse(DataInput source, Collection<ConstantType> types) throws IOException {
+        int length = read(source).limit();
+        ConstantPoolScanner.transitiveClosureOf(types,collect);
+        // the pool reads constants lazily, so it needs bytes of its own
+        return parse(ByteBuffer.wrap(Arrays.copyOf(buffer,length)));
+    }
+
+    /**
+     * Parses the pool, collecting the types in {@link #collect}.
+     */
+    private ConstantPool parse(ByteBuffer source) throws IOException {
+        boolean owner = begin();
+        IOException failure = null;
+        try {
+            PoolIndex idx = new PoolIndex().index(source);
+            indexed(idx);
+            return new ConstantPool(idx,collect);
+        } catch (IOException e) {
+            failure = e;
+            throw e;
+        } finally {
+            end(owner,failure);
+        }
+    }
+
+    private ScanListener listener() {
+        return listener!=null ? listener : defaultListener;
+    }
+
+    /**
+     * Starts recording statistics, if there is a listener and no scan is being recorded yet.
+     *
+     * @return true if this call started recording, and so must end it
+     */
+    private boolean begin() {
+        if (stats!=null)
+            return false;
+        ScanListener l = listener();
+        if (l==null)
+            return false;
+        recording = l;
+        stats = new ScanStatistics();
+        started = System.nanoTime()-readNanos;
+        readNanos = 0;
+        if (symbols!=null)
+            dependencies.known = symbols.size();
+        dependencies.decoded = 0;
+        if (l instanceof ScanStartListener)
+            ((ScanStartListener)l).scanning(stats);
+        return true;
+    }
+
+    private void indexed(PoolIndex idx) {
+        if (stats!=null) {
+            stats.indexed(idx);
+            stats.parseNanos = System.nanoTime()-started;
+        }
+    }
+
+    /**
+     * Reports the statistics of a scan started by {@link #begin()}.
+     *
+     * @param failure null if the scan succeeded
+     */
+    private void end(boolean owner, IOException failure) {
+        if (!owner)
+            return;
+        ScanStatistics s = stats;
+        ScanListener l = recording;
+        stats = null;
+        recording = null;
+        long elapsed = System.nanoTime()-started;
+        if (s.parseNanos==0)
+            s.parseNanos = elapsed; // failed before the pool was indexed
+        else
+            s.buildNanos = elapsed-s.parseNanos;
+        s.decoded = dependencies.decoded;
+        dependencies.known = -1;
+        if (failure!=null)
+            s.failure = ScanStatistics.Failure.of(failure);
+        l.scanned(s);
+    }
+
+    /**
+     * Reads as much of the class file as the options need: all of it for {@link ScanOptions#deep()},
+     * or else as much as {@link #read(DataInput)}.
+     */
+    private ByteBuffer read(InputStream in, ScanOptions options) throws IOException {
+        if (options!=null && options.isDeep())
+            return read(null,in);
+        return read(new DataInputStream(in));
+    }
+
+    /**
+     * Copies the start of the class file into the scratch buffer, as {@link #readPool(DataInput)} does,
+     * timing it if statistics are being recorded.
+     */
+    private ByteBuffer read(DataInput in) throws IOException {
+        return read(in,null);
+    }
+
+    /**
+     * Copies either the start of the class file from {@code pool}, or all of {@code whole}.
+     */
+    private ByteBuffer read(DataInput pool, InputStream whole) throws IOException {
+        if (listener()==null)
+            return pool!=null ? readPool(pool) : readAll(whole);
+        long start = System.nanoTime();
+        try {
+            ByteBuffer b = pool!=null ? readPool(pool) : readAll(whole);
+            readNanos = System.nanoTime()-start;
+            return b;
+        } catch (IOException e) {
+            boolean owner = begin();
+            started = start;
+            end(owner,e);
+            throw e;
+        }
+    }
+
+    /**
+     * Copies the start of the class file into the scratch buffer: the version, the constant pool,
+     * and the access flags, names and interfaces read by {@link ClassHeader}, and nothing past them.
+     *
+     * An unrecognized tag ends the copy early, leaving it to the parser to report it.
+     * A stream that ends within the class header is not an error, as most callers do not need it.
+     */
+    private ByteBuffer readPool(DataInput in) throws IOException {
+        ensureCapacity(10);
+        in.readFully(buffer,0,10); // magic, minor_version, major_version, constant_pool_count
+        int count = ((buffer[8]&0xFF)<<8) | (buffer[9]&0xFF);
+        int p = 10;
+        for (int i = 1; i < count; i++) {
+            ensureCapacity(p+3);
+            int tag = in.readByte();
+            buffer[p++] = (byte)tag;
+            int len = ConstantPoolScanner.entryLength(tag);
+            if (len==-1) {
+                in.readFully(buffer,p,2);
+                len = ((buffer[p]&0xFF)<<8) | (buffer[p+1]&0xFF);
+                p += 2;
+            } else if (len==-2) {
+                return view(p);
+            }
+            if (tag==5 || tag==6)
+                i++; // weirdness in spec
+            ensureCapacity(p+len);
+            in.readFully(buffer,p,len);
+            p += len;
+        }
+        int end = p;
+        try {
+            ensureCapacity(p+8);
+            in.readFully(buffer,p,8); // access_flags, this_class, super_class, interfaces_count
+            int interfaces = ((buffer[p+6]&0xFF)<<8) | (buffer[p+7]&0xFF);
+            p += 8;
+            ensureCapacity(p+2*interfaces);
+            in.readFully(buffer,p,2*interfaces);
+            p += 2*interfaces;
+        } catch (EOFException e) {
+            p = end;
+        }
+        return view(p);
+    }
+
+    /**
+     * Copies the rest of the stream into the scratch buffer.
+     */
+    private ByteBuffer readAll(InputStream in) throws IOException {
+        ensureCapacity(4096);
+        int p = 0;
+        int n;
+        while ((n = in.read(buffer,p,buffer.length-p))!=-1) {
+            p += n;
+            if (p==buffer.length)
+                ensureCapacity(p+1);
+        }
+        return view(p);
+    }
+
+    private ByteBuffer view(int length) {
+        view.clear();
+        view.limit(length);
+        return view;
+    }
+
+    private void ensureCapacity(int size) {
+        if (buffer==null) {
+            buffer = new byte[Math.max(size,4096)];
+        } else if (buffer.length<size) {
+            buffer = Arrays.copyOf(buffer,Math.max(size,buffer.length*2));
+        } else {
+            return;
+        }
+        view = ByteBuffer.wrap(buffer);
+    }
+}
@@ -0,0 +1,154 @@
+package org.jenkinsci.constant_pool_scanner;
+
+import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Interns binary class names and numbers them, so that dependency sets kept for many classes
+ * share one {@link String} per name, or can be held as sorted {@code int} arrays of ids.
+ *
+ * <p>
+ * A {@link ScannerContext} created with a symbol table looks names up by their class file bytes,
+ * so a name that is already in the table is not decoded again.
+ * Ids are assigned in order of first appearance, starting at 0, and never change.
+ *
+ * <p>
+ * The table is safe for concurrent use: lookups of known names take no lock,
+ * while adding a new name does.
+ */
+public final class SymbolTable {
+    static final class Symbol {
+        final String name;
+        final int hash;
+        final int id;
+        final Symbol next;
+
+        Symbol(String name, int hash, int id, Symbol next) {
+            this.name = name;
+            this.hash = hash;
+            this.id = id;
+            this.next = next;
+        }
+    }
+
+    /**
+     * Hash buckets; read without locking, so a reader may miss a recent addition
+     * and then has to look again under the lock.
+     */
+    private Symbol[] buckets = new Symbol[256];
+    private Symbol[] byId = new Symbol[256];
+    private int size;
+
+    /**
+     * Gets the id of a binary class name, adding it if it is not known yet.
+     */
+    public int id(String name) {
+        return lookup(name).id;
+    }
+
+    /**
+     * Returns the shared instance of a binary class name, adding it if it is not known yet.
+     */
+    public String intern(String name) {
+        return lookup(name).name;
+    }
+
+    /**
+     * Gets the name with the given id.
+     *
+     * @throws IllegalArgumentException if no such id was handed out
+     */
+    public String name(int id) {
+        Symbol[] t = byId;
+        if (id>=0 && id<t.length && t[id]!=null)
+            return t[id].name;
+        synchronized (this) {
+            if (id<0 || id>=size)
+                throw new IllegalArgumentException("No symbol " + id);
+            return byId[id].name;
+        }
+    }
+
+    /**
+     * Number of names in the table; the highest id is one less.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    private Symbol lookup(String name) {
+        int h = name.hashCode();
+        Symbol[] t = buckets;
+        for (Symbol s = t[h & (t.length-1)]; s!=null; s = s.next) {
+            if (s.hash==h && s.name.equals(name))
+                return s;
+        }
+        return add(name,h);
+    }
+
+    /**
+     * Looks up an internal class name ({@code some/pkg/Outer$Inner}) given in modified UTF-8,
+     * as the binary name it stands for.
+     */
+    Symbol lookup(ByteBuffer b, int offset, int length) throws UTFDataFormatException {
+        int h = 0;
+        for (int i = 0; i < length; i++) {
+            int c = b.get(offset+i);
+            if (c<=0) {
+                // not ASCII; not worth doing without decoding
+                return lookup(ModifiedUtf8.decodeBinaryName(b,offset,length));
+            }
+            h = 31*h + (c=='/' ? '.' : c);
+        }
+        Symbol[] t = buckets;
+        for (Symbol s = t[h & (t.length-1)]; s!=null; s = s.next) {
+            if (s.hash==h && matches(s.name,b,offset,length))
+                return s;
+        }
+        return add(ModifiedUtf8.decodeBinaryName(b,offset,length),h);
+    }
+
+    /**
+     * Compares a name against ASCII bytes of an internal name.
+     */
+    private static boolean matches(String name, ByteBuffer b, int offset, int length) {
+        if (name.length()!=length)
+            return false;
+        for (int i = 0; i < length; i++) {
+            int c = b.get(offset+i);
+            if (name.charAt(i)!=(c=='/' ? '.' : c))
+                return false;
+        }
+        return true;
+    }
+
+    private synchronized Symbol add(String name, int h) {
+        int mask = buckets.length-1;
+        for (Symbol s = buckets[h & mask]; s!=null; s = s.next) {
+            if (s.hash==h && s.name.equals(name))
+                return s;
+        }
+        if (size==byId.length)
+            byId = Arrays.copyOf(byId,size*2);
+        Symbol s = new Symbol(name,h,size,buckets[h & mask]);
+        byId[size++] = s;
+        buckets[h & mask] = s;
+        if (size*4>buckets.length*3)
+            rehash();
+        return s;
+    }
+
+    /**
+     * Builds a new bucket array with new chains, so that lock-free readers of the old one are unaffected.
+     */
+    private void rehash() {
+        Symbol[] t = new Symbol[buckets.length*2];
+        int mask = t.length-1;
+        for (int i = 0; i < size; i++) {
+            Symbol s = byId[i];
+            t[s.hash & mask] = new Symbol(s.name,s.hash,s.id,t[s.hash & mask]);
+        }
+        buckets = t;
+    }
+}
@@ -1,15 +1,147 @@
 package org.jenkinsci.constant_pool_scanner;
 
+import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
+
 /**
  * UTF-8 Constant (which is separate from string constant.)
  *
+ * <p>
+ * The constant only remembers where its bytes are in the class file,
+ * and decodes them into a {@link String} the first time {@link #get()} is called.
+ * {@link #contentEquals(CharSequence)}, {@link #startsWith(CharSequence)},
+ * {@link #equals(Object)} and {@link #hashCode()} work on the raw bytes
+ * and do not need to decode anything as long as the value is plain ASCII.
+ *
  * @author Kohsuke Kawaguchi
  */
 public final class Utf8Constant implements CharSequence {
-    String actual;
+    /**
+     * Class file bytes holding the value in modified UTF-8.
+     */
+    ByteBuffer source;
+    int offset;
+    int byteLength;
+
+    private String actual;
+
+    Utf8Constant set(ByteBuffer source, int offset, int byteLength) {
+        this.source = source;
+        this.offset = offset;
+        this.byteLength = byteLength;
+        this.actual = null;
+        return this;
+    }
 
+    /**
+     * Decodes the value, once.
+     *
+     * @throws IllegalStateException if the bytes are not valid modified UTF-8;
+     *         a {@link ConstantPool} rejects those before handing out the constant, with an {@link java.io.IOException}
+     *         from {@link ConstantPoolScanner#parse(byte[], ConstantType...)} for the collected ones and what they refer to,
+     *         and with an {@link IllegalStateException} from {@link ConstantPool#utf8At(int)} for the others,
+     *         so this can only happen to a constant handed to a {@link ConstantVisitor}
+     */
     public String get() {
-        return actual;
+        String s = actual;
+        if (s==null && source!=null) {
+            try {
+                s = ModifiedUtf8.decode(source,offset,byteLength);
+            } catch (UTFDataFormatException e) {
+                throw new IllegalStateException("Malformed CONSTANT_Utf8 at offset " + offset, e);
+            }
+            actual = s;
+        }
+        return s;
+    }
+
+    /**
+     * Number of bytes this constant occupies in the class file, not counting its length prefix.
+     */
+    public int byteLength() {
+        return byteLength;
+    }
+
+    /**
+     * Compares the value against a sequence of characters without decoding it, if possible.
+     */
+    public boolean contentEquals(CharSequence s) {
+        if (actual!=null)
+            return actual.contentEquals(s);
+        if (s.length()!=byteLength)
+            return s.length()<byteLength && !isAscii() && get().contentEquals(s);
+        for (int i = 0; i < byteLength; i++) {
+            int b = source.get(offset+i);
+            if (b<=0) // NUL is encoded in two bytes, so this is a multi-byte sequence
+                return get().contentEquals(s);
+            if (b!=s.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Checks if the value starts with the given prefix without decoding it, if possible.
+     */
+    public boolean startsWith(CharSequence prefix) {
+        if (actual!=null)
+            return actual.startsWith(prefix.toString());
+        int n = prefix.length();
+        if (n>byteLength)
+            return false; // every character takes at least one byte
+        for (int i = 0; i < n; i++) {
+            int b = source.get(offset+i);
+            if (b<=0)
+                return get().startsWith(prefix.toString());
+            if (b!=prefix.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Two UTF-8 constants are equal if they hold the same characters.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this==o)
+            return true;
+        if (!(o instanceof Utf8Constant))
+            return false;
+        Utf8Constant that = (Utf8Constant) o;
+        if (this.source==null || that.source==null) {
+            String s = get();
+            return s==null ? that.get()==null : s.equals(that.get());
+        }
+        // modified UTF-8 has exactly one encoding for each character, so equal values have equal bytes
+        if (this.byteLength!=that.byteLength)
+            return false;
+        for (int i = 0; i < byteLength; i++) {
+            if (this.source.get(this.offset+i)!=that.source.get(that.offset+i))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Same as {@code get().hashCode()}, but computed from the bytes when they are all ASCII.
+     */
+    @Override
+    public int hashCode() {
+        if (actual!=null)
+            return actual.hashCode();
+        int h = 0;
+        for (int i = 0; i < byteLength; i++) {
+            int b = source.get(offset+i);
+            if (b<=0)
+                return get().hashCode();
+            h = 31*h + b;
+        }
+        return h;
+    }
+
+    private boolean isAscii() {
+        return ModifiedUtf8.isAscii(source,offset,byteLength);
     }
 
     public int length() {
@@ -26,6 +158,6 @@ public final class Utf8Constant implements CharSequence {
 
     @Override
     public String toString() {
-        return actual;
+        return get();
     }
 }
@@ -0,0 +1,86 @@
+package org.jenkinsci.constant_pool_scanner;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.apache.commons.io.FileUtils;
+import org.jenkinsci.constant_pool_scanner.samples.A;
+import org.jenkinsci.constant_pool_scanner.samples.B;
+import org.jenkinsci.constant_pool_scanner.samples.D;
+import org.jenkinsci.constant_pool_scanner.samples.E;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+public class ArchiveWalkerTest {
+
+    @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+    /**
+     * A plugin with a class of its own and a multi-release library whose versioned classes come first.
+     */
+    private File plugin() throws IOException {
+        byte[] library = zip(
+                "META-INF/MANIFEST.MF", "Manifest-Version: 1.0\r\nMulti-Release: true\r\n\r\n".getBytes("US-ASCII"),
+                "META-INF/versions/11/lib/X.class", JarScannerTest.bytecode(D.class),
+                "META-INF/versions/17/lib/X.class", JarScannerTest.bytecode(E.class),
+                "META-INF/versions/17/lib/Y.class", JarScannerTest.bytecode(A.class),
+                "lib/X.class", JarScannerTest.bytecode(B.class),
+                "lib/readme.txt", new byte[] {1, 2, 3});
+        File hpi = tmp.newFile("plugin.hpi");
+        FileUtils.writeByteArrayToFile(hpi, zip(
+                "WEB-INF/classes/Plugin.class", JarScannerTest.bytecode(A.class),
+                "WEB-INF/lib/library.jar", library));
+        return hpi;
+    }
+
+    @Test public void nested() throws Exception {
+        Map<String,Set<String>> r = new ArchiveWalker().scan(plugin());
+        assertEquals(Arrays.asList("WEB-INF/classes/Plugin.class", "WEB-INF/lib/library.jar!/lib/X.class"), Arrays.asList(r.keySet().toArray()));
+        assertEquals(ConstantPoolScanner.dependencies(JarScannerTest.bytecode(A.class)), r.get("WEB-INF/classes/Plugin.class"));
+        assertEquals(ConstantPoolScanner.dependencies(JarScannerTest.bytecode(B.class)), r.get("WEB-INF/lib/library.jar!/lib/X.class"));
+    }
+
+    @Test public void multiRelease() throws Exception {
+        File hpi = plugin();
+        Map<String,Set<String>> r = new ArchiveWalker(11, null).scan(hpi);
+        assertEquals(2, r.size());
+        assertEquals(ConstantPoolScanner.dependencies(JarScannerTest.bytecode(D.class)), r.get("WEB-INF/lib/library.jar!/lib/X.class"));
+
+        r = new ArchiveWalker(21, null).scan(hpi);
+        assertEquals(3, r.size());
+        assertEquals(ConstantPoolScanner.dependencies(JarScannerTest.bytecode(E.class)), r.get("WEB-INF/lib/library.jar!/lib/X.class"));
+        assertEquals(ConstantPoolScanner.dependencies(JarScannerTest.bytecode(A.class)), r.get("WEB-INF/lib/library.jar!/lib/Y.class"));
+    }
+
+    @Test public void malformed() throws Exception {
+        byte[] outer = zip("WEB-INF/lib/bad.jar", zip("Bad.class", Arrays.copyOf(JarScannerTest.bytecode(D.class), 30)));
+        try {
+            new ArchiveWalker().scan(new ByteArrayInputStream(outer));
+            fail();
+        } catch (IOException x) {
+            assertTrue(x.getMessage(), x.getMessage().contains("WEB-INF/lib/bad.jar!/Bad.class"));
+        }
+    }
+
+    /**
+     * @param entries alternating names and contents
+     */
+    private static byte[] zip(Object... entries) throws IOException {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        ZipOutputStream out = new ZipOutputStream(buf);
+        for (int i = 0; i < entries.length; i += 2) {
+            out.putNextEntry(new ZipEntry((String) entries[i]));
+            out.write((byte[]) entries[i + 1]);
+        }
+        out.close();
+        return buf.toByteArray();
+    }
+}
@@ -0,0 +1,110 @@
+package org.jenkinsci.constant_pool_scanner;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Callable;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+public class CachingScannerTest {
+
+    @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test public void hits() throws Exception {
+        CachingScanner scanner = new CachingScanner(1 << 20);
+        for (int round = 0; round < 3; round++) {
+            for (Class<?> c : JarScannerTest.SAMPLES) {
+                byte[] bytecode = JarScannerTest.bytecode(c);
+                assertEquals(ConstantPoolScanner.dependencies(bytecode), scanner.dependencies(bytecode));
+            }
+        }
+        assertEquals(JarScannerTest.SAMPLES.length, scanner.getMissCount());
+        assertEquals(2 * JarScannerTest.SAMPLES.length, scanner.getHitCount());
+        assertEquals(JarScannerTest.SAMPLES.length, scanner.size());
+
+        // same bytes, different buffer
+        byte[] d = JarScannerTest.bytecode(JarScanner.class);
+        byte[] padded = new byte[d.length + 10];
+        System.arraycopy(d, 0, padded, 5, d.length);
+        ByteBuffer b = ByteBuffer.wrap(padded, 5, d.length);
+        assertSame(scanner.dependencies(d), scanner.dependencies(b));
+        assertEquals(5, b.position());
+        assertEquals(JarScannerTest.SAMPLES.length, scanner.getMissCount());
+
+        scanner.clear();
+        assertEquals(0, scanner.size());
+        assertEquals(0, scanner.getWeight());
+    }
+
+    @Test public void archives() throws Exception {
+        File one = JarScannerTest.jar(tmp.newFile("one.jar"), JarScannerTest.SAMPLES);
+        File two = JarScannerTest.jar(tmp.newFile("two.jar"), JarScannerTest.SAMPLES);
+        CachingScanner scanner = new CachingScanner(1 << 20);
+        Map<String,Set<String>> expected = new JarScanner().scan(one);
+        assertEquals(expected, scanner.scan(one));
+        assertEquals(expected, scanner.scan(two));
+        // entries of the second jar were recognized by their CRC
+        assertEquals(JarScannerTest.SAMPLES.length, scanner.getMissCount());
+        assertEquals(JarScannerTest.SAMPLES.length, scanner.getHitCount());
+    }
+
+    @Test public void budget() throws Exception {
+        long budget = 8 * 1024;
+        CachingScanner scanner = new CachingScanner(budget);
+        for (Class<?> c : JarScannerTest.SAMPLES) {
+            scanner.dependencies(JarScannerTest.bytecode(c));
+            assertTrue(scanner.toString(), scanner.getWeight() <= budget);
+        }
+        assertTrue(scanner.toString(), scanner.getEvictionCount() > 0);
+        assertEquals(JarScannerTest.SAMPLES.length, scanner.size() + scanner.getEvictionCount());
+
+        // a class asked for again and again survives a stream of classes seen once
+        byte[] hot = JarScannerTest.bytecode(JarScannerTest.SAMPLES[0]);
+        for (int i = 0; i < 10; i++) {
+            scanner.dependencies(hot);
+        }
+        for (Class<?> c : JarScannerTest.SAMPLES) {
+            scanner.dependencies(JarScannerTest.bytecode(c));
+        }
+        long misses = scanner.getMissCount();
+        scanner.dependencies(hot);
+        assertEquals(misses, scanner.getMissCount());
+    }
+
+    @Test public void concurrent() throws Exception {
+        final CachingScanner scanner = new CachingScanner(1 << 20);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> results = new ArrayList<Future<?>>();
+            for (int i = 0; i < 8; i++) {
+                results.add(executor.submit(new Callable<Void>() {
+                    public Void call() throws Exception {
+                        for (int round = 0; round < 50; round++) {
+                            for (Class<?> c : JarScannerTest.SAMPLES) {
+                                byte[] bytecode = JarScannerTest.bytecode(c);
+                                assertEquals(ConstantPoolScanner.dependencies(bytecode), scanner.dependencies(bytecode));
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<?> f : results) {
+                f.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(8 * 50 * JarScannerTest.SAMPLES.length, scanner.getHitCount() + scanner.getMissCount());
+        assertEquals(JarScannerTest.SAMPLES.length, scanner.size());
+    }
+}
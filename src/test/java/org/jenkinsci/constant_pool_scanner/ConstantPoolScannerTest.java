@@ -40,10 +40,24 @@
 package org.jenkinsci.constant_pool_scanner;
 
 import org.jenkinsci.constant_pool_scanner.samples.D;
+import org.jenkinsci.constant_pool_scanner.samples.E;
 import org.jenkinsci.constant_pool_scanner.samples.C;
 import org.jenkinsci.constant_pool_scanner.samples.A;
 import org.jenkinsci.constant_pool_scanner.samples.B;
+import org.jenkinsci.constant_pool_scanner.samples.F;
+import org.jenkinsci.constant_pool_scanner.samples.G;
+import org.jenkinsci.constant_pool_scanner.samples.H;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
 import org.apache.commons.io.IOUtils;
@@ -59,13 +73,376 @@ public class ConstantPoolScannerTest {
         assertDependencies(D.class, Object.class, A.class, B.class, C.class, String.class);
     }
 
+    @Test public void byteBuffer() throws Exception {
+        byte[] bytecode = bytecode(D.class);
+        Set<String> expected = ConstantPoolScanner.dependencies(bytecode);
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(bytecode.length + 3);
+        direct.position(3);
+        direct.put(bytecode);
+        direct.position(3);
+        assertEquals(expected, ConstantPoolScanner.dependencies(direct));
+        assertEquals("position is left untouched", 3, direct.position());
+
+        List<String> fromStream = new ArrayList<String>();
+        for (Utf8Constant u : ConstantPoolScanner.parse(new ByteArrayInputStream(bytecode), ConstantType.UTF8).list(Utf8Constant.class)) {
+            fromStream.add(u.get());
+        }
+        List<String> fromBuffer = new ArrayList<String>();
+        for (Utf8Constant u : ConstantPoolScanner.parse(direct, ConstantType.UTF8).list(Utf8Constant.class)) {
+            fromBuffer.add(u.get());
+        }
+        assertEquals(fromStream, fromBuffer);
+
+        // the pool keeps a copy of the bytes it needs, not the whole class file
+        ConstantPool pool = ConstantPoolScanner.parse(direct, ConstantType.CLASS);
+        assertEquals(new PoolIndex().index(ByteBuffer.wrap(bytecode)).end + 8 + 2 * pool.header().getInterfaces().size(), pool.bytes().capacity());
+        assertEquals(D.class.getName(), pool.header().getName());
+    }
+
+    @Test public void reusedContext() throws Exception {
+        ScannerContext context = new ScannerContext();
+        for (int i = 0; i < 2; i++) {
+            for (Class<?> c : new Class<?>[] {D.class, A.class, C.class, B.class}) {
+                byte[] bytecode = bytecode(c);
+                Set<String> expected = ConstantPoolScanner.dependencies(bytecode);
+                assertEquals(expected, context.dependencies(bytecode));
+                assertEquals(expected, context.dependencies(new ByteArrayInputStream(bytecode)));
+            }
+        }
+        ConstantPool d = context.parse(new ByteArrayInputStream(bytecode(D.class)), ConstantType.CLASS);
+        List<String> before = classNames(d);
+        context.dependencies(new ByteArrayInputStream(bytecode(A.class)));
+        assertEquals("returned pools are not recycled", before, classNames(d));
+    }
+
+    private static List<String> classNames(ConstantPool pool) {
+        List<String> names = new ArrayList<String>();
+        for (ClassConstant c : pool.list(ClassConstant.class)) {
+            names.add(c.get());
+        }
+        return names;
+    }
+
+    @Test public void utf8() throws Exception {
+        byte[] bytecode = bytecode(E.class);
+        ConstantPool fromArray = ConstantPoolScanner.parse(bytecode, ConstantType.UTF8);
+        ConstantPool fromStream = ConstantPoolScanner.parse(new ByteArrayInputStream(bytecode), ConstantType.UTF8);
+        Iterator<Utf8Constant> it = fromStream.list(Utf8Constant.class).iterator();
+        boolean found = false;
+        for (Utf8Constant u : fromArray.list(Utf8Constant.class)) {
+            Utf8Constant other = it.next();
+            assertEquals(u, other);
+            assertEquals(u.hashCode(), other.hashCode());
+            String s = other.get();
+            assertEquals(s.hashCode(), u.hashCode());
+            assertTrue(u.contentEquals(s));
+            assertTrue(u.startsWith(s.substring(0, s.length() / 2)));
+            assertFalse(u.contentEquals(s + "x"));
+            assertEquals(s, u.get());
+            found |= s.equals(E.GREETING);
+        }
+        assertFalse(it.hasNext());
+        assertTrue(found);
+    }
+
+    @Test public void modifiedUtf8() throws Exception {
+        String[] samples = {"", "java/lang/Object", "(Ljava/lang/String;)V", "a\u0000b", "caf\u00e9", "\u20ac", "\ud83d\ude00 smile", "\u007f\u0080\u07ff\u0800\uffff"};
+        for (String expected : samples) {
+            ByteArrayOutputStream buf = new ByteArrayOutputStream();
+            buf.write(new byte[] {1, 2, 3});
+            new DataOutputStream(buf).writeUTF(expected);
+            byte[] bytes = buf.toByteArray();
+            assertArrayEquals(Arrays.copyOfRange(bytes, 5, bytes.length), ModifiedUtf8.encode(expected));
+            ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+            direct.put(bytes);
+            ByteBuffer sliced = ByteBuffer.wrap(bytes, 2, bytes.length - 2).slice();
+            for (ByteBuffer b : new ByteBuffer[] {ByteBuffer.wrap(bytes), direct, ByteBuffer.wrap(bytes).asReadOnlyBuffer()}) {
+                assertEquals(expected, ModifiedUtf8.decode(b, 5, bytes.length - 5));
+                assertEquals(expected.replace('/', '.'), ModifiedUtf8.decodeBinaryName(b, 5, bytes.length - 5));
+            }
+            assertEquals(expected, ModifiedUtf8.decode(sliced, 3, bytes.length - 5));
+        }
+        // NUL is encoded as 0xC0 0x80; a raw 0 byte is tolerated like DataInput#readUTF does
+        assertEquals("\u0000", ModifiedUtf8.decode(ByteBuffer.wrap(new byte[] {(byte) 0xC0, (byte) 0x80}), 0, 2));
+        assertEquals("a\u0000", ModifiedUtf8.decode(ByteBuffer.wrap(new byte[] {'a', 0}), 0, 2));
+        try {
+            ModifiedUtf8.decode(ByteBuffer.wrap(new byte[] {'a', (byte) 0xE2, (byte) 0x82}), 0, 3);
+            fail();
+        } catch (java.io.UTFDataFormatException e) {
+            // partial character
+        }
+    }
+
+    @Test public void unsortedDependencies() throws Exception {
+        for (Class<?> c : new Class<?>[] {A.class, B.class, C.class, D.class, E.class, ConstantPoolScanner.class}) {
+            byte[] bytecode = bytecode(c);
+            List<String> names = ConstantPoolScanner.dependencies(bytecode, new ArrayList<String>());
+            assertEquals("each name is reported once: " + names, new HashSet<String>(names).size(), names.size());
+            assertEquals(ConstantPoolScanner.dependencies(bytecode), new TreeSet<String>(names));
+        }
+    }
+
+    @Test public void visitor() throws Exception {
+        byte[] bytecode = bytecode(D.class);
+        final List<String> visited = new ArrayList<String>();
+        ConstantPoolScanner.accept(bytecode, new ConstantVisitor() {
+            @Override public void visitMemberRef(ConstantType type, int index, int classIndex, int nameAndTypeIndex, Utf8Constant owner, Utf8Constant name, Utf8Constant descriptor) {
+                visited.add(type + " " + owner.get() + "." + name.get() + descriptor.get());
+            }
+        }, ConstantType.METHOD_REF, ConstantType.INTERFACE_METHOD_REF);
+        List<String> parsed = new ArrayList<String>();
+        ConstantPool pool = ConstantPoolScanner.parse(bytecode, ConstantType.METHOD_REF, ConstantType.INTERFACE_METHOD_REF);
+        for (MemberRefConstant ref : pool.list(MemberRefConstant.class)) {
+            parsed.add((ref instanceof MethodRefConstant ? ConstantType.METHOD_REF : ConstantType.INTERFACE_METHOD_REF) + " " + ref.getClazz() + "." + ref.getName() + ref.getDescriptor());
+        }
+        assertEquals(parsed, visited);
+        assertTrue(visited.contains("INTERFACE_METHOD_REF org/jenkinsci/constant_pool_scanner/samples/C.m(Lorg/jenkinsci/constant_pool_scanner/samples/A;)Ljava/lang/String;"));
+    }
+
+    @Test public void typedAccessors() throws Exception {
+        ConstantPool pool = ConstantPoolScanner.parse(bytecode(E.class), ConstantType.CLASS, ConstantType.LONG, ConstantType.INTEGER, ConstantType.STRING);
+        int[] longs = pool.indicesOf(ConstantType.LONG);
+        assertEquals(1, longs.length);
+        assertEquals(E.BIG, pool.longAt(longs[0]));
+        assertEquals(0, pool.tagAt(longs[0] + 1));
+        int[] ints = pool.indicesOf(ConstantType.INTEGER);
+        assertEquals(1, ints.length);
+        assertEquals(E.ANSWER, pool.intAt(ints[0]));
+        assertEquals(0, pool.indicesOf(ConstantType.METHOD_REF).length);
+        List<String> classes = new ArrayList<String>();
+        for (int i : pool.indicesOf(ConstantType.CLASS)) {
+            assertEquals(ConstantType.CLASS, pool.typeAt(i));
+            classes.add(pool.utf8At(pool.classNameIndexAt(i)).get());
+        }
+        assertEquals(classNames(pool), classes);
+        int strings = 0;
+        for (Object o : pool.list(Object.class)) {
+            if (o instanceof StringConstant) {
+                assertEquals(E.GREETING, ((StringConstant) o).get());
+                strings++;
+            }
+        }
+        assertEquals(1, strings);
+        assertEquals(Long.valueOf(E.BIG), pool.list(Long.class).iterator().next());
+        try {
+            pool.intAt(longs[0]);
+            fail();
+        } catch (IllegalArgumentException x) {
+            // expected
+        }
+    }
+
+    @Test public void invokeDynamic() throws Exception {
+        byte[] bytecode = bytecode(F.class);
+        assertTrue(ConstantPoolScanner.dependencies(bytecode).contains("java.util.zip.Checksum"));
+
+        ConstantPool pool = ConstantPoolScanner.parse(bytecode, ConstantType.METHOD_HANDLE, ConstantType.METHOD_TYPE, ConstantType.INVOKE_DYNAMIC);
+        List<String> handles = new ArrayList<String>();
+        for (MethodHandleConstant h : pool.list(MethodHandleConstant.class)) {
+            handles.add(h.getReferenceKind() + " " + h.getReference().getClazz() + "." + h.getReference().getName());
+        }
+        assertTrue(handles.toString(), handles.contains("6 java/lang/invoke/LambdaMetafactory.metafactory"));
+        assertTrue(handles.toString(), handles.contains("5 java/lang/Object.toString"));
+        List<String> types = new ArrayList<String>();
+        for (MethodTypeConstant t : pool.list(MethodTypeConstant.class)) {
+            types.add(t.get());
+        }
+        assertTrue(types.toString(), types.contains("(Ljava/util/zip/Checksum;)Ljava/lang/String;"));
+        InvokeDynamicConstant indy = pool.list(InvokeDynamicConstant.class).iterator().next();
+        assertEquals("apply", indy.getName());
+        assertEquals("()Ljava/util/function/Function;", indy.getDescriptor());
+        int i = pool.indicesOf(ConstantType.INVOKE_DYNAMIC)[0];
+        assertEquals(0, pool.bootstrapMethodAttrIndexAt(i));
+        assertEquals("apply", pool.utf8At(pool.nameIndexAt(pool.bootstrapNameAndTypeIndexAt(i))).get());
+
+        final List<String> visited = new ArrayList<String>();
+        ConstantPoolScanner.accept(bytecode, new ConstantVisitor() {
+            @Override public void visitMethodHandle(int index, int referenceKind, int referenceIndex, ConstantType referenceType, Utf8Constant owner, Utf8Constant name, Utf8Constant descriptor) {
+                visited.add(referenceKind + " " + owner.get() + "." + name.get());
+            }
+        }, ConstantType.METHOD_HANDLE);
+        assertEquals(handles, visited);
+    }
+
+    @Test public void dynamicModuleAndPackage() throws Exception {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buf);
+        out.writeInt(0xCAFEBABE);
+        out.writeShort(0);
+        out.writeShort(55);
+        out.writeShort(9);
+        out.writeByte(1); out.writeUTF("ZERO");                    // #1
+        out.writeByte(1); out.writeUTF("Ljava/util/zip/Adler32;"); // #2
+        out.writeByte(12); out.writeShort(1); out.writeShort(2);   // #3 NameAndType
+        out.writeByte(17); out.writeShort(0); out.writeShort(3);   // #4 Dynamic
+        out.writeByte(1); out.writeUTF("java.base");               // #5
+        out.writeByte(19); out.writeShort(5);                      // #6 Module
+        out.writeByte(1); out.writeUTF("java/lang");               // #7
+        out.writeByte(20); out.writeShort(7);                      // #8 Package
+        byte[] bytecode = buf.toByteArray();
+
+        assertEquals("[java.util.zip.Adler32]", ConstantPoolScanner.dependencies(bytecode).toString());
+        ConstantPool pool = ConstantPoolScanner.parse(bytecode, ConstantType.DYNAMIC, ConstantType.MODULE, ConstantType.PACKAGE);
+        DynamicConstant condy = pool.list(DynamicConstant.class).iterator().next();
+        assertEquals("ZERO", condy.getName());
+        assertEquals("Ljava/util/zip/Adler32;", condy.getDescriptor());
+        assertEquals(ConstantType.MODULE, pool.typeAt(6));
+        assertEquals("java.base", pool.list(ModuleConstant.class).iterator().next().get());
+        assertEquals(7, pool.packageNameIndexAt(8));
+        assertEquals("java/lang", pool.list(PackageConstant.class).iterator().next().get());
+        assertEquals(ConstantType.PACKAGE, ConstantType.fromTag(20));
+        assertNull(ConstantType.fromTag(21));
+    }
+
+    @Test public void referencesAny() throws Exception {
+        byte[] d = bytecode(D.class);
+        assertTrue(ConstantPoolScanner.referencesAny(d, new ClassNameMatcher().addClass(B.class.getName())));
+        assertTrue(ConstantPoolScanner.referencesAny(d, new ClassNameMatcher().addClass("no.Such").addPackage("java.lang")));
+        assertFalse(ConstantPoolScanner.referencesAny(d, new ClassNameMatcher().addPackage("java.util").addPackage("java.la")));
+        assertFalse(ConstantPoolScanner.referencesAny(d, new ClassNameMatcher().addClass("java.lang.Str")));
+        assertTrue(ConstantPoolScanner.referencesAny(new ByteArrayInputStream(bytecode(F.class)), new ClassNameMatcher().addPackage("java.util.zip")));
+
+        ClassNameMatcher m = new ClassNameMatcher().addClass("p.Outer$Inner").addClass("\u00e9t\u00e9.X").addPackage("sun.misc");
+        assertTrue(m.matches("p.Outer$Inner"));
+        assertFalse(m.matches("p.Outer"));
+        assertTrue(m.matches("\u00e9t\u00e9.X"));
+        assertTrue(m.matches("sun.misc.Unsafe"));
+        assertTrue(m.matches("sun.misc.sub.X"));
+        assertFalse(m.matches("sun.miscellaneous.X"));
+        ClassNameMatcher big = new ClassNameMatcher();
+        for (int i = 0; i < 1000; i++) {
+            big.addClass("pkg" + i + ".C" + i);
+        }
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(big.matches("pkg" + i + ".C" + i));
+            assertFalse(big.matches("pkg" + i + ".C" + (i + 1)));
+        }
+    }
+
+    @Test public void scanOptions() throws Exception {
+        byte[] d = bytecode(D.class);
+        assertEquals("[java.lang.Object, java.lang.String]", ConstantPoolScanner.dependencies(d, new ScanOptions().include("java")).toString());
+        assertEquals("[java.lang.Object, java.lang.String]", ConstantPoolScanner.dependencies(new ByteArrayInputStream(d), new ScanOptions().include("java.lang").include("javax").exclude("java.lang.invoke")).toString());
+        assertFalse(new ScanOptions().include("java").exclude("java.lang").accepts("java.lang.String"));
+        assertTrue(new ScanOptions().include("java").exclude("java.lang").accepts("java.util.List"));
+        Set<String> all = ConstantPoolScanner.dependencies(d);
+        all.remove(Object.class.getName());
+        all.remove(String.class.getName());
+        assertEquals(all, ConstantPoolScanner.dependencies(ByteBuffer.wrap(d), new ScanOptions().exclude("java.lang")));
+        assertEquals(ConstantPoolScanner.dependencies(d), new ScannerContext().dependencies(d, new ScanOptions()));
+        assertTrue(ConstantPoolScanner.dependencies(d, new ScanOptions().include("org.jenkinsci").exclude("org.jenkinsci.constant_pool_scanner.samples")).isEmpty());
+
+        SymbolTable symbols = new SymbolTable();
+        int[] ids = new ScannerContext(symbols).dependencyIds(ByteBuffer.wrap(d), new ScanOptions().include("java.lang"));
+        assertEquals(2, ids.length);
+        assertEquals(2, symbols.size());
+    }
+
+    @Test public void deep() throws Exception {
+        byte[] g = bytecode(G.class);
+        Set<String> shallow = ConstantPoolScanner.dependencies(g);
+        Set<String> deep = ConstantPoolScanner.dependencies(g, new ScanOptions().deep());
+        assertTrue(deep.containsAll(shallow));
+        for (String n : new String[] {"java.lang.Comparable", "java.util.List", "java.util.UUID", "java.lang.StringBuilder",
+                "java.util.Locale", "java.lang.Deprecated", H.class.getName(), "java.util.Map", "java.net.URI", "java.io.File",
+                "java.util.Random", "java.util.Optional", "java.math.BigDecimal"}) {
+            assertTrue(n, deep.contains(n));
+            assertFalse(n, shallow.contains(n));
+        }
+        assertEquals(deep, ConstantPoolScanner.dependencies(new ByteArrayInputStream(g), new ScanOptions().deep()));
+        assertEquals("[java.util.List, java.util.Locale, java.util.Map, java.util.Optional, java.util.Random, java.util.UUID]",
+                ConstantPoolScanner.dependencies(g, new ScanOptions().include("java.util").exclude("java.util.concurrent").deep()).toString());
+
+        // enum and class values of annotations, and the return types of annotation methods
+        Set<String> h = ConstantPoolScanner.dependencies(bytecode(H.class), new ScanOptions().deep());
+        assertTrue(h.toString(), h.containsAll(Arrays.asList("java.lang.annotation.Retention", "java.lang.annotation.RetentionPolicy",
+                "java.lang.annotation.Target", "java.lang.annotation.ElementType", "java.util.BitSet", "java.lang.Class")));
+
+        // a class-retention annotation is all that deep mode adds here
+        byte[] d = bytecode(D.class);
+        Set<String> deepD = ConstantPoolScanner.dependencies(d, new ScanOptions().deep());
+        assertTrue(deepD.remove("edu.umd.cs.findbugs.annotations.SuppressWarnings"));
+        assertEquals(ConstantPoolScanner.dependencies(d), deepD);
+
+        byte[] poolOnly = Arrays.copyOf(g, new PoolIndex().index(ByteBuffer.wrap(g)).end);
+        try {
+            ConstantPoolScanner.dependencies(new ByteArrayInputStream(poolOnly), new ScanOptions().deep());
+            fail();
+        } catch (EOFException e) {
+            // expected
+        }
+    }
+
+    @Test public void header() throws Exception {
+        ClassHeader b = ConstantPoolScanner.header(bytecode(B.class));
+        assertEquals(B.class.getName(), b.getName());
+        assertEquals(A.class.getName(), b.getSuperName());
+        assertEquals(0, b.getInterfaces().size());
+        assertFalse(b.isInterface());
+
+        ClassHeader c = ConstantPoolScanner.header(new ByteArrayInputStream(bytecode(C.class)));
+        assertTrue(c.isInterface());
+        assertEquals(Object.class.getName(), c.getSuperName());
+
+        ClassHeader m = ConstantPoolScanner.parse(new ByteArrayInputStream(bytecode(ScanMetrics.class))).header();
+        assertEquals(ScanMetrics.class.getName(), m.getName());
+        assertEquals(Arrays.asList(ScanListener.class.getName()), m.getInterfaces());
+        assertEquals(ClassHeader.ACC_FINAL, m.getAccessFlags() & ClassHeader.ACC_FINAL);
+
+        // a stream that ends right after the pool is still good for everything else
+        byte[] d = bytecode(D.class);
+        byte[] poolOnly = Arrays.copyOf(d, new PoolIndex().index(ByteBuffer.wrap(d)).end);
+        assertEquals(ConstantPoolScanner.dependencies(d), ConstantPoolScanner.dependencies(new ByteArrayInputStream(poolOnly)));
+        try {
+            ConstantPoolScanner.parse(new ByteArrayInputStream(poolOnly)).header();
+            fail();
+        } catch (EOFException e) {
+            // expected
+        }
+    }
+
+    @Test public void malformedUtf8() throws Exception {
+        byte[] d = bytecode(D.class);
+        PoolIndex idx = new PoolIndex().index(ByteBuffer.wrap(d));
+        int name = -1;
+        for (int i = 1; i < idx.count && name < 0; i++) {
+            if (idx.tags[i] == 7)
+                name = idx.u2(i, 0);
+        }
+        d[idx.offsets[name] + 2] = (byte) 0xFF;
+        try {
+            ConstantPoolScanner.parse(d, ConstantType.CLASS);
+            fail();
+        } catch (IOException e) {
+            // expected, rather than an IllegalStateException from ClassConstant.get() later on
+        }
+        // not looked at, so no harm done, until it is
+        ConstantPool pool = ConstantPoolScanner.parse(d, ConstantType.INTEGER);
+        try {
+            pool.utf8At(name);
+            fail();
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("entry " + name));
+        }
+    }
+
+    @Test(expected = IOException.class) public void truncated() throws Exception {
+        byte[] bytecode = bytecode(D.class);
+        ConstantPoolScanner.dependencies(ByteBuffer.wrap(bytecode, 0, 40).slice());
+    }
+
+    private static byte[] bytecode(Class<?> c) throws IOException {
+        return IOUtils.toByteArray(c.getClassLoader().getResourceAsStream(c.getName().replace('.', '/') + ".class"));
+    }
+
     private static void assertDependencies(Class<?> from, Class<?>... to) throws IOException {
         Set<String> expected = new TreeSet<String>();
         for (Class<?> c : to) {
             expected.add(c.getName());
         }
         expected.add(from.getName());
-        byte[] bytecode = IOUtils.toByteArray(from.getClassLoader().getResourceAsStream(from.getName().replace('.', '/') + ".class"));
+        byte[] bytecode = bytecode(from);
         Set<String> actual = ConstantPoolScanner.dependencies(bytecode);
         assertEquals(expected.toString(), actual.toString());
     }
@@ -0,0 +1,81 @@
+package org.jenkinsci.constant_pool_scanner;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+public class ConstantPoolSnapshotTest {
+
+    @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test public void roundTrip() throws Exception {
+        Map<String,ConstantPool> pools = new TreeMap<String,ConstantPool>();
+        for (Class<?> c : JarScannerTest.SAMPLES) {
+            byte[] bytecode = JarScannerTest.bytecode(c);
+            // from a stream only the part up to the header is kept; either way is fine
+            pools.put(c.getName(), c.isInterface()
+                    ? ConstantPoolScanner.parse(new ByteArrayInputStream(bytecode), ConstantType.CLASS)
+                    : ConstantPoolScanner.parse(bytecode, ConstantType.CLASS));
+        }
+        File file = tmp.newFile("pools.bin");
+        ConstantPoolSnapshot.write(file, pools);
+        ConstantPoolSnapshot snapshot = ConstantPoolSnapshot.open(file);
+        assertEquals(pools.size(), snapshot.size());
+        assertEquals(new ArrayList<String>(pools.keySet()), snapshot.names());
+        assertNull(snapshot.get("no.such.Class"));
+
+        long classFiles = 0;
+        for (Class<?> c : JarScannerTest.SAMPLES) {
+            byte[] bytecode = JarScannerTest.bytecode(c);
+            classFiles += bytecode.length;
+            ConstantPool expected = ConstantPoolScanner.parse(bytecode, ConstantType.values());
+            ConstantPool actual = snapshot.get(c.getName());
+            assertEquals(expected.size(), actual.size());
+            assertEquals(list(expected, Utf8Constant.class), list(actual, Utf8Constant.class));
+            assertEquals(list(expected, MethodRefConstant.class), list(actual, MethodRefConstant.class));
+            assertEquals(expected.header().toString(), actual.header().toString());
+            ConstantPool classes = snapshot.get(c.getName(), ConstantType.CLASS);
+            assertEquals(list(expected, ClassConstant.class), list(classes, ClassConstant.class));
+            assertFalse(classes.list(StringConstant.class).iterator().hasNext());
+        }
+        assertTrue(file.length() < classFiles);
+    }
+
+    @Test public void notASnapshot() throws Exception {
+        File file = tmp.newFile("junk.bin");
+        FileUtils.writeByteArrayToFile(file, JarScannerTest.bytecode(ConstantPool.class));
+        try {
+            ConstantPoolSnapshot.open(file);
+            fail();
+        } catch (IOException x) {
+            // expected
+        }
+        ConstantPoolSnapshot.write(file, new TreeMap<String,ConstantPool>());
+        assertEquals(0, ConstantPoolSnapshot.open(file).size());
+    }
+
+    private static List<String> list(ConstantPool pool, Class<?> type) {
+        List<String> r = new ArrayList<String>();
+        for (Object o : pool.list(type)) {
+            if (o instanceof MemberRefConstant) {
+                MemberRefConstant m = (MemberRefConstant) o;
+                r.add(m.getClazz() + "." + m.getName() + m.getDescriptor());
+            } else if (o instanceof ClassConstant) {
+                r.add(((ClassConstant) o).get());
+            } else {
+                r.add(o.toString());
+            }
+        }
+        return r;
+    }
+}
@@ -0,0 +1,109 @@
+package org.jenkinsci.constant_pool_scanner;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import org.jenkinsci.constant_pool_scanner.samples.A;
+import org.jenkinsci.constant_pool_scanner.samples.B;
+import org.jenkinsci.constant_pool_scanner.samples.C;
+import org.jenkinsci.constant_pool_scanner.samples.D;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+public class DependencyGraphTest {
+
+    @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static DependencyGraph sample() {
+        return new DependencyGraph.Builder()
+                .add("p.A", "one.jar", Arrays.asList("p.A", "p.B", "java.lang.Object"))
+                .add("p.B", "one.jar", Arrays.asList("q.C", "java.lang.Object"))
+                .add("q.C", "two.jar", Arrays.asList("p.A", "q.D"))
+                .add("q.D", "two.jar", Arrays.asList("java.lang.String", "java.lang.String"))
+                .add("r.E", "three.jar", Arrays.asList("q.D"))
+                .build();
+    }
+
+    @Test public void classes() {
+        DependencyGraph g = sample();
+        assertEquals(7, g.size());
+        assertEquals(Arrays.asList("java.lang.Object", "java.lang.String", "p.A", "p.B", "q.C", "q.D", "r.E"), names(g, 0, 1, 2, 3, 4, 5, 6));
+        int a = g.id("p.A");
+        assertEquals(-1, g.id("p.Z"));
+        // no self-loop, no duplicates
+        assertEquals(Arrays.asList("java.lang.Object", "p.B"), names(g, g.successors(a)));
+        assertEquals(Arrays.asList("java.lang.String"), names(g, g.successors(g.id("q.D"))));
+        assertEquals(0, g.successors(g.id("java.lang.Object")).length);
+        assertTrue(g.isDeclared(a));
+        assertFalse(g.isDeclared(g.id("java.lang.String")));
+        assertEquals("two.jar", g.container(g.id("q.C")));
+        assertNull(g.container(g.id("java.lang.String")));
+
+        assertTrue(g.reaches(g.id("r.E"), g.id("java.lang.String")));
+        assertFalse(g.reaches(g.id("q.D"), a));
+        BitSet r = g.reachableFrom(g.id("q.C"));
+        assertEquals(6, r.cardinality());
+        assertFalse(r.get(g.id("r.E")));
+
+        assertEquals(Arrays.asList("q.C"), names(g, g.transpose().successors(a)));
+        assertEquals(Arrays.asList("q.C", "r.E"), names(g, g.transpose().successors(g.id("q.D"))));
+    }
+
+    @Test public void cycles() {
+        DependencyGraph g = sample();
+        List<int[]> cycles = g.cycles();
+        assertEquals(1, cycles.size());
+        assertEquals(Arrays.asList("p.A", "p.B", "q.C"), names(g, cycles.get(0)));
+        // reverse topological order
+        int[] c = g.components();
+        for (int i = 0; i < g.size(); i++) {
+            for (int j : g.successors(i)) {
+                assertTrue(c[j] <= c[i]);
+            }
+        }
+    }
+
+    @Test public void rollup() {
+        DependencyGraph p = sample().packages();
+        assertEquals(Arrays.asList("java.lang", "p", "q", "r"), names(p, 0, 1, 2, 3));
+        assertEquals(Arrays.asList("java.lang", "q"), names(p, p.successors(p.id("p"))));
+        assertFalse(p.isDeclared(p.id("java.lang")));
+        assertEquals(1, p.cycles().size());
+
+        DependencyGraph j = sample().containers();
+        assertEquals(Arrays.asList("one.jar", "three.jar", "two.jar"), names(j, 0, 1, 2));
+        assertEquals(Arrays.asList("two.jar"), names(j, j.successors(j.id("three.jar"))));
+        assertEquals(Arrays.asList("one.jar", "two.jar"), names(j, j.cycles().get(0)));
+    }
+
+    @Test public void scanned() throws Exception {
+        File jar = JarScannerTest.jar(tmp.newFile("samples.jar"), A.class, B.class, C.class, D.class);
+        DependencyGraph g = new DependencyGraph.Builder().addArchive("samples.jar", new JarScanner().scan(jar)).build();
+        int d = g.id(D.class.getName());
+        assertTrue(g.isDeclared(d));
+        assertTrue(g.reaches(d, g.id(A.class.getName())));
+        assertEquals(0, g.cycles().size());
+        assertEquals("samples.jar", g.container(d));
+
+        // ids straight from the scanner
+        SymbolTable symbols = new SymbolTable();
+        ScannerContext context = new ScannerContext(symbols);
+        DependencyGraph.Builder b = new DependencyGraph.Builder(symbols);
+        for (Class<?> c : new Class<?>[] {A.class, B.class, C.class, D.class}) {
+            b.add(symbols.id(c.getName()), null, context.dependencyIds(JarScannerTest.bytecode(c)));
+        }
+        DependencyGraph h = b.build();
+        assertEquals(names(g, g.successors(d)), names(h, h.successors(h.id(D.class.getName()))));
+    }
+
+    private static List<String> names(DependencyGraph g, int... ids) {
+        String[] r = new String[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            r[i] = g.name(ids[i]);
+        }
+        return Arrays.asList(r);
+    }
+}
@@ -0,0 +1,70 @@
+package org.jenkinsci.constant_pool_scanner;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import org.apache.commons.io.FileUtils;
+import org.jenkinsci.constant_pool_scanner.samples.A;
+import org.jenkinsci.constant_pool_scanner.samples.B;
+import org.jenkinsci.constant_pool_scanner.samples.C;
+import org.jenkinsci.constant_pool_scanner.samples.D;
+import org.jenkinsci.constant_pool_scanner.samples.E;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.jenkinsci.constant_pool_scanner.JarScannerTest.*;
+import static org.junit.Assert.*;
+
+public class DependencyIndexTest {
+
+    @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test public void incremental() throws Exception {
+        File jar = jar(tmp.newFile("a.jar"), A.class, B.class, C.class);
+        File dir = tmp.newFolder("classes");
+        FileUtils.writeByteArrayToFile(new File(dir, entryName(D.class)), bytecode(D.class));
+        File indexFile = new File(tmp.getRoot(), "index.bin");
+
+        DependencyIndex index = DependencyIndex.update(indexFile, Arrays.asList(jar, dir));
+        for (Class<?> c : new Class<?>[] {A.class, B.class, C.class, D.class}) {
+            assertEquals(ConstantPoolScanner.dependencies(bytecode(c)), index.dependencies(c.getName()));
+        }
+        assertNull(index.dependencies(E.class.getName()));
+        assertEquals(new JarScanner().scan(jar), index.scan(jar));
+        assertEquals(Arrays.asList(jar, dir), index.archives());
+        assertEquals(index.scan(jar), DependencyIndex.open(indexFile).scan(jar));
+
+        // same size and timestamp: the jar is not even opened, so garbage goes unnoticed
+        long mtime = jar.lastModified();
+        RandomAccessFile raf = new RandomAccessFile(jar, "rw");
+        raf.write(new byte[(int) raf.length()]);
+        raf.close();
+        assertTrue(jar.setLastModified(mtime));
+        assertEquals(index.scan(jar), DependencyIndex.update(indexFile, Arrays.asList(jar, dir)).scan(jar));
+
+        jar(jar, A.class, B.class, E.class);
+        assertTrue(jar.setLastModified(mtime + 10000));
+        FileUtils.writeByteArrayToFile(new File(dir, entryName(C.class)), bytecode(C.class));
+        index = DependencyIndex.update(indexFile, Arrays.asList(jar, dir));
+        assertNull("C moved from the jar to the directory", index.scan(jar).get(entryName(C.class)));
+        for (Class<?> c : new Class<?>[] {A.class, B.class, C.class, D.class, E.class}) {
+            assertEquals(ConstantPoolScanner.dependencies(bytecode(c)), index.dependencies(c.getName()));
+        }
+        assertEquals(new JarScanner().scan(jar), index.scan(jar));
+    }
+
+    @Test public void corrupt() throws Exception {
+        File jar = jar(tmp.newFile("a.jar"), A.class);
+        File indexFile = tmp.newFile("index.bin");
+        FileUtils.writeStringToFile(indexFile, "garbage");
+        DependencyIndex index = DependencyIndex.update(indexFile, Arrays.asList(jar));
+        assertEquals(ConstantPoolScanner.dependencies(bytecode(A.class)), index.dependencies(A.class.getName()));
+    }
+
+    @Test(expected = IllegalArgumentException.class) public void filteredScanner() throws Exception {
+        File jar = jar(tmp.newFile("a.jar"), A.class);
+        JarScanner scanner = new JarScanner(ForkJoinPool.commonPool(), null, new ScanOptions().exclude("java"));
+        DependencyIndex.update(new File(tmp.getRoot(), "index.bin"), Arrays.asList(jar), scanner);
+    }
+}
@@ -0,0 +1,105 @@
+package org.jenkinsci.constant_pool_scanner;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.commons.io.FileUtils;
+import org.jenkinsci.constant_pool_scanner.samples.A;
+import org.jenkinsci.constant_pool_scanner.samples.B;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+public class EmbeddedIndexTest {
+
+    @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+    private final AtomicInteger scans = new AtomicInteger();
+
+    @After public void noListener() {
+        ScannerContext.setDefaultListener(null);
+    }
+
+    @Test public void scan() throws Exception {
+        File classes = tmp.newFolder("classes");
+        for (Class<?> c : JarScannerTest.SAMPLES) {
+            File f = new File(classes, JarScannerTest.entryName(c));
+            f.getParentFile().mkdirs();
+            FileUtils.writeByteArrayToFile(f, JarScannerTest.bytecode(c));
+        }
+        File indexFile = new File(classes, EmbeddedIndex.ENTRY);
+        assertEquals(JarScannerTest.SAMPLES.length, EmbeddedIndex.write(classes, indexFile));
+        byte[] index = FileUtils.readFileToByteArray(indexFile);
+        // the same classes give the same bytes, whenever they were compiled
+        for (Object o : FileUtils.listFiles(classes, new String[] {"class"}, true)) {
+            File f = (File) o;
+            f.setLastModified(f.lastModified() - 60000);
+        }
+        EmbeddedIndex.write(classes, indexFile);
+        assertTrue(Arrays.equals(index, FileUtils.readFileToByteArray(indexFile)));
+
+        // a class that fails to scan leaves the index as it was
+        File broken = new File(classes, "Broken.class");
+        FileUtils.writeStringToFile(broken, "not a class");
+        try {
+            EmbeddedIndex.write(classes, indexFile);
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+        assertTrue(Arrays.equals(index, FileUtils.readFileToByteArray(indexFile)));
+        assertTrue(broken.delete());
+
+        // nothing needs to be scanned
+        File jar = jar("indexed.jar", index, null);
+        Map<String,Set<String>> expected = new JarScanner().scan(jar);
+        assertEquals(JarScannerTest.SAMPLES.length, expected.size());
+        listen();
+        assertEquals(expected, EmbeddedIndex.scan(jar));
+        assertEquals(0, scans.get());
+
+        // a class changed after the build
+        jar = jar("changed.jar", index, JarScannerTest.bytecode(B.class));
+        expected = new JarScanner().scan(jar);
+        scans.set(0);
+        assertEquals(expected, EmbeddedIndex.scan(jar));
+        assertEquals(1, scans.get());
+        assertEquals(ConstantPoolScanner.dependencies(JarScannerTest.bytecode(B.class)), expected.get(JarScannerTest.entryName(A.class)));
+
+        // no index, or not one that can be read
+        jar = jar("plain.jar", null, null);
+        assertEquals(new JarScanner().scan(jar), EmbeddedIndex.scan(jar));
+        jar = jar("corrupt.jar", "CPSI but not really".getBytes("UTF-8"), null);
+        assertEquals(new JarScanner().scan(jar), EmbeddedIndex.scan(jar));
+    }
+
+    private void listen() {
+        ScannerContext.setDefaultListener(new ScanListener() {
+            public void scanned(ScanStatistics stats) {
+                scans.incrementAndGet();
+            }
+        });
+    }
+
+    /**
+     * Packages the samples like the jar plugin would.
+     *
+     * @param index contents of {@link EmbeddedIndex#ENTRY}, if any
+     * @param a if non-null, replaces the contents of {@link A}
+     */
+    private File jar(String name, byte[] index, byte[] a) throws IOException {
+        Map<String,byte[]> entries = new LinkedHashMap<String,byte[]>();
+        if (index != null)
+            entries.put(EmbeddedIndex.ENTRY, index);
+        for (Class<?> c : JarScannerTest.SAMPLES) {
+            entries.put(JarScannerTest.entryName(c), c == A.class && a != null ? a : JarScannerTest.bytecode(c));
+        }
+        return JarScannerTest.jar(tmp.newFile(name), entries);
+    }
+}
@@ -0,0 +1,90 @@
+package org.jenkinsci.constant_pool_scanner;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.jenkinsci.constant_pool_scanner.samples.A;
+import org.jenkinsci.constant_pool_scanner.samples.B;
+import org.jenkinsci.constant_pool_scanner.samples.C;
+import org.jenkinsci.constant_pool_scanner.samples.D;
+import org.jenkinsci.constant_pool_scanner.samples.E;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+public class JarDiffTest {
+
+    @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+    @After public void noListener() {
+        ScannerContext.setDefaultListener(null);
+    }
+
+    @Test public void diff() throws Exception {
+        Map<String,byte[]> before = new TreeMap<String,byte[]>();
+        for (Class<?> c : new Class<?>[] {A.class, B.class, C.class, D.class}) {
+            before.put(JarScannerTest.entryName(c), JarScannerTest.bytecode(c));
+        }
+        Map<String,byte[]> after = new TreeMap<String,byte[]>(before);
+        after.remove(JarScannerTest.entryName(C.class));
+        after.put(JarScannerTest.entryName(E.class), JarScannerTest.bytecode(E.class));
+        // D now has the body of B
+        after.put(JarScannerTest.entryName(D.class), JarScannerTest.bytecode(B.class));
+
+        final AtomicInteger scans = new AtomicInteger();
+        ScannerContext.setDefaultListener(new ScanListener() {
+            public void scanned(ScanStatistics stats) {
+                scans.incrementAndGet();
+            }
+        });
+        File oldJar = JarScannerTest.jar(tmp.newFile("old.jar"), before), newJar = JarScannerTest.jar(tmp.newFile("new.jar"), after);
+        List<JarDiff.Change> changes = new JarDiff(new ForkJoinPool(2), null).diff(oldJar, newJar);
+        // A and B are identical and never read; each of the other four versions takes one pass
+        assertEquals(4, scans.get());
+        assertEquals(3, changes.size());
+
+        JarDiff.Change c = changes.get(0);
+        assertEquals(JarScannerTest.entryName(C.class), c.getName());
+        assertEquals(JarDiff.Change.Kind.REMOVED, c.getKind());
+        assertEquals(ConstantPoolScanner.dependencies(JarScannerTest.bytecode(C.class)), c.getRemovedDependencies());
+        assertTrue(c.getAddedDependencies().isEmpty());
+
+        String samples = A.class.getPackage().getName();
+        String internal = samples.replace('.', '/');
+        JarDiff.Change d = changes.get(1);
+        assertEquals(JarScannerTest.entryName(D.class), d.getName());
+        assertEquals(JarDiff.Change.Kind.CHANGED, d.getKind());
+        assertEquals("[" + samples + ".A.<init>()V]", d.getAddedMembers().toString());
+        assertEquals("[java.lang.Object.<init>()V, " + samples + ".B.<init>()V, " + samples + ".C.m(L" + internal + "/A;)Ljava/lang/String;]", d.getRemovedMembers().toString());
+        assertEquals(minus(ConstantPoolScanner.dependencies(JarScannerTest.bytecode(B.class)), ConstantPoolScanner.dependencies(JarScannerTest.bytecode(D.class))), d.getAddedDependencies());
+        assertEquals(minus(ConstantPoolScanner.dependencies(JarScannerTest.bytecode(D.class)), ConstantPoolScanner.dependencies(JarScannerTest.bytecode(B.class))), d.getRemovedDependencies());
+
+        JarDiff.Change e = changes.get(2);
+        assertEquals(JarDiff.Change.Kind.ADDED, e.getKind());
+        assertEquals(ConstantPoolScanner.dependencies(JarScannerTest.bytecode(E.class)), e.getAddedDependencies());
+
+        // filtered
+        changes = new JarDiff(ForkJoinPool.commonPool(), new ScanOptions().include("java")).diff(oldJar, newJar);
+        assertEquals(3, changes.size());
+        assertTrue(changes.get(1).getAddedMembers().isEmpty());
+        assertEquals("[java.lang.Object.<init>()V]", changes.get(1).getRemovedMembers().toString());
+
+        // nothing changed
+        assertTrue(new JarDiff().diff(oldJar, JarScannerTest.jar(tmp.newFile("same.jar"), before)).isEmpty());
+    }
+
+    private static Set<String> minus(Set<String> a, Set<String> b) {
+        Set<String> r = new TreeSet<String>(a);
+        r.removeAll(b);
+        return r;
+    }
+}
@@ -0,0 +1,96 @@
+package org.jenkinsci.constant_pool_scanner;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import org.apache.commons.io.IOUtils;
+import org.jenkinsci.constant_pool_scanner.samples.A;
+import org.jenkinsci.constant_pool_scanner.samples.B;
+import org.jenkinsci.constant_pool_scanner.samples.C;
+import org.jenkinsci.constant_pool_scanner.samples.D;
+import org.jenkinsci.constant_pool_scanner.samples.E;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+public class JarScannerTest {
+
+    @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+    static final Class<?>[] SAMPLES = {A.class, B.class, C.class, D.class, E.class, ConstantPoolScanner.class, ConstantPool.class, JarScanner.class};
+
+    @Test public void scan() throws Exception {
+        File jar = jar(tmp.newFile("samples.jar"), SAMPLES);
+        Map<String,Set<String>> result = new JarScanner(new ForkJoinPool(3)).scan(jar);
+        assertEquals(SAMPLES.length, result.size());
+        Set<String> merged = new TreeSet<String>();
+        for (Class<?> c : SAMPLES) {
+            Set<String> expected = ConstantPoolScanner.dependencies(bytecode(c));
+            assertEquals(expected, result.get(entryName(c)));
+            merged.addAll(expected);
+        }
+        ZipFile zip = new ZipFile(jar);
+        try {
+            assertEquals(merged, new JarScanner().dependencies(zip));
+        } finally {
+            zip.close();
+        }
+    }
+
+    @Test public void malformed() throws Exception {
+        File jar = tmp.newFile("bad.jar");
+        JarOutputStream out = new JarOutputStream(new FileOutputStream(jar));
+        out.putNextEntry(new ZipEntry("Bad.class"));
+        out.write(Arrays.copyOf(bytecode(D.class), 30));
+        out.close();
+        try {
+            new JarScanner().scan(jar);
+            fail();
+        } catch (IOException x) {
+            assertTrue(x.getMessage(), x.getMessage().contains("Bad.class"));
+        }
+    }
+
+    static File jar(File jar, Class<?>... classes) throws IOException {
+        Map<String,byte[]> entries = new LinkedHashMap<String,byte[]>();
+        for (Class<?> c : classes) {
+            entries.put(entryName(c), bytecode(c));
+        }
+        return jar(jar, entries);
+    }
+
+    /**
+     * @param entries contents by entry name, written in iteration order after a {@code META-INF/} directory
+     */
+    static File jar(File jar, Map<String,byte[]> entries) throws IOException {
+        JarOutputStream out = new JarOutputStream(new FileOutputStream(jar));
+        try {
+            out.putNextEntry(new ZipEntry("META-INF/"));
+            for (Map.Entry<String,byte[]> e : entries.entrySet()) {
+                out.putNextEntry(new ZipEntry(e.getKey()));
+                out.write(e.getValue());
+            }
+        } finally {
+            out.close();
+        }
+        return jar;
+    }
+
+    static String entryName(Class<?> c) {
+        return c.getName().replace('.', '/') + ".class";
+    }
+
+    static byte[] bytecode(Class<?> c) throws IOException {
+        return IOUtils.toByteArray(c.getClassLoader().getResourceAsStream(entryName(c)));
+    }
+}
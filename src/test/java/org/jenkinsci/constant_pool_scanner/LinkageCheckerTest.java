@@ -0,0 +1,74 @@
+package org.jenkinsci.constant_pool_scanner;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.List;
+import org.apache.commons.io.FileUtils;
+import org.jenkinsci.constant_pool_scanner.samples.A;
+import org.jenkinsci.constant_pool_scanner.samples.B;
+import org.jenkinsci.constant_pool_scanner.samples.C;
+import org.jenkinsci.constant_pool_scanner.samples.D;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+public class LinkageCheckerTest {
+
+    @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+    /**
+     * The Java platform; on Java 8 the extension class loader, which also finds the bootstrap classes.
+     */
+    private static final MemberIndex PLATFORM = new MemberIndex(ClassLoader.getSystemClassLoader().getParent());
+
+    @Test public void consistent() throws Exception {
+        File jar = JarScannerTest.jar(tmp.newFile("samples.jar"), A.class, B.class, C.class, D.class);
+        assertEquals("[]", new LinkageChecker(PLATFORM).check(jar).toString());
+    }
+
+    @Test public void ownClasses() throws Exception {
+        // every class of this library against the library itself, which uses lambdas, MethodHandles, JFR...
+        MemberIndex index = new MemberIndex(PLATFORM);
+        File classes = new File(ConstantPool.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        index.add(classes);
+        assertTrue(index.containsClass(LinkageChecker.Problem.Kind.class.getName()));
+        assertTrue(index.containsClass("java.lang.invoke.MethodHandle"));
+        LinkageChecker checker = new LinkageChecker(index);
+        for (Object o : FileUtils.listFiles(classes, new String[] {"class"}, true)) {
+            File f = (File) o;
+            assertEquals(f.getName(), "[]", checker.check(FileUtils.readFileToByteArray(f)).toString());
+        }
+    }
+
+    @Test public void missingClass() throws Exception {
+        File jar = JarScannerTest.jar(tmp.newFile("partial.jar"), C.class, D.class);
+        List<LinkageChecker.Problem> problems = new LinkageChecker(PLATFORM).check(jar);
+        assertEquals(1, problems.size());
+        LinkageChecker.Problem p = problems.get(0);
+        assertEquals(LinkageChecker.Problem.Kind.MISSING_CLASS, p.getKind());
+        assertEquals(D.class.getName(), p.getSource());
+        assertEquals(B.class.getName(), p.getOwner());
+    }
+
+    @Test public void missingMethod() throws Exception {
+        // C, but with its method renamed from m to n
+        byte[] c = JarScannerTest.bytecode(C.class);
+        PoolIndex idx = new PoolIndex().index(ByteBuffer.wrap(c));
+        for (int i = 1; i < idx.count; i++) {
+            if (idx.tags[i] == 1 && idx.utf8(i).equals("m"))
+                c[idx.offsets[i] + 2] = 'n';
+        }
+        MemberIndex index = new MemberIndex(PLATFORM);
+        index.add(JarScannerTest.bytecode(A.class));
+        index.add(JarScannerTest.bytecode(B.class));
+        index.add(c);
+        List<LinkageChecker.Problem> problems = new LinkageChecker(index).check(JarScannerTest.bytecode(D.class));
+        assertEquals(1, problems.size());
+        LinkageChecker.Problem p = problems.get(0);
+        assertEquals(LinkageChecker.Problem.Kind.MISSING_METHOD, p.getKind());
+        assertEquals(C.class.getName(), p.getOwner());
+        assertEquals("m", p.getName());
+        assertEquals("(L" + A.class.getName().replace('.', '/') + ";)Ljava/lang/String;", p.getDescriptor());
+    }
+}
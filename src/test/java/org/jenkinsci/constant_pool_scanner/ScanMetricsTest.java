@@ -0,0 +1,145 @@
+package org.jenkinsci.constant_pool_scanner;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.jenkinsci.constant_pool_scanner.samples.D;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+public class ScanMetricsTest {
+
+    @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test public void statistics() throws Exception {
+        byte[] bytecode = JarScannerTest.bytecode(D.class);
+        final List<ScanStatistics> scans = new ArrayList<ScanStatistics>();
+        ScannerContext context = new ScannerContext();
+        context.setListener(new ScanListener() {
+            public void scanned(ScanStatistics stats) {
+                scans.add(stats);
+            }
+        });
+        Set<String> deps = context.dependencies(new ByteArrayInputStream(bytecode));
+        ConstantPool pool = context.parse(ByteBuffer.wrap(bytecode), Arrays.asList(ConstantType.values()));
+        try {
+            context.dependencies(Arrays.copyOf(bytecode, 40));
+            fail();
+        } catch (IOException x) {
+            // expected
+        }
+        assertEquals(3, scans.size());
+
+        ScanStatistics s = scans.get(0);
+        assertNull(s.getFailure());
+        assertEquals(pool.size(), s.getPoolSize());
+        assertEquals(pool.indicesOf(ConstantType.CLASS).length, s.getCount(ConstantType.CLASS));
+        assertEquals(pool.indicesOf(ConstantType.UTF8).length, s.getCount(ConstantType.UTF8));
+        assertEquals(deps.size(), s.getDecoded());
+        assertTrue(s.getBytes() > 10 && s.getBytes() < bytecode.length);
+        assertTrue(s.getParseNanos() > 0);
+        assertEquals(s.getBytes(), scans.get(1).getBytes());
+        assertEquals("nothing is decoded by parsing", 0, scans.get(1).getDecoded());
+        assertEquals(ScanStatistics.Failure.TRUNCATED, scans.get(2).getFailure());
+    }
+
+    @Test public void failures() throws Exception {
+        byte[] bytecode = JarScannerTest.bytecode(D.class);
+        PoolIndex idx = new PoolIndex().index(ByteBuffer.wrap(bytecode));
+        int clazz = -1;
+        for (int i = 1; i < idx.count && clazz < 0; i++) {
+            if (idx.tags[i] == 7)
+                clazz = i;
+        }
+
+        byte[] malformed = bytecode.clone();
+        malformed[idx.offsets[idx.u2(clazz, 0)] + 2] = (byte) 0xFF;
+        assertEquals(ScanStatistics.Failure.MALFORMED_UTF8, parseFailure(malformed));
+
+        byte[] badReference = bytecode.clone();
+        // the class entry names itself rather than a CONSTANT_Utf8
+        badReference[idx.offsets[clazz]] = (byte) (clazz >> 8);
+        badReference[idx.offsets[clazz] + 1] = (byte) clazz;
+        assertEquals(ScanStatistics.Failure.BAD_REFERENCE, parseFailure(badReference));
+    }
+
+    private static ScanStatistics.Failure parseFailure(byte[] bytecode) {
+        final List<ScanStatistics> scans = new ArrayList<ScanStatistics>();
+        ScannerContext context = new ScannerContext();
+        context.setListener(new ScanListener() {
+            public void scanned(ScanStatistics stats) {
+                scans.add(stats);
+            }
+        });
+        try {
+            context.parse(ByteBuffer.wrap(bytecode), Arrays.asList(ConstantType.CLASS));
+            fail();
+        } catch (IOException x) {
+            // expected
+        }
+        assertEquals(1, scans.size());
+        return scans.get(0).getFailure();
+    }
+
+    @Test public void aggregate() throws Exception {
+        byte[] bytecode = JarScannerTest.bytecode(D.class);
+        ScanMetrics metrics = new ScanMetrics();
+        ScannerContext.setDefaultListener(metrics);
+        try {
+            ConstantPoolScanner.dependencies(bytecode);
+            ConstantPoolScanner.referencesAny(bytecode, new ClassNameMatcher().addPackage("java"));
+            SymbolTable symbols = new SymbolTable();
+            new ScannerContext(symbols).dependencyIds(bytecode);
+            new ScannerContext(symbols).dependencyIds(bytecode);
+            try {
+                ConstantPoolScanner.dependencies(new ByteArrayInputStream(bytecode, 0, 30));
+                fail();
+            } catch (IOException x) {
+                // expected
+            }
+        } finally {
+            ScannerContext.setDefaultListener(null);
+        }
+        int classes = ConstantPoolScanner.parse(bytecode, ConstantType.CLASS).indicesOf(ConstantType.CLASS).length;
+        assertEquals(5, metrics.getScans());
+        assertEquals(4 * classes, metrics.getCount(ConstantType.CLASS));
+        int deps = ConstantPoolScanner.dependencies(bytecode).size();
+        assertEquals("the second symbol table scan decodes nothing", 2 * deps, metrics.getDecoded());
+        assertEquals(Long.valueOf(1), metrics.getFailures().get(ScanStatistics.Failure.TRUNCATED));
+        assertTrue(metrics.toString(), metrics.toString().contains("CLASS=" + 4 * classes));
+    }
+
+    @Test public void flightRecorder() throws Exception {
+        ScanListener jfr = ScanListener.flightRecorder();
+        assertNotNull(jfr);
+        File dump = tmp.newFile("scan.jfr");
+        Recording r = new Recording();
+        r.enable("org.jenkinsci.constant_pool_scanner.Scan");
+        r.start();
+        ScannerContext context = new ScannerContext();
+        context.setListener(jfr);
+        Set<String> deps = context.dependencies(JarScannerTest.bytecode(D.class));
+        r.stop();
+        r.dump(dump.toPath());
+        r.close();
+        List<RecordedEvent> events = new ArrayList<RecordedEvent>();
+        for (RecordedEvent e : RecordingFile.readAllEvents(dump.toPath())) {
+            if (e.getEventType().getName().equals("org.jenkinsci.constant_pool_scanner.Scan"))
+                events.add(e);
+        }
+        assertEquals(1, events.size());
+        assertEquals(deps.size(), events.get(0).getInt("decoded"));
+        // timed from the start of the scan, not just committed
+        assertTrue(events.get(0).getDuration().toNanos() > 0);
+    }
+}
@@ -0,0 +1,82 @@
+package org.jenkinsci.constant_pool_scanner;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+public class ScanServiceTest {
+
+    @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test public void batch() throws Exception {
+        List<ScanService.Source> sources = new ArrayList<ScanService.Source>();
+        for (Class<?> c : JarScannerTest.SAMPLES) {
+            sources.add(ScanService.Source.of(c.getResource(c.getSimpleName() + ".class")));
+            final byte[] bytecode = JarScannerTest.bytecode(c);
+            sources.add(ScanService.Source.of(c.getName(), new Callable<InputStream>() {
+                public InputStream call() {
+                    return new ByteArrayInputStream(bytecode);
+                }
+            }));
+        }
+        File jar = JarScannerTest.jar(tmp.newFile("samples.jar"), JarScannerTest.SAMPLES);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            // a budget smaller than any class file forces scans to run one at a time
+            ScanService service = new ScanService(executor, 100, null);
+            List<CompletableFuture<Set<String>>> results = service.dependencies(sources);
+            CompletableFuture<Map<String,Set<String>>> archive = service.scan(jar);
+            for (int i = 0; i < JarScannerTest.SAMPLES.length; i++) {
+                Set<String> expected = ConstantPoolScanner.dependencies(JarScannerTest.bytecode(JarScannerTest.SAMPLES[i]));
+                assertEquals(expected, results.get(2 * i).get());
+                assertEquals(expected, results.get(2 * i + 1).get());
+            }
+            assertEquals(new JarScanner().scan(jar), archive.get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test public void failure() throws Exception {
+        ScanService service = new ScanService();
+        try {
+            File bad = tmp.newFile("Bad.class");
+            FileUtils.writeByteArrayToFile(bad, Arrays.copyOf(JarScannerTest.bytecode(ConstantPool.class), 30));
+            try {
+                service.dependencies(ScanService.Source.of(bad.toPath())).get();
+                fail();
+            } catch (ExecutionException x) {
+                assertTrue(x.getCause() instanceof IOException);
+                assertTrue(x.getCause().getMessage(), x.getCause().getMessage().contains("Bad.class"));
+            }
+            // sizing a source fails like reading it does
+            try {
+                service.dependencies(ScanService.Source.of(new File(tmp.getRoot(), "Missing.class").toPath())).get();
+                fail();
+            } catch (ExecutionException x) {
+                assertTrue(x.getCause().getMessage(), x.getCause().getMessage().startsWith("Failed to scan"));
+            }
+            // the budget was given back
+            assertEquals(ConstantPoolScanner.dependencies(JarScannerTest.bytecode(ConstantPool.class)),
+                    service.dependencies(ScanService.Source.of(ConstantPool.class.getResource("ConstantPool.class"))).get());
+        } finally {
+            service.close();
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package org.jenkinsci.constant_pool_scanner;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.jenkinsci.constant_pool_scanner.samples.D;
+import org.junit.Test;
+import static org.jenkinsci.constant_pool_scanner.JarScannerTest.*;
+import static org.junit.Assert.*;
+
+public class SymbolTableTest {
+
+    @Test public void ids() throws Exception {
+        SymbolTable symbols = new SymbolTable();
+        ScannerContext context = new ScannerContext(symbols);
+        for (Class<?> c : SAMPLES) {
+            byte[] bytecode = bytecode(c);
+            Set<String> expected = ConstantPoolScanner.dependencies(bytecode);
+            int[] ids = context.dependencyIds(bytecode);
+            Set<String> names = new TreeSet<String>();
+            for (int i = 0; i < ids.length; i++) {
+                assertTrue("sorted and distinct", i == 0 || ids[i - 1] < ids[i]);
+                names.add(symbols.name(ids[i]));
+            }
+            assertEquals(expected, names);
+            assertEquals(expected, context.dependencies(new ByteArrayInputStream(bytecode)));
+        }
+        Set<String> d = context.dependencies(bytecode(D.class));
+        for (String name : d) {
+            assertSame(symbols.intern(new String(name)), name);
+            assertEquals(name, symbols.name(symbols.id(name)));
+        }
+    }
+
+    @Test public void concurrent() throws Exception {
+        final SymbolTable symbols = new SymbolTable();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<int[]>> futures = new ArrayList<Future<int[]>>();
+            for (int t = 0; t < 4; t++) {
+                futures.add(executor.submit(new Callable<int[]>() {
+                    public int[] call() {
+                        int[] ids = new int[5000];
+                        for (int i = 0; i < ids.length; i++) {
+                            ids[i] = symbols.id("some.pkg.C" + i);
+                        }
+                        return ids;
+                    }
+                }));
+            }
+            int[] first = futures.get(0).get();
+            for (Future<int[]> f : futures) {
+                assertArrayEquals(first, f.get());
+            }
+            assertEquals(5000, symbols.size());
+            for (int i = 0; i < first.length; i++) {
+                assertEquals("some.pkg.C" + i, symbols.name(first[i]));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,7 @@
+package org.jenkinsci.constant_pool_scanner.samples;
+
+public class E {
+    public static final String GREETING = "héllo \u0000 wörld 😀";
+    public static final long BIG = 1234567890123L;
+    public static final int ANSWER = 4242424;
+}
@@ -0,0 +1,11 @@
+package org.jenkinsci.constant_pool_scanner.samples;
+
+import java.util.function.Function;
+import java.util.zip.Checksum;
+
+public class F {
+    public static Function<Checksum, String> describe() {
+        // Checksum is only mentioned by the instantiated method type passed to the metafactory
+        return Object::toString;
+    }
+}
@@ -0,0 +1,13 @@
+package org.jenkinsci.constant_pool_scanner.samples;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+
+// most of these types are only mentioned by signatures and annotations, not by the constant pool
+public abstract class G<T extends Comparable<? super T>> implements Callable<List<@H(StringBuilder.class) UUID>> {
+    @H(java.util.Locale.class) @Deprecated
+    protected java.util.Map<java.net.URI, ? extends java.io.File> field;
+
+    public abstract <X extends java.util.Random> X method(@Deprecated java.util.Optional<? super java.math.BigDecimal> p, int[][] q) throws java.io.IOException;
+}
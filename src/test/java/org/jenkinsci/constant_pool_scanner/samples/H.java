@@ -0,0 +1,12 @@
+package org.jenkinsci.constant_pool_scanner.samples;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+@Retention(RetentionPolicy.CLASS)
+@Target({ElementType.FIELD, ElementType.TYPE_USE})
+public @interface H {
+    Class<?> value() default java.util.BitSet.class;
+}